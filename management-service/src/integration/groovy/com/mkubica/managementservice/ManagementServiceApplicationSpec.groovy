@@ -1,10 +1,14 @@
 package com.mkubica.managementservice
 
+import com.mkubica.managementservice.domain.dao.GatewayEntity
 import com.mkubica.managementservice.repository.GatewayRepository
+import com.mkubica.managementservice.service.GatewayConfigCache
+import com.mkubica.managementservice.service.GatewayEntityCache
 import com.mkubica.managementservice.service.ip.IpAssigner
 import org.springframework.beans.factory.annotation.Autowired
 import org.springframework.boot.test.autoconfigure.web.servlet.AutoConfigureMockMvc
 import org.springframework.boot.test.context.SpringBootTest
+import org.springframework.dao.DataIntegrityViolationException
 import org.springframework.test.context.ActiveProfiles
 import org.springframework.test.web.servlet.MockMvc
 import spock.lang.Specification
@@ -26,11 +30,20 @@ class ManagementServiceApplicationSpec extends Specification {
     @Autowired
     private IpAssigner ipAssigner
 
-    // NOTE: before every case, repository is cleaned as well as ip assigner revokes all assigned addresses,
-    // that's why there are autowired dependencies to GatewayRepository and IpAssigner
+    @Autowired
+    private GatewayConfigCache gatewayConfigCache
+
+    @Autowired
+    private GatewayEntityCache gatewayEntityCache
+
+    // NOTE: before every case, repository is cleaned as well as ip assigner revokes all assigned addresses
+    // and cached configs and entities are dropped, that's why there are autowired dependencies to GatewayRepository,
+    // IpAssigner, GatewayConfigCache and GatewayEntityCache
     def setup() {
         gatewayRepository.findAll().each { ipAssigner.revokeIp(it.commonName) }
         gatewayRepository.deleteAll()
+        gatewayConfigCache.invalidateAll()
+        gatewayEntityCache.invalidateAll()
 
     }
 
@@ -128,6 +141,86 @@ class ManagementServiceApplicationSpec extends Specification {
 
     }
 
+    def "create gateway asynchronously and long-poll its job"() {
+        given:
+            def commonName = "some-common-name"
+
+        when: "performing post request which prefers asynchronous response"
+            def accepted = mockMvc.perform(
+                    post("/gateway")
+                            .header("Prefer", "respond-async")
+                            .contentType("application/json")
+                            .content("{\"commonName\": \"$commonName\"}")
+            )
+
+        then: "job is accepted"
+            accepted.andExpect(status().isAccepted())
+            accepted.andExpect(jsonPath('$.commonName').value(commonName))
+
+        when: "waiting for the job under returned location"
+            def location = accepted.andReturn().response.getHeader("Location")
+            def polled = mockMvc.perform(asyncDispatch(
+                    mockMvc.perform(get(location).param("wait-millis", "5000")).andReturn()))
+
+        then: "job has created the gateway"
+            polled.andExpect(status().is2xxSuccessful())
+            polled.andExpect(jsonPath('$.status').value("SUCCEEDED"))
+            polled.andExpect(jsonPath('$.gateway.ipAddress').value("10.8.0.2"))
+        and: "gateway exists"
+            mockMvc.perform(get("/gateway/$commonName")).andExpect(status().is2xxSuccessful())
+    }
+
+    def "retried creation of gateway with idempotency key creates gateway once"() {
+        given:
+            def idempotencyKey = UUID.randomUUID().toString()
+            def request = {
+                post("/gateway")
+                        .header("Idempotency-Key", idempotencyKey)
+                        .contentType("application/json")
+                        .content("{\"commonName\": \"some-common-name\"}")
+            }
+
+        when: "performing the same post request twice"
+            def firstResult = mockMvc.perform(request())
+            def retriedResult = mockMvc.perform(request())
+
+        then: "both requests get the same gateway"
+            firstResult.andExpect(status().is2xxSuccessful())
+            retriedResult.andExpect(status().is2xxSuccessful())
+            retriedResult.andExpect(jsonPath('$.ipAddress').value("10.8.0.2"))
+        and: "only single gateway exists"
+            gatewayRepository.count() == 1
+    }
+
+    def "database rejects gateways with duplicated ip address"() {
+        given: "gateway with certain ip address exists"
+            gatewayRepository.save(GatewayEntity.builder().withCommonName("some-common-name-1").withIpAddress("10.8.0.10").build())
+
+        when: "saving another gateway with the same ip address"
+            gatewayRepository.save(GatewayEntity.builder().withCommonName("some-common-name-2").withIpAddress("10.8.0.10").build())
+
+        then: "unique index is violated"
+            thrown(DataIntegrityViolationException)
+    }
+
+    def "create gateways and export them"() {
+        given: "couple of gateways have been created"
+            ["some-common-name-2", "some-common-name-1"].each {
+                mockMvc.perform(post("/gateway").contentType("application/json").content("{\"commonName\": \"$it\"}"))
+                        .andExpect(status().is2xxSuccessful())
+            }
+
+        when: "performing get request to export gateways"
+            def result = mockMvc.perform(get("/gateway-export"))
+
+        then: "every gateway is returned in separate line, ordered by common name"
+            result.andExpect(status().is2xxSuccessful())
+            result.andExpect(content().contentType("application/x-ndjson"))
+            result.andExpect(content().string(
+                    "{\"commonName\":\"some-common-name-1\",\"ipAddress\":\"10.8.0.4\"}\n" +
+                    "{\"commonName\":\"some-common-name-2\",\"ipAddress\":\"10.8.0.2\"}\n"))
+    }
+
     def "create gateway and get gateway config"() {
         given:
             def commonName = "some-common-name"
@@ -0,0 +1,62 @@
+/* Copyright 2021 Mateusz Kubica */
+package com.mkubica.managementservice.service.ip;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import io.vavr.control.Try;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+
+/**
+ * Allocation of {@link SharedVolumeIpAssigner} shared by many threads, every thread assigns and releases
+ * ip address of its own common name, so threads contend on words and cursor of {@link IpPairBitmap} only.
+ * Number of threads can be changed with '-t' option of JMH.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@Threads(4)
+public class ConcurrentIpAssignmentBenchmark {
+
+    @Param({"255.255.255.0", "255.240.0.0"})
+    private String mask;
+
+    @Param({"0.0", "0.5", "0.99"})
+    private double occupancy;
+
+    private SharedVolumeIpAssigner ipAssigner;
+
+    @Setup
+    public void setup() {
+        ipAssigner = new IpAssignerFixture(mask, occupancy).ipAssigner;
+    }
+
+    @State(Scope.Thread)
+    public static class Gateway {
+
+        private static final AtomicInteger THREADS = new AtomicInteger();
+
+        private final String commonName = "benchmark-gateway-" + THREADS.incrementAndGet();
+    }
+
+    @Benchmark
+    public Try<String> assignAndRelease(Gateway gateway) {
+        return ipAssigner.assignIp(gateway.commonName)
+                .flatMap(ipAddress -> ipAssigner.releaseIp(gateway.commonName, ipAddress));
+    }
+}
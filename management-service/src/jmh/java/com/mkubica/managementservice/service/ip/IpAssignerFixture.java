@@ -0,0 +1,104 @@
+/* Copyright 2021 Mateusz Kubica */
+package com.mkubica.managementservice.service.ip;
+
+import com.mkubica.managementservice.domain.dao.GatewayEntity;
+import com.mkubica.managementservice.repository.GatewayRepository;
+import com.mkubica.managementservice.service.GatewayEntityCache;
+
+import java.io.FileNotFoundException;
+import java.lang.reflect.Proxy;
+import java.nio.file.FileAlreadyExistsException;
+import java.time.Duration;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Consumer;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import io.vavr.control.Option;
+import io.vavr.control.Try;
+
+
+/**
+ * In-memory surroundings of {@link SharedVolumeIpAssigner}, so benchmarks measure allocation path only:
+ * client config directory is a map and every change is durable right away, repository serves gateways
+ * out of a map as well. Repository is a proxy answering only queries made by the assigner
+ * and {@link GatewayEntityCache}, anything else fails.
+ */
+final class IpAssignerFixture {
+
+    static final String NETWORK_ADDRESS = "10.0.0.0";
+    private static final int FREE_PAIRS = 4;
+
+    // NOTE: common name -> ip address of gateways which are "persisted"
+    final Map<String, String> gateways = new ConcurrentHashMap<>();
+    final CcdWriter ccdWriter = new InMemoryCcdWriter();
+    final GatewayRepository gatewayRepository = repository(gateways);
+    final GatewayEntityCache gatewayEntityCache = new GatewayEntityCache(
+            gatewayRepository, null, 10_000, Duration.ofMinutes(1), false, new SimpleMeterRegistry());
+    final SharedVolumeIpAssigner ipAssigner;
+
+    /**
+     * @param mask - network mask of the pool, eg. 255.255.0.0
+     * @param occupancy - fraction of pairs which are assigned already, they are scattered across the pool
+     *                  (as they are after gateways have been revoked for a while), not packed at its beginning;
+     *                  last few pairs are always left free, so allocation doesn't fail even for the smallest pool
+     */
+    IpAssignerFixture(String mask, double occupancy) {
+        var pool = IpAssigner.getPairPoolFromAddressAndMask(NETWORK_ADDRESS, mask).get().drop(1);
+        var random = new Random(42);
+        for (int i = 0; i < pool.size(); i++) {
+            if (random.nextDouble() < occupancy && i < pool.size() - FREE_PAIRS) {
+                gateways.put("occupied-" + i, pool.get(i).getLower().toCanonicalString());
+            }
+        }
+        this.ipAssigner = new SharedVolumeIpAssigner(
+                ccdWriter, gatewayRepository, gatewayEntityCache, NETWORK_ADDRESS, mask);
+    }
+
+    @SuppressWarnings("unchecked")
+    private static GatewayRepository repository(Map<String, String> gateways) {
+        return (GatewayRepository) Proxy.newProxyInstance(
+                GatewayRepository.class.getClassLoader(),
+                new Class<?>[]{GatewayRepository.class},
+                (proxy, method, args) -> {
+                    switch (method.getName()) {
+                        case "forEachIpAddress":
+                            gateways.values().forEach((Consumer<String>) args[0]);
+                            return null;
+                        case "getGatewayEntityByCommonName":
+                            return Option.of(gateways.get((String) args[0]))
+                                    .map(ipAddress -> GatewayEntity.builder()
+                                            .withCommonName((String) args[0])
+                                            .withIpAddress(ipAddress)
+                                            .build());
+                        case "getGatewayEntityByIpAddress":
+                            return Option.none();
+                        default:
+                            throw new UnsupportedOperationException(method.getName());
+                    }
+                });
+    }
+
+    private static class InMemoryCcdWriter implements CcdWriter {
+
+        private static final CompletableFuture<Void> DURABLE = CompletableFuture.completedFuture(null);
+
+        private final Map<String, String> entries = new ConcurrentHashMap<>();
+
+        @Override
+        public Try<CompletableFuture<Void>> create(String commonName, String content) {
+            return entries.putIfAbsent(commonName, content) == null
+                    ? Try.success(DURABLE)
+                    : Try.failure(new FileAlreadyExistsException(commonName));
+        }
+
+        @Override
+        public Try<CompletableFuture<Void>> delete(String commonName) {
+            return entries.remove(commonName) != null
+                    ? Try.success(DURABLE)
+                    : Try.failure(new FileNotFoundException(commonName));
+        }
+    }
+}
@@ -0,0 +1,61 @@
+/* Copyright 2021 Mateusz Kubica */
+package com.mkubica.managementservice.service.ip;
+
+import java.util.concurrent.TimeUnit;
+
+import inet.ipaddr.IPAddressSeqRange;
+import io.vavr.collection.TreeSet;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+
+/**
+ * Construction of pool of ip address pairs for /24, /16 and /12 networks: pool computed out of indexes
+ * ({@link IpPairPool}), pairs materialized into sorted set (as {@link IpAssigner#getAllPairsFromAddressAndMask}
+ * does) and whole {@link SharedVolumeIpAssigner} which sizes its bitmap after the pool and fills it
+ * with already assigned pairs.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class IpPairPoolBenchmark {
+
+    @Param({"255.255.255.0", "255.255.0.0", "255.240.0.0"})
+    private String mask;
+
+    private IpAssignerFixture fixture;
+
+    @Setup
+    public void setup() {
+        fixture = new IpAssignerFixture(mask, 0.5);
+    }
+
+    @Benchmark
+    public IpPairPool pairPool() {
+        return IpAssigner.getPairPoolFromAddressAndMask(IpAssignerFixture.NETWORK_ADDRESS, mask).get();
+    }
+
+    @Benchmark
+    public TreeSet<IPAddressSeqRange> materializedPairs() {
+        return IpAssigner.getAllPairsFromAddressAndMask(IpAssignerFixture.NETWORK_ADDRESS, mask).get();
+    }
+
+    // NOTE: half of the pool is assigned already, so the bitmap is filled out of repository on construction
+    @Benchmark
+    public SharedVolumeIpAssigner assigner() {
+        return new SharedVolumeIpAssigner(fixture.ccdWriter, fixture.gatewayRepository, fixture.gatewayEntityCache,
+                IpAssignerFixture.NETWORK_ADDRESS, mask);
+    }
+}
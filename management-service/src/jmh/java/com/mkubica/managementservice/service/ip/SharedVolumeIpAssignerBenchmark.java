@@ -0,0 +1,90 @@
+/* Copyright 2021 Mateusz Kubica */
+package com.mkubica.managementservice.service.ip;
+
+import java.util.concurrent.TimeUnit;
+
+import io.vavr.control.Try;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+
+/**
+ * Allocation paths of {@link SharedVolumeIpAssigner} for /24, /16 and /12 networks at 0%, 50% and 99% occupancy.
+ * Every benchmark leaves occupancy as it found it, i.e. automatically or explicitly assigned ip address is released
+ * (or revoked) within the same invocation, so the pool doesn't fill up while being measured.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class SharedVolumeIpAssignerBenchmark {
+
+    private static final String COMMON_NAME = "benchmark-gateway";
+    private static final String IP_OUTSIDE_POOL = "192.168.0.2";
+
+    @Param({"255.255.255.0", "255.255.0.0", "255.240.0.0"})
+    private String mask;
+
+    @Param({"0.0", "0.5", "0.99"})
+    private double occupancy;
+
+    private IpAssignerFixture fixture;
+    private SharedVolumeIpAssigner ipAssigner;
+    private String freeIp;
+    private String assignedIp;
+
+    @Setup
+    public void setup() {
+        fixture = new IpAssignerFixture(mask, occupancy);
+        ipAssigner = fixture.ipAssigner;
+        // NOTE: lowest free ip is taken and released, so it's known to be free, pair next to it stays assigned
+        freeIp = ipAssigner.assignIp("free-gateway").get();
+        assignedIp = ipAssigner.assignIp("assigned-gateway").get();
+        ipAssigner.releaseIp("free-gateway", freeIp).get();
+    }
+
+    @Benchmark
+    public Try<String> assignAndRelease() {
+        return ipAssigner.assignIp(COMMON_NAME)
+                .flatMap(ipAddress -> ipAssigner.releaseIp(COMMON_NAME, ipAddress));
+    }
+
+    @Benchmark
+    public Try<String> assignExplicitAndRelease() {
+        return ipAssigner.assignIp(COMMON_NAME, freeIp)
+                .flatMap(ipAddress -> ipAssigner.releaseIp(COMMON_NAME, ipAddress));
+    }
+
+    @Benchmark
+    public Try<String> rejectExplicitAlreadyAssigned() {
+        return ipAssigner.assignIp(COMMON_NAME, assignedIp);
+    }
+
+    @Benchmark
+    public Try<String> rejectExplicitOutsidePool() {
+        return ipAssigner.assignIp(COMMON_NAME, IP_OUTSIDE_POOL);
+    }
+
+    // NOTE: gateway is "persisted" in between, so revocation looks its ip address up as it does for real gateways
+    @Benchmark
+    public Try<String> revokeAndReassign() {
+        return ipAssigner.assignIp(COMMON_NAME)
+                .andThen(ipAddress -> fixture.gateways.put(COMMON_NAME, ipAddress))
+                .flatMap(ipAddress -> ipAssigner.revokeIp(COMMON_NAME))
+                .andFinally(() -> {
+                    fixture.gateways.remove(COMMON_NAME);
+                    fixture.gatewayEntityCache.invalidate(COMMON_NAME);
+                });
+    }
+}
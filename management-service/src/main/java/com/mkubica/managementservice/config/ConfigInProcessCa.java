@@ -0,0 +1,57 @@
+/* Copyright 2021 Mateusz Kubica */
+package com.mkubica.managementservice.config;
+
+import com.mkubica.managementservice.repository.RevokedCertificateRepository;
+import com.mkubica.managementservice.service.cert.AsyncClientCertificateRequester;
+import com.mkubica.managementservice.service.cert.CertificateAuthority;
+import com.mkubica.managementservice.service.cert.CertificateRevocation;
+import com.mkubica.managementservice.service.cert.CertificateRevoker;
+import com.mkubica.managementservice.service.cert.InProcessClientCertificateRequester;
+import com.mkubica.managementservice.service.cert.KeyPairPool;
+import com.mkubica.managementservice.service.cert.LocalCertificateRevoker;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.context.annotation.Profile;
+
+import java.time.Duration;
+
+// NOTE: activated on top of remote profile ('remote,in-process-ca'), replaces only certificate requester
+// and revoker, CA key has to be mounted to the service from volume of certificate authority
+@Configuration
+@Profile("remote & in-process-ca")
+public class ConfigInProcessCa {
+
+    @Bean
+    public CertificateAuthority certificateAuthority(
+            @Value("${paths.certificate-authority.ca-cert}") String caCertPath,
+            @Value("${paths.certificate-authority.ca-key}") String caKeyPath
+    ) {
+        return CertificateAuthority.load(caCertPath, caKeyPath).get();
+    }
+
+    @Bean
+    public AsyncClientCertificateRequester clientCertificateRequester(
+            @Value("${defaults.certificate-authority.in-process.validity-hours}") long validityHours,
+            @Value("${defaults.certificate-authority.in-process.signer-threads}") int signerThreads,
+            CertificateAuthority certificateAuthority,
+            KeyPairPool keyPairPool,
+            CertificateRevocation certificateRevocation,
+            MeterRegistry meterRegistry
+    ) {
+        return new InProcessClientCertificateRequester(certificateAuthority, keyPairPool, certificateRevocation,
+                Duration.ofHours(validityHours), signerThreads, meterRegistry);
+    }
+
+    @Bean
+    public CertificateRevoker certificateRevoker(
+            @Value("${defaults.certificate-authority.crl.validity-hours}") long crlValidityHours,
+            CertificateAuthority certificateAuthority,
+            RevokedCertificateRepository revokedCertificateRepository
+    ) {
+        return new LocalCertificateRevoker(certificateAuthority, revokedCertificateRepository,
+                Duration.ofHours(crlValidityHours));
+    }
+}
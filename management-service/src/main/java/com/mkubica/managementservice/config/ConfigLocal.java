@@ -3,10 +3,21 @@ package com.mkubica.managementservice.config;
 
 import com.mkubica.managementservice.provider.TemplateProvider;
 import com.mkubica.managementservice.provider.cert.CertificateProvider;
+import com.mkubica.managementservice.repository.GatewayCredentialsRepository;
 import com.mkubica.managementservice.repository.GatewayRepository;
+import com.mkubica.managementservice.rest.admission.AdmissionControlFilter;
+import com.mkubica.managementservice.rest.admission.AdmissionLimiter;
+import com.mkubica.managementservice.service.GatewayBatchService;
+import com.mkubica.managementservice.service.GatewayConfigCache;
 import com.mkubica.managementservice.service.GatewayConfigProducer;
+import com.mkubica.managementservice.service.GatewayEntityCache;
+import com.mkubica.managementservice.service.GatewayExportService;
+import com.mkubica.managementservice.service.GatewayJobService;
 import com.mkubica.managementservice.service.GatewayService;
-import com.mkubica.managementservice.service.cert.ClientCertificateRequester;
+import com.mkubica.managementservice.service.IdempotencyStore;
+import com.mkubica.managementservice.service.cert.AsyncClientCertificateRequester;
+import com.mkubica.managementservice.service.ip.CcdWriter;
+import com.mkubica.managementservice.service.ip.GroupCommitCcdWriter;
 import com.mkubica.managementservice.service.ip.IpAssigner;
 import com.mkubica.managementservice.service.ip.SharedVolumeIpAssigner;
 import com.mkubica.managementservice.stub.StubCertificateProvider;
@@ -14,12 +25,17 @@ import com.mkubica.managementservice.stub.StubClientCertificateRequester;
 
 import lombok.SneakyThrows;
 import lombok.extern.slf4j.Slf4j;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.micrometer.core.instrument.MeterRegistry;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
 import org.springframework.context.annotation.Profile;
+import org.springframework.http.ResponseEntity;
+import org.springframework.transaction.PlatformTransactionManager;
 
 import java.nio.file.Files;
+import java.time.Duration;
 
 @Slf4j
 @Configuration
@@ -32,7 +48,7 @@ public class ConfigLocal {
     }
 
     @Bean
-    public ClientCertificateRequester clientCertificateRequester() {
+    public AsyncClientCertificateRequester clientCertificateRequester() {
         return new StubClientCertificateRequester();
     }
 
@@ -43,16 +59,26 @@ public class ConfigLocal {
 
     @Bean
     @SneakyThrows
+    public CcdWriter ccdWriter(
+            @Value("${defaults.open-vpn.ccd-commit-delay-millis}") long ccdCommitDelayMillis
+    ) {
+        var tempCcd = Files.createTempDirectory("ccd");
+        log.info("Created temp ccd here: {}", tempCcd.toAbsolutePath());
+        return new GroupCommitCcdWriter(tempCcd.toAbsolutePath().toString(), Duration.ofMillis(ccdCommitDelayMillis));
+    }
+
+    @Bean
     public IpAssigner ipAssigner(
+            CcdWriter ccdWriter,
             GatewayRepository gatewayRepository,
+            GatewayEntityCache gatewayEntityCache,
             @Value("${defaults.open-vpn.internal-network-address}") String internalNetworkAddress,
             @Value("${defaults.open-vpn.internal-network-mask}") String internalNetworkMask
     ) {
-        var tempCcd = Files.createTempDirectory("ccd");
-        log.info("Created temp ccd here: {}", tempCcd.toAbsolutePath());
         return new SharedVolumeIpAssigner(
-                tempCcd.toAbsolutePath().toString(),
+                ccdWriter,
                 gatewayRepository,
+                gatewayEntityCache,
                 internalNetworkAddress,
                 internalNetworkMask
         );
@@ -68,13 +94,117 @@ public class ConfigLocal {
         return new GatewayConfigProducer(ovpnExternalAddress, ovpnExternalPort, templateProvider, certificateProvider);
     }
 
+    @Bean
+    public GatewayConfigCache gatewayConfigCache(
+            @Value("${defaults.gateway-config-cache.maximum-size}") long maximumSize,
+            @Value("${defaults.gateway-config-cache.etag-maximum-size}") long etagMaximumSize,
+            @Value("${defaults.gateway-config-cache.expire-after-write-seconds}") long expireAfterWriteSeconds,
+            CertificateProvider certificateProvider,
+            MeterRegistry meterRegistry
+    ) {
+        var gatewayConfigCache = new GatewayConfigCache(
+                maximumSize, etagMaximumSize, Duration.ofSeconds(expireAfterWriteSeconds), meterRegistry);
+        certificateProvider.addRotationListener(gatewayConfigCache::invalidateAll);
+        return gatewayConfigCache;
+    }
+
+    @Bean
+    public GatewayEntityCache gatewayEntityCache(
+            GatewayRepository gatewayRepository,
+            GatewayCredentialsRepository gatewayCredentialsRepository,
+            @Value("${defaults.gateway-entity-cache.maximum-size}") long maximumSize,
+            @Value("${defaults.gateway-entity-cache.expire-after-write-seconds}") long expireAfterWriteSeconds,
+            @Value("${defaults.gateway-entity-cache.cache-private-keys}") boolean cachePrivateKeys,
+            MeterRegistry meterRegistry
+    ) {
+        return new GatewayEntityCache(gatewayRepository, gatewayCredentialsRepository,
+                maximumSize, Duration.ofSeconds(expireAfterWriteSeconds), cachePrivateKeys, meterRegistry);
+    }
+
     @Bean
     public GatewayService gatewayService(
             GatewayConfigProducer gatewayConfigProducer,
+            GatewayEntityCache gatewayEntityCache,
+            AsyncClientCertificateRequester clientCertificateRequester,
+            IpAssigner ipAssigner,
+            GatewayConfigCache gatewayConfigCache
+    ) {
+        return new GatewayService(gatewayConfigProducer, gatewayEntityCache, clientCertificateRequester, ipAssigner,
+                gatewayConfigCache);
+    }
+
+    // NOTE: workers provision gateways one at a time each, so their number bounds concurrent requests
+    // to certificate authority made on behalf of jobs
+    @Bean
+    public GatewayJobService gatewayJobService(
+            GatewayService gatewayService,
+            @Value("${defaults.gateway-jobs.workers}") int workers,
+            @Value("${defaults.gateway-jobs.queue-capacity}") int queueCapacity,
+            @Value("${defaults.gateway-jobs.maximum-size}") long maximumSize,
+            @Value("${defaults.gateway-jobs.retention-seconds}") long retentionSeconds,
+            @Value("${defaults.gateway-jobs.max-wait-millis}") long maxWaitMillis,
+            MeterRegistry meterRegistry
+    ) {
+        return new GatewayJobService(gatewayService, workers, queueCapacity, maximumSize,
+                Duration.ofSeconds(retentionSeconds), Duration.ofMillis(maxWaitMillis), meterRegistry);
+    }
+
+    // NOTE: store holds responses of gateway creation, including private keys when gateways are created synchronously,
+    // so it's bounded by size and entries expire once client is not expected to retry anymore
+    @Bean
+    public IdempotencyStore<ResponseEntity<?>> idempotencyStore(
+            @Value("${defaults.idempotency.maximum-size}") long maximumSize,
+            @Value("${defaults.idempotency.retention-seconds}") long retentionSeconds,
+            @Value("${defaults.idempotency.max-wait-millis}") long maxWaitMillis,
+            MeterRegistry meterRegistry
+    ) {
+        return new IdempotencyStore<>(maximumSize, Duration.ofSeconds(retentionSeconds), Duration.ofMillis(maxWaitMillis),
+                meterRegistry);
+    }
+
+    // NOTE: queued requests hold threads of the server, so max limit and queue capacity of both classes together
+    // should stay below number of server threads, otherwise reads could still starve waiting for a thread
+    @Bean
+    public AdmissionControlFilter admissionControlFilter(
+            @Value("${defaults.admission.provisioning.min-limit}") int provisioningMinLimit,
+            @Value("${defaults.admission.provisioning.max-limit}") int provisioningMaxLimit,
+            @Value("${defaults.admission.provisioning.queue-capacity}") int provisioningQueueCapacity,
+            @Value("${defaults.admission.provisioning.max-queue-wait-millis}") long provisioningMaxQueueWaitMillis,
+            @Value("${defaults.admission.provisioning.target-latency-millis}") long provisioningTargetLatencyMillis,
+            @Value("${defaults.admission.reads.min-limit}") int readsMinLimit,
+            @Value("${defaults.admission.reads.max-limit}") int readsMaxLimit,
+            @Value("${defaults.admission.reads.queue-capacity}") int readsQueueCapacity,
+            @Value("${defaults.admission.reads.max-queue-wait-millis}") long readsMaxQueueWaitMillis,
+            @Value("${defaults.admission.reads.target-latency-millis}") long readsTargetLatencyMillis,
+            MeterRegistry meterRegistry
+    ) {
+        return new AdmissionControlFilter(
+                new AdmissionLimiter("provisioning", provisioningMinLimit, provisioningMaxLimit,
+                        provisioningQueueCapacity, Duration.ofMillis(provisioningMaxQueueWaitMillis),
+                        Duration.ofMillis(provisioningTargetLatencyMillis), meterRegistry),
+                new AdmissionLimiter("reads", readsMinLimit, readsMaxLimit, readsQueueCapacity,
+                        Duration.ofMillis(readsMaxQueueWaitMillis), Duration.ofMillis(readsTargetLatencyMillis),
+                        meterRegistry));
+    }
+
+    @Bean
+    public GatewayBatchService gatewayBatchService(
+            GatewayRepository gatewayRepository,
+            GatewayEntityCache gatewayEntityCache,
+            AsyncClientCertificateRequester clientCertificateRequester,
+            IpAssigner ipAssigner,
+            @Value("${defaults.certificate-authority.max-concurrent-requests}") int maxConcurrentCertificateRequests
+    ) {
+        return new GatewayBatchService(gatewayRepository, gatewayEntityCache, clientCertificateRequester, ipAssigner,
+                maxConcurrentCertificateRequests);
+    }
+
+    @Bean
+    public GatewayExportService gatewayExportService(
             GatewayRepository gatewayRepository,
-            ClientCertificateRequester clientCertificateRequester,
-            IpAssigner ipAssigner
+            PlatformTransactionManager transactionManager,
+            ObjectMapper objectMapper
     ) {
-        return new GatewayService(gatewayConfigProducer, gatewayRepository, clientCertificateRequester, ipAssigner);
+        return new GatewayExportService(gatewayRepository, transactionManager, objectMapper);
     }
 }
@@ -3,20 +3,46 @@ package com.mkubica.managementservice.config;
 
 import com.mkubica.managementservice.provider.TemplateProvider;
 import com.mkubica.managementservice.provider.cert.CertificateProvider;
-import com.mkubica.managementservice.provider.cert.SharedVolumeCertificateProvider;
+import com.mkubica.managementservice.provider.cert.WatchingCertificateProvider;
+import com.mkubica.managementservice.repository.GatewayCredentialsRepository;
 import com.mkubica.managementservice.repository.GatewayRepository;
+import com.mkubica.managementservice.rest.admission.AdmissionControlFilter;
+import com.mkubica.managementservice.rest.admission.AdmissionLimiter;
+import com.mkubica.managementservice.service.GatewayBatchService;
+import com.mkubica.managementservice.service.GatewayConfigCache;
 import com.mkubica.managementservice.service.GatewayConfigProducer;
+import com.mkubica.managementservice.service.GatewayEntityCache;
+import com.mkubica.managementservice.service.GatewayExportService;
+import com.mkubica.managementservice.service.GatewayJobService;
 import com.mkubica.managementservice.service.GatewayService;
-import com.mkubica.managementservice.service.cert.ClientCertificateRequester;
+import com.mkubica.managementservice.service.IdempotencyStore;
+import com.mkubica.managementservice.service.cert.AsyncClientCertificateRequester;
+import com.mkubica.managementservice.service.cert.CertificateRevocation;
+import com.mkubica.managementservice.service.cert.CertificateRevoker;
+import com.mkubica.managementservice.service.cert.CfsslCertificateRevoker;
+import com.mkubica.managementservice.service.cert.CsrClientCertificateRequester;
 import com.mkubica.managementservice.service.cert.DefaultClientCertificateRequester;
+import com.mkubica.managementservice.service.cert.KeyPairPool;
+import com.mkubica.managementservice.service.ip.CcdWriter;
+import com.mkubica.managementservice.service.ip.GroupCommitCcdWriter;
 import com.mkubica.managementservice.service.ip.IpAssigner;
 import com.mkubica.managementservice.service.ip.SharedVolumeIpAssigner;
+import com.mkubica.managementservice.util.AsyncHttpUtil;
+import com.mkubica.managementservice.util.CertificateAuthorityBulkhead;
 import com.mkubica.managementservice.util.HttpUtil;
 
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.beans.factory.ObjectProvider;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
+import org.springframework.context.annotation.Lazy;
 import org.springframework.context.annotation.Profile;
+import org.springframework.http.ResponseEntity;
+import org.springframework.transaction.PlatformTransactionManager;
+
+import java.time.Duration;
 
 @Configuration
 @Profile("remote")
@@ -27,38 +53,129 @@ public class ConfigRemote {
         return new TemplateProvider();
     }
 
+    // NOTE: bulkhead is shared by both clients, so it bounds all requests in flight to certificate authority together;
+    // blocking requests are bounded by connection pool as well, remaining requests in flight don't hold any threads
+    @Bean
+    public CertificateAuthorityBulkhead certificateAuthorityBulkhead(
+            @Value("${defaults.certificate-authority.client.max-in-flight-requests}") int maxInFlightRequests,
+            MeterRegistry meterRegistry
+    ) {
+        return new CertificateAuthorityBulkhead(maxInFlightRequests, meterRegistry);
+    }
+
     @Bean
-    public HttpUtil httpUtil() {
-        return new HttpUtil();
+    public HttpUtil httpUtil(
+            @Value("${defaults.certificate-authority.client.max-connections}") int maxConnections,
+            @Value("${defaults.certificate-authority.client.connect-timeout-millis}") long connectTimeoutMillis,
+            @Value("${defaults.certificate-authority.client.read-timeout-millis}") long readTimeoutMillis,
+            @Value("${defaults.certificate-authority.client.keep-alive-seconds}") long keepAliveSeconds,
+            CertificateAuthorityBulkhead certificateAuthorityBulkhead,
+            MeterRegistry meterRegistry
+    ) {
+        return new HttpUtil(maxConnections, Duration.ofMillis(connectTimeoutMillis), Duration.ofMillis(readTimeoutMillis),
+                Duration.ofSeconds(keepAliveSeconds), certificateAuthorityBulkhead, meterRegistry);
     }
 
+    // NOTE: gateway batches take up to 'max-concurrent-requests' of the shared bound at once
     @Bean
-    public ClientCertificateRequester clientCertificateRequester(
+    public AsyncHttpUtil asyncHttpUtil(
+            @Value("${defaults.certificate-authority.client.connect-timeout-millis}") long connectTimeoutMillis,
+            @Value("${defaults.certificate-authority.client.read-timeout-millis}") long readTimeoutMillis,
+            CertificateAuthorityBulkhead certificateAuthorityBulkhead
+    ) {
+        return new AsyncHttpUtil(Duration.ofMillis(connectTimeoutMillis), Duration.ofMillis(readTimeoutMillis),
+                certificateAuthorityBulkhead);
+    }
+
+    @Bean
+    @Lazy
+    public KeyPairPool keyPairPool(
+            @Value("${defaults.certificate-authority.key-pair-pool.algorithm}") String algorithm,
+            @Value("${defaults.certificate-authority.key-pair-pool.key-size}") int keySize,
+            @Value("${defaults.certificate-authority.key-pair-pool.size}") int size,
+            @Value("${defaults.certificate-authority.key-pair-pool.refill-batch-size}") int refillBatchSize,
+            @Value("${defaults.certificate-authority.key-pair-pool.refill-interval-millis}") long refillIntervalMillis,
+            MeterRegistry meterRegistry
+    ) {
+        return new KeyPairPool(algorithm, keySize, size, refillBatchSize, Duration.ofMillis(refillIntervalMillis),
+                meterRegistry);
+    }
+
+    // NOTE: with 'newcert' requester private keys are generated by certificate authority, with 'key-pair-pool'
+    // requester they are pre-generated by the service and only signing requests are sent to certificate authority
+    @Bean
+    @Profile("!in-process-ca")
+    public AsyncClientCertificateRequester clientCertificateRequester(
+            @Value("${defaults.certificate-authority.requester}") String requester,
             @Value("${endpoints.certificate-authority.new-cert}") String newCertEndpoint,
+            @Value("${endpoints.certificate-authority.sign}") String signEndpoint,
             TemplateProvider templateProvider,
+            HttpUtil httpUtil,
+            AsyncHttpUtil asyncHttpUtil,
+            ObjectProvider<KeyPairPool> keyPairPool,
+            CertificateRevocation certificateRevocation
+    ) {
+        return "key-pair-pool".equals(requester)
+                ? new CsrClientCertificateRequester(signEndpoint, keyPairPool.getObject(), httpUtil, asyncHttpUtil,
+                        certificateRevocation)
+                : new DefaultClientCertificateRequester(newCertEndpoint, templateProvider, httpUtil, asyncHttpUtil,
+                        certificateRevocation);
+    }
+
+    @Bean
+    @Profile("!in-process-ca")
+    public CertificateRevoker certificateRevoker(
+            @Value("${endpoints.certificate-authority.revoke}") String revokeEndpoint,
+            @Value("${endpoints.certificate-authority.crl}") String crlEndpoint,
+            @Value("${defaults.certificate-authority.crl.validity-hours}") long crlValidityHours,
             HttpUtil httpUtil
     ) {
-        return new DefaultClientCertificateRequester(newCertEndpoint, templateProvider, httpUtil);
+        return new CfsslCertificateRevoker(revokeEndpoint, crlEndpoint, Duration.ofHours(crlValidityHours), httpUtil);
+    }
+
+    // NOTE: revocation list is published to volume shared with OpenVPN server, which rejects clients
+    // with revoked certificates once the list is swapped in
+    @Bean
+    public CertificateRevocation certificateRevocation(
+            CertificateRevoker certificateRevoker,
+            @Value("${paths.open-vpn.crl}") String crlPath,
+            @Value("${defaults.certificate-authority.crl.publish-interval-millis}") long publishIntervalMillis,
+            @Value("${defaults.certificate-authority.crl.validity-hours}") long crlValidityHours,
+            MeterRegistry meterRegistry
+    ) {
+        return new CertificateRevocation(certificateRevoker, crlPath, Duration.ofMillis(publishIntervalMillis),
+                Duration.ofHours(crlValidityHours), meterRegistry);
     }
 
     @Bean
     public CertificateProvider certificateProvider(
             @Value("${paths.certificate-authority.ca-cert}") String caCertPath,
-            @Value("${paths.open-vpn.ta-key}") String taKeyPath
+            @Value("${paths.open-vpn.ta-key}") String taKeyPath,
+            @Value("${defaults.certificate-authority.reload-poll-interval-seconds}") long reloadPollIntervalSeconds
     ) {
-        return new SharedVolumeCertificateProvider(caCertPath, taKeyPath);
+        return new WatchingCertificateProvider(caCertPath, taKeyPath, Duration.ofSeconds(reloadPollIntervalSeconds));
     }
 
     @Bean
-    public IpAssigner ipAssigner(
+    public CcdWriter ccdWriter(
             @Value("${paths.open-vpn.client-config-directory}") String ccdPath,
+            @Value("${defaults.open-vpn.ccd-commit-delay-millis}") long ccdCommitDelayMillis
+    ) {
+        return new GroupCommitCcdWriter(ccdPath, Duration.ofMillis(ccdCommitDelayMillis));
+    }
+
+    @Bean
+    public IpAssigner ipAssigner(
+            CcdWriter ccdWriter,
             @Value("${defaults.open-vpn.internal-network-address}") String internalNetworkAddress,
             @Value("${defaults.open-vpn.internal-network-mask}") String internalNetworkMask,
-            GatewayRepository gatewayRepository
+            GatewayRepository gatewayRepository,
+            GatewayEntityCache gatewayEntityCache
     ) {
         return new SharedVolumeIpAssigner(
-                ccdPath,
+                ccdWriter,
                 gatewayRepository,
+                gatewayEntityCache,
                 internalNetworkAddress,
                 internalNetworkMask
         );
@@ -74,13 +191,117 @@ public class ConfigRemote {
         return new GatewayConfigProducer(ovpnExternalAddress, ovpnExternalPort, templateProvider, certificateProvider);
     }
 
+    @Bean
+    public GatewayConfigCache gatewayConfigCache(
+            @Value("${defaults.gateway-config-cache.maximum-size}") long maximumSize,
+            @Value("${defaults.gateway-config-cache.etag-maximum-size}") long etagMaximumSize,
+            @Value("${defaults.gateway-config-cache.expire-after-write-seconds}") long expireAfterWriteSeconds,
+            CertificateProvider certificateProvider,
+            MeterRegistry meterRegistry
+    ) {
+        var gatewayConfigCache = new GatewayConfigCache(
+                maximumSize, etagMaximumSize, Duration.ofSeconds(expireAfterWriteSeconds), meterRegistry);
+        certificateProvider.addRotationListener(gatewayConfigCache::invalidateAll);
+        return gatewayConfigCache;
+    }
+
+    @Bean
+    public GatewayEntityCache gatewayEntityCache(
+            GatewayRepository gatewayRepository,
+            GatewayCredentialsRepository gatewayCredentialsRepository,
+            @Value("${defaults.gateway-entity-cache.maximum-size}") long maximumSize,
+            @Value("${defaults.gateway-entity-cache.expire-after-write-seconds}") long expireAfterWriteSeconds,
+            @Value("${defaults.gateway-entity-cache.cache-private-keys}") boolean cachePrivateKeys,
+            MeterRegistry meterRegistry
+    ) {
+        return new GatewayEntityCache(gatewayRepository, gatewayCredentialsRepository,
+                maximumSize, Duration.ofSeconds(expireAfterWriteSeconds), cachePrivateKeys, meterRegistry);
+    }
+
     @Bean
     public GatewayService gatewayService(
             GatewayConfigProducer gatewayConfigProducer,
+            GatewayEntityCache gatewayEntityCache,
+            AsyncClientCertificateRequester clientCertificateRequester,
+            IpAssigner ipAssigner,
+            GatewayConfigCache gatewayConfigCache
+    ) {
+        return new GatewayService(gatewayConfigProducer, gatewayEntityCache, clientCertificateRequester, ipAssigner,
+                gatewayConfigCache);
+    }
+
+    // NOTE: workers provision gateways one at a time each, so their number bounds concurrent requests
+    // to certificate authority made on behalf of jobs
+    @Bean
+    public GatewayJobService gatewayJobService(
+            GatewayService gatewayService,
+            @Value("${defaults.gateway-jobs.workers}") int workers,
+            @Value("${defaults.gateway-jobs.queue-capacity}") int queueCapacity,
+            @Value("${defaults.gateway-jobs.maximum-size}") long maximumSize,
+            @Value("${defaults.gateway-jobs.retention-seconds}") long retentionSeconds,
+            @Value("${defaults.gateway-jobs.max-wait-millis}") long maxWaitMillis,
+            MeterRegistry meterRegistry
+    ) {
+        return new GatewayJobService(gatewayService, workers, queueCapacity, maximumSize,
+                Duration.ofSeconds(retentionSeconds), Duration.ofMillis(maxWaitMillis), meterRegistry);
+    }
+
+    // NOTE: store holds responses of gateway creation, including private keys when gateways are created synchronously,
+    // so it's bounded by size and entries expire once client is not expected to retry anymore
+    @Bean
+    public IdempotencyStore<ResponseEntity<?>> idempotencyStore(
+            @Value("${defaults.idempotency.maximum-size}") long maximumSize,
+            @Value("${defaults.idempotency.retention-seconds}") long retentionSeconds,
+            @Value("${defaults.idempotency.max-wait-millis}") long maxWaitMillis,
+            MeterRegistry meterRegistry
+    ) {
+        return new IdempotencyStore<>(maximumSize, Duration.ofSeconds(retentionSeconds), Duration.ofMillis(maxWaitMillis),
+                meterRegistry);
+    }
+
+    // NOTE: queued requests hold threads of the server, so max limit and queue capacity of both classes together
+    // should stay below number of server threads, otherwise reads could still starve waiting for a thread
+    @Bean
+    public AdmissionControlFilter admissionControlFilter(
+            @Value("${defaults.admission.provisioning.min-limit}") int provisioningMinLimit,
+            @Value("${defaults.admission.provisioning.max-limit}") int provisioningMaxLimit,
+            @Value("${defaults.admission.provisioning.queue-capacity}") int provisioningQueueCapacity,
+            @Value("${defaults.admission.provisioning.max-queue-wait-millis}") long provisioningMaxQueueWaitMillis,
+            @Value("${defaults.admission.provisioning.target-latency-millis}") long provisioningTargetLatencyMillis,
+            @Value("${defaults.admission.reads.min-limit}") int readsMinLimit,
+            @Value("${defaults.admission.reads.max-limit}") int readsMaxLimit,
+            @Value("${defaults.admission.reads.queue-capacity}") int readsQueueCapacity,
+            @Value("${defaults.admission.reads.max-queue-wait-millis}") long readsMaxQueueWaitMillis,
+            @Value("${defaults.admission.reads.target-latency-millis}") long readsTargetLatencyMillis,
+            MeterRegistry meterRegistry
+    ) {
+        return new AdmissionControlFilter(
+                new AdmissionLimiter("provisioning", provisioningMinLimit, provisioningMaxLimit,
+                        provisioningQueueCapacity, Duration.ofMillis(provisioningMaxQueueWaitMillis),
+                        Duration.ofMillis(provisioningTargetLatencyMillis), meterRegistry),
+                new AdmissionLimiter("reads", readsMinLimit, readsMaxLimit, readsQueueCapacity,
+                        Duration.ofMillis(readsMaxQueueWaitMillis), Duration.ofMillis(readsTargetLatencyMillis),
+                        meterRegistry));
+    }
+
+    @Bean
+    public GatewayBatchService gatewayBatchService(
+            GatewayRepository gatewayRepository,
+            GatewayEntityCache gatewayEntityCache,
+            AsyncClientCertificateRequester clientCertificateRequester,
+            IpAssigner ipAssigner,
+            @Value("${defaults.certificate-authority.max-concurrent-requests}") int maxConcurrentCertificateRequests
+    ) {
+        return new GatewayBatchService(gatewayRepository, gatewayEntityCache, clientCertificateRequester, ipAssigner,
+                maxConcurrentCertificateRequests);
+    }
+
+    @Bean
+    public GatewayExportService gatewayExportService(
             GatewayRepository gatewayRepository,
-            ClientCertificateRequester clientCertificateRequester,
-            IpAssigner ipAssigner
+            PlatformTransactionManager transactionManager,
+            ObjectMapper objectMapper
     ) {
-        return new GatewayService(gatewayConfigProducer, gatewayRepository, clientCertificateRequester, ipAssigner);
+        return new GatewayExportService(gatewayRepository, transactionManager, objectMapper);
     }
 }
@@ -0,0 +1,63 @@
+/* Copyright 2021 Mateusz Kubica */
+package com.mkubica.managementservice.domain.dao;
+
+import com.mkubica.managementservice.domain.dto.GatewayModel;
+import com.mkubica.managementservice.util.Pem;
+
+import javax.persistence.Entity;
+import javax.persistence.Id;
+import javax.persistence.Table;
+
+import lombok.*;
+
+/**
+ * Certificate and private key of gateway, kept apart from {@link GatewayEntity}, so gateways are scanned
+ * and loaded without them. Both are stored in compact form (see {@link Pem}), DER takes roughly 3/4 of PEM
+ * and binary column is read without any text decoding, PEM is restored only when it is served.
+ */
+@Entity
+@Getter
+@ToString(of = {"commonName", "certificateLabel", "privateKeyLabel"})
+@Builder(setterPrefix = "with", toBuilder = true)
+@AllArgsConstructor
+@NoArgsConstructor
+@Table(name = "gateway_credentials")
+public class GatewayCredentialsEntity {
+
+    @Id
+    private String commonName;
+
+    private byte[] certificate;
+    private String certificateLabel;
+    private byte[] privateKey;
+    private String privateKeyLabel;
+
+    public String certificateText() {
+        return Pem.restore(certificate, certificateLabel);
+    }
+
+    public String privateKeyText() {
+        return Pem.restore(privateKey, privateKeyLabel);
+    }
+
+    public byte[] certificatePem() {
+        return Pem.restoreBytes(certificate, certificateLabel);
+    }
+
+    public byte[] privateKeyPem() {
+        return Pem.restoreBytes(privateKey, privateKeyLabel);
+    }
+
+    public static GatewayCredentialsEntity from(GatewayModel model) {
+        var certificate = Pem.compact(model.getCertificate());
+        var privateKey = Pem.compact(model.getPrivateKey());
+        return GatewayCredentialsEntity
+            .builder()
+            .withCommonName(model.getCommonName())
+            .withCertificate(certificate._1)
+            .withCertificateLabel(certificate._2)
+            .withPrivateKey(privateKey._1)
+            .withPrivateKeyLabel(privateKey._2)
+            .build();
+    }
+}
@@ -13,15 +13,13 @@ import lombok.*;
 @Builder(setterPrefix = "with", toBuilder = true)
 @AllArgsConstructor
 @NoArgsConstructor
-@Table(name = "gateways")
+// NOTE: schema is managed with flyway migrations (db/migration), table and index definitions are informative only;
+// certificate and private key are kept in separate table, see GatewayCredentialsEntity
+@Table(name = "gateways", indexes = @Index(name = "gateways_ip_address_key", columnList = "ipAddress", unique = true))
 public class GatewayEntity {
 
     @Id
     private String commonName;
-    @Lob
-    private String certificate;
-    @Lob
-    private String privateKey;
 
     private String ipAddress;
 
@@ -30,8 +28,6 @@ public class GatewayEntity {
             .builder()
             .withCommonName(model.getCommonName())
             .withIpAddress(model.getIpAddress())
-            .withCertificate(model.getCertificate())
-            .withPrivateKey(model.getPrivateKey())
             .build();
     }
 }
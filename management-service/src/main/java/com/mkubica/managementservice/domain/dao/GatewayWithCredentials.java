@@ -0,0 +1,17 @@
+/* Copyright 2021 Mateusz Kubica */
+package com.mkubica.managementservice.domain.dao;
+
+/**
+ * Projection of gateway joined with its credentials, queried as plain columns, so neither of entities
+ * is loaded into persistence context. Credentials are in compact form, same as in {@link GatewayCredentialsEntity}.
+ */
+public interface GatewayWithCredentials {
+
+    String getCommonName();
+    String getIpAddress();
+    byte[] getCertificate();
+    String getCertificateLabel();
+    byte[] getPrivateKey();
+    String getPrivateKeyLabel();
+
+}
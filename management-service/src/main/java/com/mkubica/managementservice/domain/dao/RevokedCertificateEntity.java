@@ -0,0 +1,31 @@
+/* Copyright 2021 Mateusz Kubica */
+package com.mkubica.managementservice.domain.dao;
+
+import java.time.Instant;
+
+import javax.persistence.Entity;
+import javax.persistence.Id;
+import javax.persistence.Table;
+
+import lombok.*;
+
+/**
+ * Certificate revoked in-process, serial number is kept in hex. It's not related to {@link GatewayEntity},
+ * since gateway is deleted once its certificate is revoked.
+ */
+@Entity
+@Getter
+@ToString
+@Builder(setterPrefix = "with", toBuilder = true)
+@AllArgsConstructor
+@NoArgsConstructor
+@Table(name = "revoked_certificates")
+public class RevokedCertificateEntity {
+
+    @Id
+    private String serialNumber;
+
+    private String commonName;
+    private Instant revokedAt;
+    private Instant expiresAt;
+}
@@ -0,0 +1,45 @@
+/* Copyright 2021 Mateusz Kubica */
+package com.mkubica.managementservice.domain.dto;
+
+import lombok.*;
+
+import com.fasterxml.jackson.annotation.JsonRootName;
+
+import io.vavr.control.Try;
+
+@Data
+@ToString
+@AllArgsConstructor
+@EqualsAndHashCode(callSuper = false)
+@Builder(setterPrefix = "with", toBuilder = true)
+@JsonRootName(value = "gateway-batch-result")
+public class GatewayBatchResultModel {
+
+    private final String commonName;
+    private final boolean created;
+    private final GatewayModel gateway;
+    private final String error;
+
+    public static GatewayBatchResultModel from(String commonName, Try<GatewayModel> result) {
+        return result.fold(
+                exc -> GatewayBatchResultModel
+                    .builder()
+                    .withCommonName(commonName)
+                    .withCreated(false)
+                    .withError(errorOf(exc))
+                    .build(),
+                gateway -> GatewayBatchResultModel
+                    .builder()
+                    .withCommonName(commonName)
+                    .withCreated(true)
+                    .withGateway(gateway)
+                    .build()
+        );
+    }
+
+    public static String errorOf(Throwable exc) {
+        return exc.getMessage() == null
+                ? exc.getClass().getSimpleName()
+                : String.format("%s: %s", exc.getClass().getSimpleName(), exc.getMessage());
+    }
+}
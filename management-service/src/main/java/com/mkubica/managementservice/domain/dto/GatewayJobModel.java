@@ -0,0 +1,46 @@
+/* Copyright 2021 Mateusz Kubica */
+package com.mkubica.managementservice.domain.dto;
+
+import lombok.*;
+
+import com.fasterxml.jackson.annotation.JsonRootName;
+
+import io.vavr.control.Try;
+
+@Data
+@ToString
+@AllArgsConstructor
+@EqualsAndHashCode(callSuper = false)
+@Builder(setterPrefix = "with", toBuilder = true)
+@JsonRootName(value = "gateway-job")
+public class GatewayJobModel {
+
+    public enum Status {
+        PENDING, RUNNING, SUCCEEDED, FAILED
+    }
+
+    private final String id;
+    private final String commonName;
+    private final Status status;
+    private final GatewayModel gateway;
+    private final String error;
+
+    public static GatewayJobModel from(String id, String commonName, Try<GatewayModel> result) {
+        return result.fold(
+                exc -> GatewayJobModel
+                    .builder()
+                    .withId(id)
+                    .withCommonName(commonName)
+                    .withStatus(Status.FAILED)
+                    .withError(GatewayBatchResultModel.errorOf(exc))
+                    .build(),
+                gateway -> GatewayJobModel
+                    .builder()
+                    .withId(id)
+                    .withCommonName(commonName)
+                    .withStatus(Status.SUCCEEDED)
+                    .withGateway(gateway)
+                    .build()
+        );
+    }
+}
@@ -1,7 +1,10 @@
 /* Copyright 2021 Mateusz Kubica */
 package com.mkubica.managementservice.domain.dto;
 
+import com.mkubica.managementservice.domain.dao.GatewayCredentialsEntity;
 import com.mkubica.managementservice.domain.dao.GatewayEntity;
+import com.mkubica.managementservice.domain.dao.GatewayWithCredentials;
+import com.mkubica.managementservice.util.Pem;
 
 import lombok.*;
 
@@ -25,8 +28,26 @@ public class GatewayModel {
             .builder()
             .withCommonName(entity.getCommonName())
             .withIpAddress(entity.getIpAddress())
-            .withCertificate(entity.getCertificate())
-            .withPrivateKey(entity.getPrivateKey())
+            .build();
+    }
+
+    public static GatewayModel from(GatewayEntity entity, GatewayCredentialsEntity credentials) {
+        return GatewayModel
+            .builder()
+            .withCommonName(entity.getCommonName())
+            .withIpAddress(entity.getIpAddress())
+            .withCertificate(credentials.certificateText())
+            .withPrivateKey(credentials.privateKeyText())
+            .build();
+    }
+
+    public static GatewayModel from(GatewayWithCredentials gateway) {
+        return GatewayModel
+            .builder()
+            .withCommonName(gateway.getCommonName())
+            .withIpAddress(gateway.getIpAddress())
+            .withCertificate(Pem.restore(gateway.getCertificate(), gateway.getCertificateLabel()))
+            .withPrivateKey(Pem.restore(gateway.getPrivateKey(), gateway.getPrivateKeyLabel()))
             .build();
     }
 }
@@ -0,0 +1,23 @@
+/* Copyright 2021 Mateusz Kubica */
+package com.mkubica.managementservice.domain.dto;
+
+import lombok.*;
+
+import com.fasterxml.jackson.annotation.JsonRootName;
+
+/**
+ * Lightweight projection of gateway, without certificate and private key, thus it is queried
+ * straight out of the repository without loading LOBs.
+ */
+@Data
+@ToString
+@AllArgsConstructor
+@EqualsAndHashCode(callSuper = false)
+@Builder(setterPrefix = "with", toBuilder = true)
+@JsonRootName(value = "gateway-summary")
+public class GatewaySummaryModel {
+
+    private final String commonName;
+    private final String ipAddress;
+
+}
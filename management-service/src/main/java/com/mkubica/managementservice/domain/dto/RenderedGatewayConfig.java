@@ -0,0 +1,69 @@
+/* Copyright 2021 Mateusz Kubica */
+package com.mkubica.managementservice.domain.dto;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+
+import com.google.common.hash.Hashing;
+
+
+/**
+ * Gateway config rendered to sequence of pre-encoded segments (template, remote line, tags and their payloads).
+ * Segments which are the same for every gateway are shared between rendered configs, so only certificate
+ * and private key are held per gateway. Segments are written one by one straight out of their arrays,
+ * config is never concatenated into single string nor array.
+ *
+ * Every config carries etag, which is SHA-256 of all its segments, so it changes whenever template,
+ * external address or port, CA certificate, ta key, certificate or private key of the gateway changes.
+ *
+ * Segments are not copied, thus they must not be modified after config has been rendered.
+ */
+public final class RenderedGatewayConfig {
+
+    private final byte[][] segments;
+    private final long contentLength;
+    private final String etag;
+
+    private RenderedGatewayConfig(byte[][] segments) {
+        this.segments = segments;
+        var hasher = Hashing.sha256().newHasher();
+        long length = 0;
+        for (var segment : segments) {
+            hasher.putBytes(segment);
+            length += segment.length;
+        }
+        this.contentLength = length;
+        this.etag = hasher.hash().toString();
+    }
+
+    public static RenderedGatewayConfig of(byte[]... segments) {
+        return new RenderedGatewayConfig(segments);
+    }
+
+    public long contentLength() {
+        return contentLength;
+    }
+
+    public String etag() {
+        return etag;
+    }
+
+    public void writeTo(OutputStream outputStream) throws IOException {
+        for (var segment : segments) {
+            outputStream.write(segment);
+        }
+    }
+
+    // NOTE: materializes whole config, meant for diagnostics and tests only
+    public byte[] toByteArray() {
+        var outputStream = new ByteArrayOutputStream((int) contentLength);
+        try {
+            writeTo(outputStream);
+        } catch (IOException exc) {
+            throw new UncheckedIOException(exc);
+        }
+        return outputStream.toByteArray();
+    }
+}
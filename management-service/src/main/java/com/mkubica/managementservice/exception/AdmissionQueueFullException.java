@@ -0,0 +1,16 @@
+package com.mkubica.managementservice.exception;
+
+import org.springframework.http.HttpStatus;
+import org.springframework.web.bind.annotation.ResponseStatus;
+
+@ResponseStatus(HttpStatus.TOO_MANY_REQUESTS)
+public class AdmissionQueueFullException extends BaseException {
+
+    public AdmissionQueueFullException() {
+        super("Too many requests are waiting for admission, try again later");
+    }
+
+    public AdmissionQueueFullException(String message) {
+        super(message);
+    }
+}
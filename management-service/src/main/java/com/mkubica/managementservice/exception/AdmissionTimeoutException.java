@@ -0,0 +1,16 @@
+package com.mkubica.managementservice.exception;
+
+import org.springframework.http.HttpStatus;
+import org.springframework.web.bind.annotation.ResponseStatus;
+
+@ResponseStatus(HttpStatus.SERVICE_UNAVAILABLE)
+public class AdmissionTimeoutException extends BaseException {
+
+    public AdmissionTimeoutException() {
+        super("Request was not admitted in time, try again later");
+    }
+
+    public AdmissionTimeoutException(String message) {
+        super(message);
+    }
+}
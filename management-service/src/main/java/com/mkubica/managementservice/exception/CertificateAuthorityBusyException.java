@@ -0,0 +1,16 @@
+package com.mkubica.managementservice.exception;
+
+import org.springframework.http.HttpStatus;
+import org.springframework.web.bind.annotation.ResponseStatus;
+
+@ResponseStatus(HttpStatus.SERVICE_UNAVAILABLE)
+public class CertificateAuthorityBusyException extends BaseException {
+
+    public CertificateAuthorityBusyException() {
+        super("Too many concurrent requests to certificate authority, try again later");
+    }
+
+    public CertificateAuthorityBusyException(String message) {
+        super(message);
+    }
+}
@@ -0,0 +1,12 @@
+package com.mkubica.managementservice.exception;
+
+import org.springframework.http.HttpStatus;
+import org.springframework.web.bind.annotation.ResponseStatus;
+
+@ResponseStatus(HttpStatus.NOT_FOUND)
+public class GatewayJobNotFoundException extends BaseException {
+
+    public GatewayJobNotFoundException(String message) {
+        super(message);
+    }
+}
@@ -0,0 +1,16 @@
+package com.mkubica.managementservice.exception;
+
+import org.springframework.http.HttpStatus;
+import org.springframework.web.bind.annotation.ResponseStatus;
+
+@ResponseStatus(HttpStatus.SERVICE_UNAVAILABLE)
+public class GatewayJobQueueFullException extends BaseException {
+
+    public GatewayJobQueueFullException() {
+        super("Too many gateways are being provisioned, try again later");
+    }
+
+    public GatewayJobQueueFullException(String message) {
+        super(message);
+    }
+}
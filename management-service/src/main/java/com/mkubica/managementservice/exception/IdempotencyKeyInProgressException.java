@@ -0,0 +1,12 @@
+package com.mkubica.managementservice.exception;
+
+import org.springframework.http.HttpStatus;
+import org.springframework.web.bind.annotation.ResponseStatus;
+
+@ResponseStatus(HttpStatus.CONFLICT)
+public class IdempotencyKeyInProgressException extends BaseException {
+
+    public IdempotencyKeyInProgressException(String message) {
+        super(message);
+    }
+}
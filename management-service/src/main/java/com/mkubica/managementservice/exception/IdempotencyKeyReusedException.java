@@ -0,0 +1,12 @@
+package com.mkubica.managementservice.exception;
+
+import org.springframework.http.HttpStatus;
+import org.springframework.web.bind.annotation.ResponseStatus;
+
+@ResponseStatus(HttpStatus.UNPROCESSABLE_ENTITY)
+public class IdempotencyKeyReusedException extends BaseException {
+
+    public IdempotencyKeyReusedException(String message) {
+        super(message);
+    }
+}
@@ -1,6 +1,8 @@
 /* Copyright 2021 Mateusz Kubica */
 package com.mkubica.managementservice.provider.cert;
 
+import java.nio.charset.StandardCharsets;
+
 import io.vavr.control.Try;
 
 
@@ -9,4 +11,29 @@ public interface CertificateProvider {
     Try<String> obtainCACert();
     Try<String> obtainTAKey();
 
+    /**
+     * @return CA certificate encoded with UTF-8, implementations which keep it in memory should override
+     * this method to avoid encoding on every call
+     */
+    default Try<byte[]> obtainCACertBytes() {
+        return obtainCACert().map(caCert -> caCert.getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * @return ta key encoded with UTF-8, implementations which keep it in memory should override
+     * this method to avoid encoding on every call
+     */
+    default Try<byte[]> obtainTAKeyBytes() {
+        return obtainTAKey().map(taKey -> taKey.getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Registers listener notified whenever CA certificate or ta key is rotated, so anything derived
+     * from them can be invalidated. Providers which can't detect rotation ignore listeners.
+     *
+     * @param listener - action performed after rotation
+     */
+    default void addRotationListener(Runnable listener) {
+    }
+
 }
@@ -16,13 +16,17 @@ public class SharedVolumeCertificateProvider implements CertificateProvider {
 
     @Override
     public Try<String> obtainCACert() {
-        return Try.of(() -> new BufferedReader(new FileReader(caCertPath)).lines())
-                .map(lines -> lines.map(line -> line + "\n").collect(Collectors.joining()));
+        return readFile(caCertPath);
     }
 
     @Override
     public Try<String> obtainTAKey() {
-        return Try.of(() -> new BufferedReader(new FileReader(taKeyPath)).lines())
-                .map(lines -> lines.map(line -> line + "\n").collect(Collectors.joining()));
+        return readFile(taKeyPath);
+    }
+
+    // NOTE: every line is terminated with new line, including the last one
+    private static Try<String> readFile(String path) {
+        return Try.withResources(() -> new BufferedReader(new FileReader(path)))
+                .of(reader -> reader.lines().map(line -> line + "\n").collect(Collectors.joining()));
     }
 }
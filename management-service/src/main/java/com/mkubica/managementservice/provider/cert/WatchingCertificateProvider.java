@@ -0,0 +1,192 @@
+/* Copyright 2021 Mateusz Kubica */
+package com.mkubica.managementservice.provider.cert;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchService;
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+import io.vavr.collection.HashSet;
+import io.vavr.control.Option;
+import io.vavr.control.Try;
+import lombok.Value;
+import lombok.extern.slf4j.Slf4j;
+
+import static java.lang.String.format;
+
+
+/**
+ * Certificate provider which keeps CA certificate and ta key in memory, both as strings and pre-encoded bytes,
+ * so obtaining them never touches the disk. Files are read with {@link SharedVolumeCertificateProvider}.
+ *
+ * Background watcher reloads the files when they are rotated. Directories of the files are watched with
+ * {@link WatchService}, but since events are not delivered reliably on every shared volume, modification time
+ * and size of the files are also polled, every event and every poll only triggers comparison of the two.
+ * New content is swapped in atomically, only when both files have been read successfully,
+ * otherwise last content is still served. Rotation listeners are notified after every swap.
+ */
+@Slf4j
+public class WatchingCertificateProvider implements CertificateProvider {
+
+    private final Path caCertPath;
+    private final Path taKeyPath;
+    private final Duration pollInterval;
+    private final SharedVolumeCertificateProvider fileReader;
+
+    private final AtomicReference<Try<Certificates>> certificates = new AtomicReference<>();
+    private final List<Runnable> rotationListeners = new CopyOnWriteArrayList<>();
+    private final Option<WatchService> watchService;
+    private final Thread watcher;
+    private volatile boolean running = true;
+
+    public WatchingCertificateProvider(String caCertPath, String taKeyPath, Duration pollInterval) {
+        this.caCertPath = Path.of(caCertPath).toAbsolutePath();
+        this.taKeyPath = Path.of(taKeyPath).toAbsolutePath();
+        this.pollInterval = pollInterval;
+        this.fileReader = new SharedVolumeCertificateProvider(caCertPath, taKeyPath);
+
+        this.certificates.set(load());
+        this.watchService = Try.of(this::registerWatchService)
+                .onFailure(exc -> log.warn("Unable to watch certificate directories, polling only", exc))
+                .toOption();
+        this.watcher = new ThreadFactoryBuilder().setNameFormat("certificate-watcher-%d").setDaemon(true).build()
+                .newThread(this::watchLoop);
+        watcher.start();
+    }
+
+    @Override
+    public Try<String> obtainCACert() {
+        return certificates.get().map(Certificates::getCaCert);
+    }
+
+    @Override
+    public Try<String> obtainTAKey() {
+        return certificates.get().map(Certificates::getTaKey);
+    }
+
+    @Override
+    public Try<byte[]> obtainCACertBytes() {
+        return certificates.get().map(Certificates::getCaCertBytes);
+    }
+
+    @Override
+    public Try<byte[]> obtainTAKeyBytes() {
+        return certificates.get().map(Certificates::getTaKeyBytes);
+    }
+
+    @Override
+    public void addRotationListener(Runnable listener) {
+        rotationListeners.add(listener);
+    }
+
+    public void shutdown() {
+        running = false;
+        watchService.forEach(service -> Try.run(service::close));
+        watcher.interrupt();
+    }
+
+    // NOTE: checked on every poll, content is reloaded only when fingerprint has changed
+    void reloadIfRotated() {
+        var current = certificates.get();
+        if (current.isFailure() || !current.get().getFingerprint().equals(fingerprint())) {
+            reload();
+        }
+    }
+
+    void reload() {
+        var current = certificates.get();
+        var reloaded = load();
+        if (reloaded.isFailure()) {
+            // NOTE: failure replaces only another failure, successfully loaded content is never dropped
+            if (current.isFailure()) {
+                certificates.set(reloaded);
+            } else {
+                log.warn("Unable to reload certificates, last content is still served", reloaded.getCause());
+            }
+            return;
+        }
+        certificates.set(reloaded);
+        log.info("Certificates have been reloaded");
+        rotationListeners.forEach(Runnable::run);
+    }
+
+    private Try<Certificates> load() {
+        var fingerprint = fingerprint();
+        return fileReader.obtainCACert().flatMap(caCert -> fileReader.obtainTAKey()
+                .map(taKey -> new Certificates(
+                        caCert, caCert.getBytes(StandardCharsets.UTF_8),
+                        taKey, taKey.getBytes(StandardCharsets.UTF_8),
+                        fingerprint)));
+    }
+
+    private String fingerprint() {
+        return format("%s|%s", fingerprintOf(caCertPath), fingerprintOf(taKeyPath));
+    }
+
+    private static String fingerprintOf(Path path) {
+        return Try.of(() -> format("%d:%d", Files.getLastModifiedTime(path).toMillis(), Files.size(path)))
+                .getOrElse("missing");
+    }
+
+    private WatchService registerWatchService() throws IOException {
+        var service = caCertPath.getFileSystem().newWatchService();
+        for (var directory : HashSet.of(caCertPath.getParent(), taKeyPath.getParent())) {
+            directory.register(service, StandardWatchEventKinds.ENTRY_CREATE,
+                    StandardWatchEventKinds.ENTRY_MODIFY, StandardWatchEventKinds.ENTRY_DELETE);
+        }
+        return service;
+    }
+
+    private void watchLoop() {
+        while (running) {
+            try {
+                if (watchService.isDefined() && awaitEventOfWatchedFile()) {
+                    // NOTE: fingerprint might not change when file is replaced within granularity of mtime
+                    reload();
+                } else {
+                    if (watchService.isEmpty()) {
+                        Thread.sleep(pollInterval.toMillis());
+                    }
+                    reloadIfRotated();
+                }
+            } catch (InterruptedException | ClosedWatchServiceException exc) {
+                return;
+            } catch (RuntimeException exc) {
+                log.error("Unexpected error when watching certificates", exc);
+            }
+        }
+    }
+
+    private boolean awaitEventOfWatchedFile() throws InterruptedException {
+        var key = watchService.get().poll(pollInterval.toMillis(), TimeUnit.MILLISECONDS);
+        if (key == null) {
+            return false;
+        }
+        var directory = (Path) key.watchable();
+        var watchedFileChanged = key.pollEvents().stream()
+                .filter(event -> event.context() instanceof Path)
+                .map(event -> directory.resolve((Path) event.context()))
+                .anyMatch(path -> path.equals(caCertPath) || path.equals(taKeyPath));
+        key.reset();
+        return watchedFileChanged;
+    }
+
+    @Value
+    private static class Certificates {
+        String caCert;
+        byte[] caCertBytes;
+        String taKey;
+        byte[] taKeyBytes;
+        String fingerprint;
+    }
+}
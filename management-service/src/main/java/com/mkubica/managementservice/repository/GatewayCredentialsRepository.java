@@ -0,0 +1,21 @@
+/* Copyright 2021 Mateusz Kubica */
+package com.mkubica.managementservice.repository;
+
+import com.mkubica.managementservice.domain.dao.GatewayCredentialsEntity;
+
+import javax.transaction.Transactional;
+
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.stereotype.Repository;
+
+import io.vavr.control.Option;
+
+
+// NOTE: credentials are deleted by database together with their gateway (on delete cascade)
+@Repository
+@Transactional
+public interface GatewayCredentialsRepository extends JpaRepository<GatewayCredentialsEntity, String> {
+
+    Option<GatewayCredentialsEntity> getGatewayCredentialsEntityByCommonName(String commonName);
+
+}
@@ -2,25 +2,50 @@
 package com.mkubica.managementservice.repository;
 
 import com.mkubica.managementservice.domain.dao.GatewayEntity;
+import com.mkubica.managementservice.domain.dao.GatewayWithCredentials;
+import com.mkubica.managementservice.domain.dto.GatewaySummaryModel;
 
 import javax.transaction.Transactional;
 
+import org.springframework.data.domain.Pageable;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
 import org.springframework.lang.NonNull;
 import org.springframework.stereotype.Repository;
 
 import io.vavr.control.Option;
 
+import java.util.Collection;
 import java.util.List;
 
 
 @Repository
 @Transactional
-public interface GatewayRepository extends JpaRepository<GatewayEntity, String> {
+public interface GatewayRepository extends JpaRepository<GatewayEntity, String>, GatewayRepositoryCustom {
 
     @NonNull
     List<GatewayEntity> findAll();
     Option<GatewayEntity> getGatewayEntityByCommonName(String commonName);
     Option<GatewayEntity> getGatewayEntityByIpAddress(String ipAddress);
 
+    @Query("select g.commonName from GatewayEntity g where g.commonName in :commonNames")
+    List<String> findExistingCommonNames(@Param("commonNames") Collection<String> commonNames);
+
+    @Query("select g.ipAddress from GatewayEntity g where g.ipAddress in :ipAddresses")
+    List<String> findExistingIpAddresses(@Param("ipAddresses") Collection<String> ipAddresses);
+
+    // NOTE: keyset pagination, page starts right after provided common name (empty string for the first page),
+    // so no rows are skipped with offset, only size of pageable is used
+    @Query("select new com.mkubica.managementservice.domain.dto.GatewaySummaryModel(g.commonName, g.ipAddress) "
+            + "from GatewayEntity g where g.commonName > :after order by g.commonName")
+    List<GatewaySummaryModel> findSummariesAfter(@Param("after") String after, Pageable pageable);
+
+    @Query("select g.commonName as commonName, g.ipAddress as ipAddress, "
+            + "c.certificate as certificate, c.certificateLabel as certificateLabel, "
+            + "c.privateKey as privateKey, c.privateKeyLabel as privateKeyLabel "
+            + "from GatewayEntity g left join GatewayCredentialsEntity c on c.commonName = g.commonName "
+            + "where g.commonName > :after order by g.commonName")
+    List<GatewayWithCredentials> findAllWithCredentialsAfter(@Param("after") String after, Pageable pageable);
+
 }
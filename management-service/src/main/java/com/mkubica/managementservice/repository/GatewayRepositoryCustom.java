@@ -0,0 +1,60 @@
+/* Copyright 2021 Mateusz Kubica */
+package com.mkubica.managementservice.repository;
+
+import com.mkubica.managementservice.domain.dao.GatewayCredentialsEntity;
+import com.mkubica.managementservice.domain.dao.GatewayEntity;
+import com.mkubica.managementservice.domain.dao.GatewayWithCredentials;
+import com.mkubica.managementservice.domain.dto.GatewaySummaryModel;
+
+import java.util.List;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
+
+
+public interface GatewayRepositoryCustom {
+
+    /**
+     * Persists new entities together with their credentials, within single transaction, using JDBC batch inserts,
+     * unlike {@link GatewayRepository#saveAll(Iterable)} it doesn't check whether entities already exist,
+     * so no select is issued per entity.
+     *
+     * @param entities - entities which haven't been persisted yet
+     * @param credentials - credentials of these entities
+     * @return persisted entities
+     */
+    List<GatewayEntity> persistAll(List<GatewayEntity> entities, List<GatewayCredentialsEntity> credentials);
+
+    /**
+     * @param entity - entity which hasn't been persisted yet
+     * @param credentials - credentials of this entity
+     * @return persisted entity
+     */
+    GatewayEntity persist(GatewayEntity entity, GatewayCredentialsEntity credentials);
+
+    /**
+     * Streams ip addresses of all gateways, rows are read with database cursor in chunks of configured
+     * fetch size and no entity is loaded, so memory usage doesn't depend on number of gateways
+     * nor on size of their certificates.
+     *
+     * @param action - action performed for every ip address, in no particular order
+     */
+    void forEachIpAddress(Consumer<String> action);
+
+    /**
+     * Streams common names and ip addresses of all gateways, ordered by common name. Rows are read with database
+     * cursor in chunks of configured fetch size and mapped straight to models, so no entity is held by persistence
+     * context. Stream has to be consumed (and closed) within surrounding transaction, otherwise cursor is closed
+     * together with connection.
+     *
+     * @return stream of gateway summaries
+     */
+    Stream<GatewaySummaryModel> streamAllSummaries();
+
+    /**
+     * Same as {@link #streamAllSummaries()}, but gateways are joined with their credentials.
+     *
+     * @return stream of gateways with their credentials
+     */
+    Stream<GatewayWithCredentials> streamAllWithCredentials();
+
+}
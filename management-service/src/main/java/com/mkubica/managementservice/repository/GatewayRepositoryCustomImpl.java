@@ -0,0 +1,113 @@
+/* Copyright 2021 Mateusz Kubica */
+package com.mkubica.managementservice.repository;
+
+import com.mkubica.managementservice.domain.dao.GatewayCredentialsEntity;
+import com.mkubica.managementservice.domain.dao.GatewayEntity;
+import com.mkubica.managementservice.domain.dao.GatewayWithCredentials;
+import com.mkubica.managementservice.domain.dto.GatewaySummaryModel;
+
+import javax.persistence.EntityManager;
+import javax.persistence.PersistenceContext;
+import javax.persistence.Tuple;
+import javax.persistence.TupleElement;
+import javax.transaction.Transactional;
+
+import org.hibernate.jpa.QueryHints;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.projection.ProjectionFactory;
+import org.springframework.data.projection.SpelAwareProxyProjectionFactory;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
+
+
+public class GatewayRepositoryCustomImpl implements GatewayRepositoryCustom {
+
+    private static final ProjectionFactory PROJECTION_FACTORY = new SpelAwareProxyProjectionFactory();
+
+    @PersistenceContext
+    private EntityManager entityManager;
+
+    @Value("${spring.jpa.properties.hibernate.jdbc.batch_size:50}")
+    private int batchSize;
+
+    @Value("${defaults.database.stream-fetch-size:1000}")
+    private int streamFetchSize;
+
+    @Override
+    @Transactional
+    public List<GatewayEntity> persistAll(List<GatewayEntity> entities, List<GatewayCredentialsEntity> credentials) {
+        // NOTE: credentials reference gateways, so gateways are flushed first
+        persistInBatches(entities);
+        persistInBatches(credentials);
+        return entities;
+    }
+
+    @Override
+    @Transactional
+    public GatewayEntity persist(GatewayEntity entity, GatewayCredentialsEntity credentials) {
+        return persistAll(List.of(entity), List.of(credentials)).get(0);
+    }
+
+    private void persistInBatches(List<?> entities) {
+        for (int i = 0; i < entities.size(); i++) {
+            entityManager.persist(entities.get(i));
+            // NOTE: flushing and clearing every batch keeps persistence context small
+            // and lets hibernate group inserts into JDBC batches
+            if ((i + 1) % batchSize == 0) {
+                entityManager.flush();
+                entityManager.clear();
+            }
+        }
+        entityManager.flush();
+        entityManager.clear();
+    }
+
+    // NOTE: stream has to be consumed within transaction, otherwise cursor is closed together with connection
+    @Override
+    @Transactional
+    public void forEachIpAddress(Consumer<String> action) {
+        try (var ipAddresses = entityManager
+                .createQuery("select g.ipAddress from GatewayEntity g", String.class)
+                .setHint(QueryHints.HINT_FETCH_SIZE, streamFetchSize)
+                .setHint(QueryHints.HINT_READONLY, true)
+                .getResultStream()) {
+            ipAddresses.forEach(action);
+        }
+    }
+
+    @Override
+    public Stream<GatewaySummaryModel> streamAllSummaries() {
+        return entityManager
+                .createQuery("select new com.mkubica.managementservice.domain.dto.GatewaySummaryModel(g.commonName, g.ipAddress) "
+                        + "from GatewayEntity g order by g.commonName", GatewaySummaryModel.class)
+                .setHint(QueryHints.HINT_FETCH_SIZE, streamFetchSize)
+                .setHint(QueryHints.HINT_READONLY, true)
+                .getResultStream();
+    }
+
+    // NOTE: columns are aliased after properties of projection, which is backed by map of them
+    @Override
+    public Stream<GatewayWithCredentials> streamAllWithCredentials() {
+        return entityManager
+                .createQuery("select g.commonName as commonName, g.ipAddress as ipAddress, "
+                        + "c.certificate as certificate, c.certificateLabel as certificateLabel, "
+                        + "c.privateKey as privateKey, c.privateKeyLabel as privateKeyLabel "
+                        + "from GatewayEntity g left join GatewayCredentialsEntity c on c.commonName = g.commonName "
+                        + "order by g.commonName", Tuple.class)
+                .setHint(QueryHints.HINT_FETCH_SIZE, streamFetchSize)
+                .setHint(QueryHints.HINT_READONLY, true)
+                .getResultStream()
+                .map(GatewayRepositoryCustomImpl::toGatewayWithCredentials);
+    }
+
+    private static GatewayWithCredentials toGatewayWithCredentials(Tuple tuple) {
+        var columns = new HashMap<String, Object>();
+        for (TupleElement<?> element : tuple.getElements()) {
+            columns.put(element.getAlias(), tuple.get(element));
+        }
+        return PROJECTION_FACTORY.createProjection(GatewayWithCredentials.class, columns);
+    }
+}
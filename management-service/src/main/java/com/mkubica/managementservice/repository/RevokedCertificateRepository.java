@@ -0,0 +1,21 @@
+/* Copyright 2021 Mateusz Kubica */
+package com.mkubica.managementservice.repository;
+
+import com.mkubica.managementservice.domain.dao.RevokedCertificateEntity;
+
+import javax.transaction.Transactional;
+
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.stereotype.Repository;
+
+import java.time.Instant;
+import java.util.List;
+
+
+@Repository
+@Transactional
+public interface RevokedCertificateRepository extends JpaRepository<RevokedCertificateEntity, String> {
+
+    List<RevokedCertificateEntity> findAllByExpiresAtAfter(Instant instant);
+
+}
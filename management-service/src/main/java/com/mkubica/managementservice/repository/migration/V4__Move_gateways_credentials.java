@@ -0,0 +1,72 @@
+/* Copyright 2021 Mateusz Kubica */
+package com.mkubica.managementservice.repository.migration;
+
+import com.mkubica.managementservice.util.Pem;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.StringWriter;
+import java.sql.Clob;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+
+import org.flywaydb.core.api.migration.BaseJavaMigration;
+import org.flywaydb.core.api.migration.Context;
+
+import lombok.extern.slf4j.Slf4j;
+
+
+/**
+ * Moves certificates and private keys of existing gateways from text columns of gateways table
+ * to gateway_credentials table, converting them to compact form on the way (see {@link Pem}).
+ * It's a java migration since PEM can't be converted with SQL common to all supported databases.
+ */
+@Slf4j
+public class V4__Move_gateways_credentials extends BaseJavaMigration {
+
+    private static final int BATCH_SIZE = 100;
+
+    @Override
+    public void migrate(Context context) throws Exception {
+        var connection = context.getConnection();
+        try (var select = connection.createStatement();
+             var insert = connection.prepareStatement("insert into gateway_credentials "
+                     + "(common_name, certificate, certificate_label, private_key, private_key_label) "
+                     + "values (?, ?, ?, ?, ?)")) {
+            select.setFetchSize(BATCH_SIZE);
+            int moved = 0;
+            // NOTE: columns were mapped as LOBs by hibernate, on postgres they hold oids of large objects,
+            // hence they are read as CLOBs, not strings
+            try (var rows = select.executeQuery("select common_name, certificate, private_key from gateways")) {
+                while (rows.next()) {
+                    insert.setString(1, rows.getString(1));
+                    setCompact(insert, 2, read(rows.getClob(2)));
+                    setCompact(insert, 4, read(rows.getClob(3)));
+                    insert.addBatch();
+                    if (++moved % BATCH_SIZE == 0) {
+                        insert.executeBatch();
+                    }
+                }
+            }
+            insert.executeBatch();
+            log.info("Moved credentials of {} gateways", moved);
+        }
+    }
+
+    private static void setCompact(PreparedStatement insert, int index, String text) throws SQLException {
+        var compact = Pem.compact(text);
+        insert.setBytes(index, compact._1);
+        insert.setString(index + 1, compact._2);
+    }
+
+    private static String read(Clob clob) throws SQLException, IOException {
+        if (clob == null) {
+            return null;
+        }
+        try (Reader reader = clob.getCharacterStream()) {
+            var writer = new StringWriter();
+            reader.transferTo(writer);
+            return writer.toString();
+        }
+    }
+}
@@ -0,0 +1,30 @@
+/* Copyright 2021 Mateusz Kubica */
+package com.mkubica.managementservice.rest;
+
+import com.mkubica.managementservice.domain.dto.GatewayBatchResultModel;
+import com.mkubica.managementservice.domain.dto.GatewayModel;
+import com.mkubica.managementservice.service.GatewayBatchService;
+
+import org.springframework.web.bind.annotation.PostMapping;
+import org.springframework.web.bind.annotation.RequestBody;
+import org.springframework.web.bind.annotation.RestController;
+
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+
+import java.util.List;
+
+
+@RestController
+@RequiredArgsConstructor
+@Slf4j
+public class GatewayBatchController {
+
+    private final GatewayBatchService gatewayBatchService;
+
+    @PostMapping("/gateway/batch")
+    public List<GatewayBatchResultModel> post(@RequestBody List<GatewayModel> models) {
+        log.debug("Creating batch of {} gateways", models.size());
+        return gatewayBatchService.createGateways(models).toJavaList();
+    }
+}
@@ -1,18 +1,18 @@
 /* Copyright 2021 Mateusz Kubica */
 package com.mkubica.managementservice.rest;
 
-import com.mkubica.managementservice.domain.dto.GatewayConfigModel;
 import com.mkubica.managementservice.domain.dto.GatewayModel;
 import com.mkubica.managementservice.service.GatewayService;
 
-import java.io.ByteArrayInputStream;
+import static java.lang.String.format;
 
 import javax.servlet.http.HttpServletResponse;
 
-import org.springframework.util.FileCopyUtils;
+import org.springframework.http.HttpHeaders;
 import org.springframework.web.bind.annotation.GetMapping;
 import org.springframework.web.bind.annotation.PathVariable;
 import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.context.request.ServletWebRequest;
 
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
@@ -25,13 +25,31 @@ public class GatewayConfigController {
     private final GatewayService gatewayService;
 
     @GetMapping("/gateway-config/{common-name}")
-    public void get(@PathVariable("common-name") String commonName, HttpServletResponse response) {
-        gatewayService.getGatewayConfig(GatewayModel.builder().withCommonName(commonName).build())
-                .map(GatewayConfigModel::makeString)
-                .map(config -> new ByteArrayInputStream(config.getBytes()))
+    public void get(
+            @PathVariable("common-name") String commonName,
+            ServletWebRequest request,
+            HttpServletResponse response
+    ) {
+        var model = GatewayModel.builder().withCommonName(commonName).build();
+        // NOTE: when etag is known, matching conditional request is answered with 304
+        // without rendering config nor touching repository
+        var knownEtag = gatewayService.getGatewayConfigEtag(model);
+        if (knownEtag.exists(request::checkNotModified)) {
+            log.debug("Config for common-name: {} not modified", commonName);
+            return;
+        }
+        gatewayService.getRenderedGatewayConfig(model)
                 .andThenTry(config -> {
-                    FileCopyUtils.copy(config, response.getOutputStream());
+                    // NOTE: config might have been rendered again since known etag was checked, so request is checked
+                    // against rendered config and etag of the response is always the one of returned config
+                    var notModified = request.checkNotModified(config.etag());
+                    response.setHeader(HttpHeaders.ETAG, format("\"%s\"", config.etag()));
+                    if (notModified) {
+                        return;
+                    }
                     response.setContentType("application/file");
+                    response.setContentLengthLong(config.contentLength());
+                    config.writeTo(response.getOutputStream());
                     response.flushBuffer();
                 })
                 .onFailure(exc -> log.error("Error when getting config for common-name:{}", commonName))
@@ -1,30 +1,70 @@
 /* Copyright 2021 Mateusz Kubica */
 package com.mkubica.managementservice.rest;
 
+import com.mkubica.managementservice.domain.dto.GatewayJobModel;
 import com.mkubica.managementservice.domain.dto.GatewayModel;
+import com.mkubica.managementservice.domain.dto.GatewaySummaryModel;
 import com.mkubica.managementservice.repository.GatewayRepository;
+import com.mkubica.managementservice.service.GatewayJobService;
 import com.mkubica.managementservice.service.GatewayService;
+import com.mkubica.managementservice.service.IdempotencyStore;
 
+import javax.servlet.http.HttpServletRequest;
+
+import org.springframework.data.domain.PageRequest;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.servlet.support.ServletUriComponentsBuilder;
+import org.springframework.web.util.UriUtils;
 
 import lombok.AllArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 
+import io.vavr.Tuple;
+import io.vavr.control.Option;
+import io.vavr.control.Try;
+
+import java.nio.charset.StandardCharsets;
 import java.util.List;
+import java.util.function.Function;
 import java.util.stream.Collectors;
 
+import static java.lang.String.format;
+
 
 @RestController
 @AllArgsConstructor
 @Slf4j
 public class GatewayController {
 
+    private static final int MAX_PAGE_SIZE = 1000;
+    private static final String RESPOND_ASYNC = "respond-async";
+
     private final GatewayService gatewayService;
     private final GatewayRepository gatewayRepository;
+    private final GatewayJobService gatewayJobService;
+    private final IdempotencyStore<ResponseEntity<?>> idempotencyStore;
 
+    // NOTE: gateways are listed in pages ordered by common name, page starts after common name provided
+    // with 'after' parameter, link to the next page is returned in 'Link' header as long as page is full;
+    // certificates and private keys are loaded only when requested explicitly with 'with-keys' parameter
     @GetMapping("/gateway")
-    public List<GatewayModel> get() {
-        return gatewayRepository.findAll().stream().map(GatewayModel::from).collect(Collectors.toList());
+    public ResponseEntity<List<?>> get(
+            @RequestParam(value = "after", defaultValue = "") String after,
+            @RequestParam(value = "limit", defaultValue = "100") int limit,
+            @RequestParam(value = "with-keys", defaultValue = "false") boolean withKeys,
+            HttpServletRequest request
+    ) {
+        var pageSize = Math.min(Math.max(limit, 1), MAX_PAGE_SIZE);
+        var pageable = PageRequest.of(0, pageSize);
+        return withKeys
+                ? page(gatewayRepository.findAllWithCredentialsAfter(after, pageable).stream()
+                        .map(GatewayModel::from)
+                        .collect(Collectors.toList()), GatewayModel::getCommonName, pageSize, request)
+                : page(gatewayRepository.findSummariesAfter(after, pageable),
+                        GatewaySummaryModel::getCommonName, pageSize, request);
     }
 
     @GetMapping("/gateway/{common-name}")
@@ -35,11 +75,19 @@ public class GatewayController {
                 .get();
     }
 
+    // NOTE: with 'Prefer: respond-async' header (RFC 7240) gateway is provisioned in background, job is accepted
+    // right away and its state is served under 'Location', see GatewayJobController; with 'Idempotency-Key' header
+    // retried request gets response of the first one, instead of creating gateway (or job) again
     @PostMapping("/gateway")
-    public GatewayModel post(@RequestBody GatewayModel model) {
-        return gatewayService.createGateway(model)
-                .onFailure(exc -> log.error("Error when posting gateway entity with common-name:{}", model.getCommonName()))
-                .onSuccess(res -> log.debug("Successfully created entity: {}", res))
+    public ResponseEntity<?> post(
+            @RequestBody GatewayModel model,
+            @RequestHeader(value = "Prefer", defaultValue = "") String prefer,
+            @RequestHeader(value = "Idempotency-Key", required = false) String idempotencyKey
+    ) {
+        var async = prefer.contains(RESPOND_ASYNC);
+        return Option.of(idempotencyKey)
+                .map(key -> idempotencyStore.execute(key, Tuple.of(model, async), () -> create(model, async)))
+                .getOrElse(() -> create(model, async))
                 .get();
     }
 
@@ -50,4 +98,45 @@ public class GatewayController {
                 .onSuccess(res -> log.debug("Successfully deleted entity: {}", res))
                 .get();
     }
+
+    private Try<ResponseEntity<?>> create(GatewayModel model, boolean async) {
+        return async
+                ? gatewayJobService.submit(model)
+                        .onFailure(exc -> log.error("Error when submitting job of gateway with common-name:{}", model.getCommonName()))
+                        .onSuccess(res -> log.debug("Successfully submitted job: {}", res))
+                        .map(GatewayController::accepted)
+                : gatewayService.createGateway(model)
+                        .onFailure(exc -> log.error("Error when posting gateway entity with common-name:{}", model.getCommonName()))
+                        .onSuccess(res -> log.debug("Successfully created entity: {}", res))
+                        .map(ResponseEntity::ok);
+    }
+
+    private static ResponseEntity<?> accepted(GatewayJobModel job) {
+        var location = ServletUriComponentsBuilder.fromCurrentContextPath()
+                .path("/gateway/job/{id}")
+                .buildAndExpand(job.getId())
+                .toUri();
+        return ResponseEntity.status(HttpStatus.ACCEPTED).location(location).body(job);
+    }
+
+    private static <T> ResponseEntity<List<?>> page(
+            List<T> gateways,
+            Function<T, String> commonName,
+            int pageSize,
+            HttpServletRequest request
+    ) {
+        var response = ResponseEntity.ok();
+        if (gateways.size() == pageSize) {
+            // NOTE: query of the request is already encoded, so only replaced parameters are encoded here
+            var after = UriUtils.encodeQueryParam(
+                    commonName.apply(gateways.get(gateways.size() - 1)), StandardCharsets.UTF_8);
+            var next = ServletUriComponentsBuilder.fromRequest(request)
+                    .replaceQueryParam("after", after)
+                    .replaceQueryParam("limit", pageSize)
+                    .build(true)
+                    .toUriString();
+            response.header(HttpHeaders.LINK, format("<%s>; rel=\"next\"", next));
+        }
+        return response.body(gateways);
+    }
 }
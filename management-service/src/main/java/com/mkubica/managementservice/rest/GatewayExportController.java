@@ -0,0 +1,47 @@
+/* Copyright 2021 Mateusz Kubica */
+package com.mkubica.managementservice.rest;
+
+import com.mkubica.managementservice.service.GatewayExportService;
+
+import javax.servlet.http.HttpServletResponse;
+
+import org.springframework.http.HttpStatus;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.RestController;
+
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.IOException;
+
+
+@RestController
+@RequiredArgsConstructor
+@Slf4j
+public class GatewayExportController {
+
+    private static final String NDJSON = "application/x-ndjson";
+
+    private final GatewayExportService gatewayExportService;
+
+    // NOTE: response is streamed (chunked) while gateways are read, so once part of export has been sent its status
+    // can't be changed anymore and failure is only logged, response is cut short; failure before anything has been
+    // sent is reported with error status instead, so client never takes empty response for empty inventory
+    @GetMapping(value = "/gateway-export", produces = NDJSON)
+    public void get(
+            @RequestParam(value = "with-keys", defaultValue = "false") boolean withKeys,
+            HttpServletResponse response
+    ) throws IOException {
+        response.setContentType(NDJSON);
+        var exported = gatewayExportService.exportGateways(withKeys, response.getOutputStream())
+                .onFailure(exc -> log.error("Error when exporting gateways", exc))
+                .onSuccess(count -> log.debug("Successfully exported {} gateways", count));
+        if (exported.isFailure() && !response.isCommitted()) {
+            response.reset();
+            response.sendError(HttpStatus.INTERNAL_SERVER_ERROR.value(), "Export of gateways failed");
+            return;
+        }
+        response.flushBuffer();
+    }
+}
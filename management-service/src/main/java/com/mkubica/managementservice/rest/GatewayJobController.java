@@ -0,0 +1,37 @@
+/* Copyright 2021 Mateusz Kubica */
+package com.mkubica.managementservice.rest;
+
+import com.mkubica.managementservice.domain.dto.GatewayJobModel;
+import com.mkubica.managementservice.service.GatewayJobService;
+
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PathVariable;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.RestController;
+
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+
+import java.time.Duration;
+import java.util.concurrent.CompletableFuture;
+
+
+@RestController
+@RequiredArgsConstructor
+@Slf4j
+public class GatewayJobController {
+
+    private final GatewayJobService gatewayJobService;
+
+    // NOTE: with 'wait-millis' parameter it's a long-poll, response is sent as soon as the job finishes
+    // or the wait elapses, whichever comes first; request thread is released meanwhile
+    @GetMapping("/gateway/job/{id}")
+    public CompletableFuture<GatewayJobModel> get(
+            @PathVariable("id") String id,
+            @RequestParam(value = "wait-millis", defaultValue = "0") long waitMillis
+    ) {
+        return gatewayJobService.await(id, Duration.ofMillis(waitMillis))
+                .onFailure(exc -> log.error("Error when getting job with id:{}", id))
+                .get();
+    }
+}
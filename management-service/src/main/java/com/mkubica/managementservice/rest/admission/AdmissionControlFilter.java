@@ -0,0 +1,85 @@
+/* Copyright 2021 Mateusz Kubica */
+package com.mkubica.managementservice.rest.admission;
+
+import java.io.IOException;
+import java.util.Set;
+
+import javax.servlet.FilterChain;
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.springframework.core.annotation.AnnotatedElementUtils;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.web.bind.annotation.ResponseStatus;
+import org.springframework.web.filter.OncePerRequestFilter;
+
+import io.vavr.control.Option;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+
+
+/**
+ * Admits requests by class, so burst of gateway provisioning can't starve gateways reading their configs.
+ * Requests changing gateways (anything but GET and HEAD) are provisioning, all others are reads, and each class
+ * is admitted by its own {@link AdmissionLimiter}. Rejected request is answered right away with status of the
+ * rejection (429 when queue of the class is full, 503 when request wasn't admitted in time) and 'Retry-After'
+ * header. Actuator endpoints are not limited, so health of the service can be checked under load. Streaming
+ * export is admitted as a read, but its latency (which grows with number of gateways) doesn't adapt the limit.
+ */
+@Slf4j
+@RequiredArgsConstructor
+public class AdmissionControlFilter extends OncePerRequestFilter {
+
+    private static final Set<String> READ_METHODS = Set.of("GET", "HEAD");
+    private static final String UNMEASURED_PATH = "/gateway-export";
+
+    private final AdmissionLimiter provisioningLimiter;
+    private final AdmissionLimiter readLimiter;
+
+    @Override
+    protected boolean shouldNotFilter(HttpServletRequest request) {
+        return request.getServletPath().startsWith("/actuator");
+    }
+
+    // NOTE: for asynchronous requests (e.g. long-poll of gateway job) chain returns once the request is suspended,
+    // so permit is released while the request is waiting and doesn't count against the limit
+    @Override
+    protected void doFilterInternal(
+            HttpServletRequest request,
+            HttpServletResponse response,
+            FilterChain filterChain
+    ) throws ServletException, IOException {
+        var limiter = READ_METHODS.contains(request.getMethod()) ? readLimiter : provisioningLimiter;
+        var permit = limiter.acquire();
+        if (permit.isFailure()) {
+            reject(request, response, limiter, permit.getCause());
+            return;
+        }
+        try {
+            filterChain.doFilter(request, response);
+        } finally {
+            if (request.getServletPath().startsWith(UNMEASURED_PATH)) {
+                permit.get().releaseUnmeasured();
+            } else {
+                permit.get().release();
+            }
+        }
+    }
+
+    private static void reject(
+            HttpServletRequest request,
+            HttpServletResponse response,
+            AdmissionLimiter limiter,
+            Throwable cause
+    ) throws IOException {
+        var status = Option.of(AnnotatedElementUtils.findMergedAnnotation(cause.getClass(), ResponseStatus.class))
+                .map(ResponseStatus::code)
+                .getOrElse(HttpStatus.SERVICE_UNAVAILABLE);
+        log.warn("Rejecting {} {} ({} requests), limit: {}, queued: {}", request.getMethod(), request.getRequestURI(),
+                limiter.name(), limiter.limit(), limiter.queued());
+        response.setHeader(HttpHeaders.RETRY_AFTER, String.valueOf(limiter.retryAfter().toSeconds()));
+        response.sendError(status.value(), cause.getMessage());
+    }
+}
@@ -0,0 +1,202 @@
+/* Copyright 2021 Mateusz Kubica */
+package com.mkubica.managementservice.rest.admission;
+
+import com.mkubica.managementservice.exception.AdmissionQueueFullException;
+import com.mkubica.managementservice.exception.AdmissionTimeoutException;
+
+import java.time.Duration;
+import java.util.concurrent.TimeUnit;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.vavr.control.Try;
+import lombok.extern.slf4j.Slf4j;
+
+
+/**
+ * Concurrency limit of single class of requests, adapted to observed latency with additive increase and
+ * multiplicative decrease. Request completed within target latency while at least half of the limit was in use
+ * raises the limit by 1/limit (so roughly by one after limit's worth of requests), request exceeding target
+ * latency cuts it by backoff ratio, at most once per window: requests admitted before the last cut saw
+ * the same congestion, so they don't cut it again. The limit stays between min and max limit and starts
+ * at max limit, so it's cut only once observed latency shows that the pipeline behind it is saturated.
+ *
+ * Requests over the limit wait in bounded queue, at most max queue wait. Request arriving when the queue is full
+ * is rejected immediately with {@link AdmissionQueueFullException}, request not admitted in time is rejected
+ * with {@link AdmissionTimeoutException}. Time spent in queue is not part of observed latency.
+ *
+ * Limit, requests in flight, queued requests and rejections are published to meter registry, tagged with name
+ * of the class.
+ */
+@Slf4j
+public class AdmissionLimiter {
+
+    private static final double BACKOFF_RATIO = 0.9;
+
+    private final String name;
+    private final int minLimit;
+    private final int maxLimit;
+    private final int queueCapacity;
+    private final Duration maxQueueWait;
+    private final Duration targetLatency;
+    private final Counter queueFullCounter;
+    private final Counter timeoutCounter;
+    private double limit;
+    private int inFlight;
+    private int queued;
+    // NOTE: sequence of the last admitted request and of the last request admitted before the limit was cut
+    private long admitted;
+    private long admittedBeforeBackoff;
+
+    public AdmissionLimiter(
+            String name,
+            int minLimit,
+            int maxLimit,
+            int queueCapacity,
+            Duration maxQueueWait,
+            Duration targetLatency,
+            MeterRegistry meterRegistry
+    ) {
+        this.name = name;
+        this.minLimit = Math.max(1, minLimit);
+        this.maxLimit = Math.max(this.minLimit, maxLimit);
+        this.queueCapacity = queueCapacity;
+        this.maxQueueWait = maxQueueWait;
+        this.targetLatency = targetLatency;
+        this.limit = this.maxLimit;
+
+        Gauge.builder("admission.limit", this, AdmissionLimiter::limit)
+                .description("Current concurrency limit, adapted to observed latency")
+                .tag("class", name)
+                .register(meterRegistry);
+        Gauge.builder("admission.in.flight", this, AdmissionLimiter::inFlight)
+                .description("Number of admitted requests in flight")
+                .tag("class", name)
+                .register(meterRegistry);
+        Gauge.builder("admission.queued", this, AdmissionLimiter::queued)
+                .description("Number of requests waiting for admission")
+                .tag("class", name)
+                .register(meterRegistry);
+        this.queueFullCounter = Counter.builder("admission.rejected")
+                .description("Number of requests rejected without being admitted")
+                .tag("class", name)
+                .tag("reason", "queue-full")
+                .register(meterRegistry);
+        this.timeoutCounter = Counter.builder("admission.rejected")
+                .description("Number of requests rejected without being admitted")
+                .tag("class", name)
+                .tag("reason", "timeout")
+                .register(meterRegistry);
+    }
+
+    /**
+     * @return permit which must be released once the request completes, or failure if the request is rejected
+     */
+    public synchronized Try<Permit> acquire() {
+        if (inFlight < limit()) {
+            return Try.success(admit());
+        }
+        if (queued >= queueCapacity) {
+            queueFullCounter.increment();
+            return Try.failure(new AdmissionQueueFullException());
+        }
+        queued++;
+        try {
+            var deadline = System.nanoTime() + maxQueueWait.toNanos();
+            while (inFlight >= limit()) {
+                var remaining = deadline - System.nanoTime();
+                if (remaining <= 0) {
+                    timeoutCounter.increment();
+                    return Try.failure(new AdmissionTimeoutException());
+                }
+                TimeUnit.NANOSECONDS.timedWait(this, remaining);
+            }
+            return Try.success(admit());
+        } catch (InterruptedException exc) {
+            Thread.currentThread().interrupt();
+            return Try.failure(exc);
+        } finally {
+            queued--;
+        }
+    }
+
+    /**
+     * @return time after which rejected client should retry, at least a second
+     */
+    public Duration retryAfter() {
+        return Duration.ofSeconds(Math.max(1, (maxQueueWait.toMillis() + 999) / 1000));
+    }
+
+    public String name() {
+        return name;
+    }
+
+    public synchronized int limit() {
+        return (int) limit;
+    }
+
+    public synchronized int inFlight() {
+        return inFlight;
+    }
+
+    public synchronized int queued() {
+        return queued;
+    }
+
+    private Permit admit() {
+        inFlight++;
+        return new Permit(++admitted, System.nanoTime());
+    }
+
+    private synchronized void complete(long sequence, Duration latency) {
+        // NOTE: limit is raised only when it was actually in use, otherwise it would grow without bound when idle
+        var saturated = inFlight * 2 >= limit;
+        inFlight--;
+        if (latency.compareTo(targetLatency) > 0) {
+            if (sequence > admittedBeforeBackoff) {
+                limit = Math.max(minLimit, limit * BACKOFF_RATIO);
+                admittedBeforeBackoff = admitted;
+                log.debug("Latency of {} requests is {} ms, limit lowered to {}", name, latency.toMillis(), limit());
+            }
+        } else if (saturated) {
+            limit = Math.min(maxLimit, limit + 1 / limit);
+        }
+        notifyAll();
+    }
+
+    private synchronized void cancel() {
+        inFlight--;
+        notifyAll();
+    }
+
+    /**
+     * Admission of single request, latency is measured from admission until the permit is released.
+     */
+    public class Permit {
+
+        private final long sequence;
+        private final long admittedAt;
+
+        private Permit(long sequence, long admittedAt) {
+            this.sequence = sequence;
+            this.admittedAt = admittedAt;
+        }
+
+        public void release() {
+            release(Duration.ofNanos(System.nanoTime() - admittedAt));
+        }
+
+        /**
+         * Releases the permit without taking latency of the request into account, meant for requests whose latency
+         * doesn't tell anything about the pipeline, eg. streaming whole table.
+         */
+        public void releaseUnmeasured() {
+            cancel();
+        }
+
+        void release(Duration latency) {
+            complete(sequence, latency);
+        }
+    }
+}
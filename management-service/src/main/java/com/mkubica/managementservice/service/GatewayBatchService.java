@@ -0,0 +1,193 @@
+/* Copyright 2021 Mateusz Kubica */
+package com.mkubica.managementservice.service;
+
+import static java.lang.String.format;
+
+import com.google.common.base.Strings;
+import com.google.common.collect.Sets;
+import com.google.common.net.InetAddresses;
+import com.mkubica.managementservice.domain.dao.GatewayCredentialsEntity;
+import com.mkubica.managementservice.domain.dao.GatewayEntity;
+import com.mkubica.managementservice.domain.dto.CertificateBundleModel;
+import com.mkubica.managementservice.domain.dto.GatewayBatchResultModel;
+import com.mkubica.managementservice.domain.dto.GatewayModel;
+import com.mkubica.managementservice.exception.CommonNameBlankException;
+import com.mkubica.managementservice.exception.CommonNameNotUniqueException;
+import com.mkubica.managementservice.exception.IpAddressStringInvalidException;
+import com.mkubica.managementservice.repository.GatewayRepository;
+import com.mkubica.managementservice.service.cert.AsyncClientCertificateRequester;
+import com.mkubica.managementservice.service.ip.IpAssigner;
+
+import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Semaphore;
+import java.util.function.Function;
+
+import lombok.extern.slf4j.Slf4j;
+
+import io.vavr.Tuple;
+import io.vavr.collection.HashSet;
+import io.vavr.collection.List;
+import io.vavr.collection.Set;
+import io.vavr.control.Try;
+
+
+/**
+ * Provisions many gateways at once. Every step of {@link GatewayService#createGateway(GatewayModel)} pipeline
+ * is performed for the whole batch: common names are validated with single query, ip addresses are assigned
+ * at once, certificates are requested asynchronously (with bounded number of requests in flight, but without
+ * thread per request) and entities are persisted with batch inserts. Failure of certain item doesn't fail the whole batch,
+ * result is reported for each item separately.
+ */
+@Slf4j
+public class GatewayBatchService {
+
+    private final GatewayRepository gatewayRepository;
+    private final GatewayEntityCache gatewayEntityCache;
+    private final AsyncClientCertificateRequester clientCertificateRequester;
+    private final IpAssigner ipAssigner;
+    private final int maxConcurrentCertificateRequests;
+
+    public GatewayBatchService(
+            GatewayRepository gatewayRepository,
+            GatewayEntityCache gatewayEntityCache,
+            AsyncClientCertificateRequester clientCertificateRequester,
+            IpAssigner ipAssigner,
+            int maxConcurrentCertificateRequests
+    ) {
+        this.gatewayRepository = gatewayRepository;
+        this.gatewayEntityCache = gatewayEntityCache;
+        this.clientCertificateRequester = clientCertificateRequester;
+        this.ipAssigner = ipAssigner;
+        this.maxConcurrentCertificateRequests = maxConcurrentCertificateRequests;
+    }
+
+    public List<GatewayBatchResultModel> createGateways(Iterable<GatewayModel> models) {
+        var initialModels = List.ofAll(models);
+        var validated = validate(initialModels);
+        var withIpAddresses = forSuccessful(validated, this::assignIps);
+        var withCertificates = forSuccessful(withIpAddresses, this::requestBundles);
+        var persisted = forSuccessful(withCertificates, this::persist);
+
+        var results = initialModels.zipWith(persisted, (model, res) -> GatewayBatchResultModel.from(model.getCommonName(), res));
+        log.info("Processed batch of {} gateways, {} of them created", results.size(), results.count(GatewayBatchResultModel::isCreated));
+        return results;
+    }
+
+    // NOTE: common names that repeat within the batch are not unique as well, only first occurrence is processed
+    private List<Try<GatewayModel>> validate(List<GatewayModel> models) {
+        var commonNames = models.map(GatewayModel::getCommonName).filter(Objects::nonNull).distinct();
+        Set<String> existingCommonNames = commonNames.isEmpty()
+                ? HashSet.empty()
+                : HashSet.ofAll(gatewayRepository.findExistingCommonNames(commonNames.toJavaList()));
+        var seenCommonNames = Sets.<String>newHashSet();
+
+        return models.map(model -> validateCommonName(model, existingCommonNames)
+                .filter(m -> seenCommonNames.add(m.getCommonName()), m -> notUnique(m.getCommonName()))
+                .flatMap(GatewayBatchService::validateIpAddressString)
+                .map(m -> GatewayModel.builder()
+                        .withCommonName(m.getCommonName())
+                        .withIpAddress(m.getIpAddress())
+                        .build()));
+    }
+
+    private List<Try<GatewayModel>> assignIps(List<GatewayModel> models) {
+        return ipAssigner
+                .assignIps(models.map(model -> Tuple.of(model.getCommonName(), model.getIpAddress())))
+                .zipWith(models, (assignedIp, model) -> assignedIp
+                        .map(ip -> model.toBuilder().withIpAddress(ip).build()));
+    }
+
+    // NOTE: only calling thread waits for permit, next request is sent as soon as any of requests in flight completes
+    private List<Try<GatewayModel>> requestBundles(List<GatewayModel> models) {
+        var permits = new Semaphore(maxConcurrentCertificateRequests);
+        return models
+                .map(model -> requestBundle(model, permits))
+                .zipWith(models, (bundle, model) -> withBundle(model, bundle));
+    }
+
+    // NOTE: request which fails before returning future releases its permit right away, otherwise the permit
+    // would be lost and later requests of the batch would wait for it forever
+    private CompletableFuture<CertificateBundleModel> requestBundle(GatewayModel model, Semaphore permits) {
+        permits.acquireUninterruptibly();
+        try {
+            return clientCertificateRequester.requestBundleAsync(model.getCommonName())
+                    .whenComplete((bundle, exc) -> permits.release());
+        } catch (RuntimeException exc) {
+            permits.release();
+            return CompletableFuture.failedFuture(exc);
+        }
+    }
+
+    private Try<GatewayModel> withBundle(GatewayModel model, CompletableFuture<CertificateBundleModel> futureBundle) {
+        return Try.of(futureBundle::join)
+                .recoverWith(CompletionException.class, exc -> Try.failure(exc.getCause()))
+                .map(bundle -> model.toBuilder()
+                        .withCertificate(bundle.getCertificate())
+                        .withPrivateKey(bundle.getPrivateKey())
+                        .build())
+                .onFailure(exc -> releaseIp(model));
+    }
+
+    // NOTE: failed batch insert is rolled back as a whole, so items are persisted again one by one
+    // and only items which can't be persisted on their own are rolled back
+    private List<Try<GatewayModel>> persist(List<GatewayModel> models) {
+        // NOTE: entities are persisted bypassing the cache, so gateways previously cached as not found are evicted
+        return Try.of(() -> gatewayRepository.persistAll(
+                        models.map(GatewayEntity::from).toJavaList(),
+                        models.map(GatewayCredentialsEntity::from).toJavaList()))
+                .andThen(() -> gatewayEntityCache.invalidateAll(models.map(GatewayModel::getCommonName)))
+                .map(entities -> models.map(Try::<GatewayModel>success))
+                .onFailure(exc -> log.warn("Error when persisting batch of {} gateways, persisting them one by one",
+                        models.size(), exc))
+                .getOrElse(() -> models.map(this::persistOne));
+    }
+
+    private Try<GatewayModel> persistOne(GatewayModel model) {
+        return Try.of(() -> gatewayEntityCache.save(GatewayEntity.from(model), GatewayCredentialsEntity.from(model)))
+                .map(entity -> model)
+                .onFailure(exc -> log.error("Error when persisting gateway of common-name:{}", model.getCommonName(), exc))
+                .onFailure(exc -> rollback(model));
+    }
+
+    private void rollback(GatewayModel model) {
+        releaseIp(model);
+        clientCertificateRequester.revokeBundle(model.getCommonName(), model.getCertificate())
+                .onFailure(exc -> log.error("Error when revoking bundle of common-name:{}", model.getCommonName(), exc));
+    }
+
+    private void releaseIp(GatewayModel model) {
+        ipAssigner.releaseIp(model.getCommonName(), model.getIpAddress())
+                .onFailure(exc -> log.error("Error when releasing ip of common-name:{}", model.getCommonName(), exc));
+    }
+
+    // NOTE: applies operation only to items that haven't failed yet, results are placed at positions of those items
+    private static <T, R> List<Try<R>> forSuccessful(List<Try<T>> items, Function<List<T>, List<Try<R>>> operation) {
+        var successful = items.filter(Try::isSuccess).map(Try::get);
+        var results = successful.isEmpty()
+                ? List.<Try<R>>empty().iterator()
+                : operation.apply(successful).iterator();
+        return items.map(item -> item.isSuccess() ? results.next() : Try.<R>failure(item.getCause()));
+    }
+
+    private static Try<GatewayModel> validateCommonName(GatewayModel model, Set<String> existingCommonNames) {
+        return !Strings.isNullOrEmpty(model.getCommonName()) && !model.getCommonName().isBlank()
+                ? !existingCommonNames.contains(model.getCommonName())
+                    ? Try.success(model)
+                    : Try.failure(notUnique(model.getCommonName()))
+                : Try.failure(new CommonNameBlankException());
+    }
+
+    private static Try<GatewayModel> validateIpAddressString(GatewayModel model) {
+        return model.getIpAddress() != null
+                ? InetAddresses.isInetAddress(model.getIpAddress())
+                    ? Try.success(model)
+                    : Try.failure(new IpAddressStringInvalidException())
+                : Try.success(model);
+    }
+
+    private static CommonNameNotUniqueException notUnique(String commonName) {
+        return new CommonNameNotUniqueException(format("Gateway with common name '%s' already exist", commonName));
+    }
+}
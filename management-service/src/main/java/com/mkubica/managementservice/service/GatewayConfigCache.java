@@ -0,0 +1,90 @@
+/* Copyright 2021 Mateusz Kubica */
+package com.mkubica.managementservice.service;
+
+import com.mkubica.managementservice.domain.dto.RenderedGatewayConfig;
+
+import java.time.Duration;
+import java.util.function.Function;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+
+import io.vavr.control.Option;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+import io.vavr.control.Try;
+import lombok.extern.slf4j.Slf4j;
+
+
+/**
+ * Size and time bounded cache of rendered gateway configs, keyed by common name. Segments shared
+ * by all configs are held once, so every entry costs roughly size of its certificate and key.
+ * Only successfully rendered configs are cached, failures are reported to caller and rendering
+ * is retried on next request.
+ * Hit and miss statistics are published to meter registry under name of the cache.
+ *
+ * Etags of rendered configs are kept in separate cache, which holds much more entries than cache of configs,
+ * since etag is tiny. It lets conditional requests be answered even when config itself has been evicted.
+ */
+@Slf4j
+public class GatewayConfigCache {
+
+    public static final String CACHE_NAME = "gateway-config";
+    public static final String ETAG_CACHE_NAME = "gateway-config-etag";
+
+    private final Cache<String, RenderedGatewayConfig> renderedConfigs;
+    private final Cache<String, String> etags;
+
+    public GatewayConfigCache(
+            long maximumSize,
+            long etagMaximumSize,
+            Duration expireAfterWrite,
+            MeterRegistry meterRegistry
+    ) {
+        this.renderedConfigs = Caffeine.newBuilder()
+                .maximumSize(maximumSize)
+                .expireAfterWrite(expireAfterWrite)
+                .recordStats()
+                .build();
+        this.etags = Caffeine.newBuilder()
+                .maximumSize(etagMaximumSize)
+                .expireAfterWrite(expireAfterWrite)
+                .recordStats()
+                .build();
+        CaffeineCacheMetrics.monitor(meterRegistry, renderedConfigs, CACHE_NAME);
+        CaffeineCacheMetrics.monitor(meterRegistry, etags, ETAG_CACHE_NAME);
+    }
+
+    /**
+     * @param commonName - common name of gateway
+     * @param renderer - function which renders config of certain common name on cache miss
+     * @return cached or freshly rendered config or exception of renderer, wrapped with {@link Try}
+     */
+    public Try<RenderedGatewayConfig> get(String commonName, Function<String, Try<RenderedGatewayConfig>> renderer) {
+        // NOTE: exception thrown from mapping function is propagated by cache and nothing is stored
+        return Try.of(() -> renderedConfigs.get(commonName, key -> renderer.apply(key)
+                .andThen(config -> etags.put(key, config.etag()))
+                .get()));
+    }
+
+    /**
+     * @param commonName - common name of gateway
+     * @return etag of config which has been rendered for certain common name, if it is still known
+     */
+    public Option<String> getEtag(String commonName) {
+        return Option.of(etags.getIfPresent(commonName));
+    }
+
+    // NOTE: invalidation of config waits for its rendering in progress, which puts etag, thus etag is invalidated after
+    public void invalidate(String commonName) {
+        renderedConfigs.invalidate(commonName);
+        etags.invalidate(commonName);
+    }
+
+    public void invalidateAll() {
+        log.info("Invalidating all cached gateway configs");
+        renderedConfigs.invalidateAll();
+        etags.invalidateAll();
+    }
+}
@@ -1,26 +1,57 @@
 /* Copyright 2021 Mateusz Kubica */
 package com.mkubica.managementservice.service;
 
-import com.mkubica.managementservice.domain.dao.GatewayEntity;
+import com.mkubica.managementservice.domain.dao.GatewayCredentialsEntity;
 import com.mkubica.managementservice.domain.dto.GatewayConfigModel;
+import com.mkubica.managementservice.domain.dto.RenderedGatewayConfig;
 import com.mkubica.managementservice.provider.TemplateProvider;
 import com.mkubica.managementservice.provider.cert.CertificateProvider;
 
-import lombok.AllArgsConstructor;
+import java.nio.charset.StandardCharsets;
 
 import io.vavr.control.Try;
 
+import static java.lang.String.format;
+
 
-@AllArgsConstructor
 public class GatewayConfigProducer {
 
+    private static final String TEMPLATE_PATH = "static/base.conf";
+
+    private static final byte[] CA_OPENING_TAG = openingTag("ca");
+    private static final byte[] CA_CLOSING_TAG = closingTag("ca");
+    private static final byte[] CERT_OPENING_TAG = openingTag("cert");
+    private static final byte[] CERT_CLOSING_TAG = closingTag("cert");
+    private static final byte[] KEY_OPENING_TAG = openingTag("key");
+    private static final byte[] KEY_CLOSING_TAG = closingTag("key");
+    private static final byte[] TLS_CRYPT_OPENING_TAG = openingTag("tls-crypt");
+    private static final byte[] TLS_CRYPT_CLOSING_TAG = closingTag("tls-crypt");
+
     private final String ovpnExternalAddress;
     private final String ovpnExternalPort;
     private final TemplateProvider templateProvider;
     private final CertificateProvider certificateProvider;
 
-    public Try<GatewayConfigModel> produceFrom(GatewayEntity entity) {
-        return templateProvider.obtainTemplate("static/base.conf").mapTry(template ->
+    private final byte[] remoteLine;
+    // NOTE: template is a resource bundled with the application, so once it is read it never changes
+    private volatile byte[] templateBytes;
+
+    public GatewayConfigProducer(
+            String ovpnExternalAddress,
+            String ovpnExternalPort,
+            TemplateProvider templateProvider,
+            CertificateProvider certificateProvider
+    ) {
+        this.ovpnExternalAddress = ovpnExternalAddress;
+        this.ovpnExternalPort = ovpnExternalPort;
+        this.templateProvider = templateProvider;
+        this.certificateProvider = certificateProvider;
+        this.remoteLine = format("\nremote %s %s\n", ovpnExternalAddress, ovpnExternalPort)
+                .getBytes(StandardCharsets.UTF_8);
+    }
+
+    public Try<GatewayConfigModel> produceFrom(GatewayCredentialsEntity credentials) {
+        return templateProvider.obtainTemplate(TEMPLATE_PATH).mapTry(template ->
                 GatewayConfigModel
                         .builder()
                         .withTemplate(template)
@@ -28,9 +59,46 @@ public class GatewayConfigProducer {
                         .withExternalPort(ovpnExternalPort)
                         .withCaCertificate(certificateProvider.obtainCACert().get())
                         .withTlsAuthKey(certificateProvider.obtainTAKey().get())
-                        .withCertificate(entity.getCertificate())
-                        .withPrivateKey(entity.getPrivateKey())
+                        .withCertificate(credentials.certificateText())
+                        .withPrivateKey(credentials.privateKeyText())
                         .build()
         );
     }
+
+    /**
+     * Renders config of certain gateway to pre-encoded segments, output is byte to byte equal
+     * to {@link GatewayConfigModel#makeString()} of {@link #produceFrom(GatewayCredentialsEntity)}, but only
+     * certificate and private key of the gateway are encoded (restored to PEM), all the other segments are shared.
+     *
+     * @param credentials - credentials of gateway which config is rendered
+     * @return rendered config or exception, wrapped with {@link Try}
+     */
+    public Try<RenderedGatewayConfig> renderFrom(GatewayCredentialsEntity credentials) {
+        return obtainTemplateBytes().flatMap(template -> certificateProvider.obtainCACertBytes()
+                .flatMap(caCert -> certificateProvider.obtainTAKeyBytes()
+                        .mapTry(taKey -> RenderedGatewayConfig.of(
+                                template,
+                                remoteLine,
+                                CA_OPENING_TAG, caCert, CA_CLOSING_TAG,
+                                CERT_OPENING_TAG, credentials.certificatePem(), CERT_CLOSING_TAG,
+                                KEY_OPENING_TAG, credentials.privateKeyPem(), KEY_CLOSING_TAG,
+                                TLS_CRYPT_OPENING_TAG, taKey, TLS_CRYPT_CLOSING_TAG))));
+    }
+
+    private Try<byte[]> obtainTemplateBytes() {
+        var cached = templateBytes;
+        return cached != null
+                ? Try.success(cached)
+                : templateProvider.obtainTemplate(TEMPLATE_PATH)
+                        .map(template -> template.getBytes(StandardCharsets.UTF_8))
+                        .andThen(template -> templateBytes = template);
+    }
+
+    private static byte[] openingTag(String tag) {
+        return format("<%s>\n", tag).getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static byte[] closingTag(String tag) {
+        return format("</%s>\n", tag).getBytes(StandardCharsets.UTF_8);
+    }
 }
@@ -0,0 +1,120 @@
+/* Copyright 2021 Mateusz Kubica */
+package com.mkubica.managementservice.service;
+
+import com.mkubica.managementservice.domain.dao.GatewayCredentialsEntity;
+import com.mkubica.managementservice.domain.dao.GatewayEntity;
+import com.mkubica.managementservice.repository.GatewayCredentialsRepository;
+import com.mkubica.managementservice.repository.GatewayRepository;
+
+import java.time.Duration;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+import io.vavr.collection.Traversable;
+import io.vavr.control.Option;
+import lombok.extern.slf4j.Slf4j;
+
+
+/**
+ * Size and time bounded read-through cache of gateway entities in front of {@link GatewayRepository},
+ * keyed by common name. Both found and not found gateways are cached, so neither existing nor unknown
+ * common names cost database round-trip while cached. Entities saved or deleted through the cache
+ * are evicted, entities modified bypassing the cache have to be invalidated explicitly,
+ * otherwise they are stale until they expire.
+ *
+ * Credentials of gateways are cached separately, only when private keys are allowed to be held in memory,
+ * otherwise they are loaded from {@link GatewayCredentialsRepository} for found gateways, while not found gateways
+ * are still served out of cache. Hit and miss statistics are published to meter registry under names of the caches.
+ */
+@Slf4j
+public class GatewayEntityCache {
+
+    public static final String CACHE_NAME = "gateway-entity";
+    public static final String CREDENTIALS_CACHE_NAME = "gateway-credentials";
+
+    private final GatewayRepository gatewayRepository;
+    private final GatewayCredentialsRepository gatewayCredentialsRepository;
+    private final Cache<String, Option<GatewayEntity>> entities;
+    private final Option<Cache<String, Option<GatewayCredentialsEntity>>> credentials;
+
+    public GatewayEntityCache(
+            GatewayRepository gatewayRepository,
+            GatewayCredentialsRepository gatewayCredentialsRepository,
+            long maximumSize,
+            Duration expireAfterWrite,
+            boolean cachePrivateKeys,
+            MeterRegistry meterRegistry
+    ) {
+        this.gatewayRepository = gatewayRepository;
+        this.gatewayCredentialsRepository = gatewayCredentialsRepository;
+        this.entities = Caffeine.newBuilder()
+                .maximumSize(maximumSize)
+                .expireAfterWrite(expireAfterWrite)
+                .recordStats()
+                .build();
+        CaffeineCacheMetrics.monitor(meterRegistry, entities, CACHE_NAME);
+        this.credentials = Option.when(cachePrivateKeys, () -> Caffeine.newBuilder()
+                .maximumSize(maximumSize)
+                .expireAfterWrite(expireAfterWrite)
+                .recordStats()
+                .<String, Option<GatewayCredentialsEntity>>build());
+        credentials.forEach(cache -> CaffeineCacheMetrics.monitor(meterRegistry, cache, CREDENTIALS_CACHE_NAME));
+    }
+
+    /**
+     * @param commonName - common name of gateway
+     * @return gateway of certain common name, if it exists
+     */
+    public Option<GatewayEntity> getGatewayEntityByCommonName(String commonName) {
+        return entities.get(commonName, gatewayRepository::getGatewayEntityByCommonName);
+    }
+
+    /**
+     * @param commonName - common name of gateway
+     * @return credentials of gateway of certain common name, if it exists
+     */
+    public Option<GatewayCredentialsEntity> getGatewayCredentialsByCommonName(String commonName) {
+        var cached = entities.getIfPresent(commonName);
+        if (cached != null && cached.isEmpty()) {
+            return Option.none();
+        }
+        return credentials
+                .map(cache -> cache.get(commonName, gatewayCredentialsRepository::getGatewayCredentialsEntityByCommonName))
+                .getOrElse(() -> gatewayCredentialsRepository.getGatewayCredentialsEntityByCommonName(commonName));
+    }
+
+    public GatewayEntity save(GatewayEntity entity, GatewayCredentialsEntity credentials) {
+        try {
+            return gatewayRepository.persist(entity, credentials);
+        } finally {
+            invalidate(entity.getCommonName());
+        }
+    }
+
+    public void delete(GatewayEntity entity) {
+        try {
+            gatewayRepository.delete(entity);
+        } finally {
+            invalidate(entity.getCommonName());
+        }
+    }
+
+    public void invalidate(String commonName) {
+        entities.invalidate(commonName);
+        credentials.forEach(cache -> cache.invalidate(commonName));
+    }
+
+    public void invalidateAll(Traversable<String> commonNames) {
+        entities.invalidateAll(commonNames);
+        credentials.forEach(cache -> cache.invalidateAll(commonNames));
+    }
+
+    public void invalidateAll() {
+        log.info("Invalidating all cached gateway entities");
+        entities.invalidateAll();
+        credentials.forEach(Cache::invalidateAll);
+    }
+}
@@ -0,0 +1,87 @@
+/* Copyright 2021 Mateusz Kubica */
+package com.mkubica.managementservice.service;
+
+import com.mkubica.managementservice.domain.dto.GatewayModel;
+import com.mkubica.managementservice.repository.GatewayRepository;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.util.stream.Stream;
+
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import com.fasterxml.jackson.databind.SerializationFeature;
+
+import io.vavr.control.Try;
+import lombok.extern.slf4j.Slf4j;
+
+
+/**
+ * Exports the whole gateway inventory as newline-delimited JSON (one gateway per line). Gateways are streamed
+ * out of repository with database cursor and serialized one by one straight to the output stream, so memory
+ * usage doesn't depend on number of gateways. Output is flushed every couple of gateways, thus client
+ * is able to process export while it is still being produced. Output stream is flushed only then, so export
+ * which fails before first flush leaves nothing but buffered output behind.
+ */
+@Slf4j
+public class GatewayExportService {
+
+    private static final int FLUSH_EVERY = 100;
+
+    private final GatewayRepository gatewayRepository;
+    private final TransactionTemplate transactionTemplate;
+    private final ObjectWriter objectWriter;
+
+    public GatewayExportService(
+            GatewayRepository gatewayRepository,
+            PlatformTransactionManager transactionManager,
+            ObjectMapper objectMapper
+    ) {
+        this.gatewayRepository = gatewayRepository;
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
+        this.transactionTemplate.setReadOnly(true);
+        // NOTE: flushing is done explicitly, every gateway being flushed separately would end up as separate chunk
+        this.objectWriter = objectMapper.writer().without(SerializationFeature.FLUSH_AFTER_WRITE_VALUE);
+    }
+
+    /**
+     * @param withKeys - whether certificates and private keys are exported, only common names and ip addresses
+     *                 are exported otherwise
+     * @param outputStream - stream which gateways are written to, it is not closed
+     * @return number of exported gateways or exception, wrapped with {@link Try}
+     */
+    public Try<Long> exportGateways(boolean withKeys, OutputStream outputStream) {
+        // NOTE: repository stream has to be consumed within transaction, which spans the whole export
+        return Try.of(() -> transactionTemplate.execute(status -> withKeys
+                ? write(gatewayRepository.streamAllWithCredentials().map(GatewayModel::from), outputStream)
+                : write(gatewayRepository.streamAllSummaries(), outputStream)))
+                .onSuccess(count -> log.debug("Exported {} gateways", count));
+    }
+
+    private Long write(Stream<?> gateways, OutputStream outputStream) {
+        try (gateways; var generator = objectWriter.createGenerator(outputStream)) {
+            generator.disable(JsonGenerator.Feature.AUTO_CLOSE_TARGET);
+            // NOTE: generator doesn't flush output stream on its own, not even when it's closed after failure
+            generator.disable(JsonGenerator.Feature.FLUSH_PASSED_TO_STREAM);
+            // NOTE: lines are terminated explicitly, so no separator is put between root values
+            generator.setRootValueSeparator(null);
+            long count = 0;
+            for (var iterator = gateways.iterator(); iterator.hasNext(); ) {
+                objectWriter.writeValue(generator, iterator.next());
+                generator.writeRaw('\n');
+                if (++count % FLUSH_EVERY == 0) {
+                    generator.flush();
+                    outputStream.flush();
+                }
+            }
+            return count;
+        } catch (IOException exc) {
+            throw new UncheckedIOException(exc);
+        }
+    }
+}
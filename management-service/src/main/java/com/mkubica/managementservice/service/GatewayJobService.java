@@ -0,0 +1,178 @@
+/* Copyright 2021 Mateusz Kubica */
+package com.mkubica.managementservice.service;
+
+import static java.lang.String.format;
+
+import com.mkubica.managementservice.domain.dto.GatewayJobModel;
+import com.mkubica.managementservice.domain.dto.GatewayModel;
+import com.mkubica.managementservice.exception.GatewayJobNotFoundException;
+import com.mkubica.managementservice.exception.GatewayJobQueueFullException;
+
+import java.time.Duration;
+import java.util.UUID;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.Expiry;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.jvm.ExecutorServiceMetrics;
+import io.vavr.control.Option;
+import io.vavr.control.Try;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+
+
+/**
+ * Provisions gateways in background, so creating gateway doesn't hold http connection through the whole
+ * {@link GatewayService#createGateway(GatewayModel)} pipeline. Jobs are run by fixed pool of workers
+ * and wait for them in bounded queue, job submitted when the queue is full is rejected immediately
+ * with {@link GatewayJobQueueFullException}. Finished jobs are kept for retention period counted from the moment
+ * they finish (at most maximum size of them, pending and running jobs are never evicted), so their result
+ * can be polled, also with long-poll which completes as soon as the job finishes. Private key of provisioned
+ * gateway is handed out with the first read of finished job only, it's not retained afterwards.
+ *
+ * Workers are monitored under name of the pool: time jobs spend in queue ('executor.idle'), time of executing
+ * them ('executor'), queue depth ('executor.queued') and number of busy workers ('executor.active').
+ */
+@Slf4j
+public class GatewayJobService {
+
+    public static final String NAME = "gateway-jobs";
+
+    private final GatewayService gatewayService;
+    private final ExecutorService workers;
+    private final Cache<String, GatewayJob> jobs;
+    private final Duration maxWait;
+    private final Counter rejectedCounter;
+
+    public GatewayJobService(
+            GatewayService gatewayService,
+            int workers,
+            int queueCapacity,
+            long maximumSize,
+            Duration retention,
+            Duration maxWait,
+            MeterRegistry meterRegistry
+    ) {
+        this.gatewayService = gatewayService;
+        this.workers = ExecutorServiceMetrics.monitor(meterRegistry, new ThreadPoolExecutor(
+                workers, workers, 0, TimeUnit.MILLISECONDS, new ArrayBlockingQueue<>(queueCapacity),
+                new ThreadFactoryBuilder().setNameFormat(NAME + "-%d").setDaemon(true).build()), NAME);
+        // NOTE: job is put once submitted and once again when it finishes, so only finished jobs weigh anything
+        // and expire, unfinished ones are bounded by capacity of the queue and number of workers anyway
+        this.jobs = Caffeine.newBuilder()
+                .maximumWeight(maximumSize)
+                .weigher((String id, GatewayJob job) -> job.isDone() ? 1 : 0)
+                .expireAfter(new Expiry<String, GatewayJob>() {
+                    @Override
+                    public long expireAfterCreate(String id, GatewayJob job, long currentTime) {
+                        return job.isDone() ? retention.toNanos() : Long.MAX_VALUE;
+                    }
+
+                    @Override
+                    public long expireAfterUpdate(String id, GatewayJob job, long currentTime, long currentDuration) {
+                        return expireAfterCreate(id, job, currentTime);
+                    }
+
+                    @Override
+                    public long expireAfterRead(String id, GatewayJob job, long currentTime, long currentDuration) {
+                        return currentDuration;
+                    }
+                })
+                .build();
+        this.maxWait = maxWait;
+
+        Gauge.builder("gateway.jobs.retained", jobs, Cache::estimatedSize)
+                .description("Number of jobs which are pending, running or retained after they have finished")
+                .tag("name", NAME)
+                .register(meterRegistry);
+        this.rejectedCounter = Counter.builder("gateway.jobs.rejected")
+                .description("Number of jobs rejected, because queue of jobs was full")
+                .tag("name", NAME)
+                .register(meterRegistry);
+    }
+
+    public Try<GatewayJobModel> submit(GatewayModel model) {
+        var job = new GatewayJob(UUID.randomUUID().toString(), model.getCommonName());
+        jobs.put(job.id, job);
+        try {
+            workers.execute(() -> {
+                job.run(gatewayService::createGateway, model);
+                jobs.put(job.id, job);
+            });
+            return Try.success(job.toModel());
+        } catch (RejectedExecutionException exc) {
+            jobs.invalidate(job.id);
+            rejectedCounter.increment();
+            log.warn("Rejecting job of common-name:{}, queue of jobs is full", model.getCommonName());
+            return Try.failure(new GatewayJobQueueFullException());
+        }
+    }
+
+    /**
+     * @param id - id of submitted job
+     * @param wait - how long to wait for the job to finish, bounded by max wait; zero to get its current state
+     * @return future state of the job, completed once it finishes or the wait elapses
+     */
+    public Try<CompletableFuture<GatewayJobModel>> await(String id, Duration wait) {
+        return Option.of(jobs.getIfPresent(id))
+                .toTry(() -> new GatewayJobNotFoundException(format("Job with id '%s' doesn't exist", id)))
+                .map(job -> wait.isZero() || wait.isNegative() || job.isDone()
+                        ? CompletableFuture.completedFuture(job.toModel())
+                        : job.done.copy()
+                                .orTimeout(Math.min(wait.toMillis(), maxWait.toMillis()), TimeUnit.MILLISECONDS)
+                                .handle((res, exc) -> job.toModel()));
+    }
+
+    public void shutdown() {
+        workers.shutdown();
+    }
+
+    @RequiredArgsConstructor
+    private static final class GatewayJob {
+
+        private final String id;
+        private final String commonName;
+        // NOTE: completed once result is set, failure of provisioning is carried by Try
+        private final CompletableFuture<Void> done = new CompletableFuture<>();
+        private volatile Try<GatewayModel> result;
+        private volatile boolean started;
+
+        void run(Function<GatewayModel, Try<GatewayModel>> provisioning, GatewayModel model) {
+            started = true;
+            result = Try.of(() -> provisioning.apply(model))
+                    .flatMap(Function.identity())
+                    .onFailure(exc -> log.error("Error when provisioning gateway of common-name:{} in job {}", commonName, id, exc));
+            done.complete(null);
+        }
+
+        boolean isDone() {
+            return done.isDone();
+        }
+
+        // NOTE: private key is dropped from retained result once it has been read
+        synchronized GatewayJobModel toModel() {
+            if (!isDone()) {
+                return GatewayJobModel.builder()
+                        .withId(id)
+                        .withCommonName(commonName)
+                        .withStatus(started ? GatewayJobModel.Status.RUNNING : GatewayJobModel.Status.PENDING)
+                        .build();
+            }
+            var model = GatewayJobModel.from(id, commonName, result);
+            result = result.map(gateway -> gateway.toBuilder().withPrivateKey(null).build());
+            return model;
+        }
+    }
+}
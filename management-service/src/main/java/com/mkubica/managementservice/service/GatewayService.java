@@ -5,37 +5,60 @@ import static java.lang.String.format;
 
 import com.google.common.base.Strings;
 import com.google.common.net.InetAddresses;
+import com.mkubica.managementservice.domain.dao.GatewayCredentialsEntity;
 import com.mkubica.managementservice.domain.dao.GatewayEntity;
+import com.mkubica.managementservice.domain.dto.CertificateBundleModel;
 import com.mkubica.managementservice.domain.dto.GatewayConfigModel;
 import com.mkubica.managementservice.domain.dto.GatewayModel;
+import com.mkubica.managementservice.domain.dto.RenderedGatewayConfig;
 import com.mkubica.managementservice.exception.CommonNameBlankException;
 import com.mkubica.managementservice.exception.CommonNameNotUniqueException;
 import com.mkubica.managementservice.exception.IpAddressStringInvalidException;
-import com.mkubica.managementservice.repository.GatewayRepository;
-import com.mkubica.managementservice.service.cert.ClientCertificateRequester;
+import com.mkubica.managementservice.service.cert.AsyncClientCertificateRequester;
 import com.mkubica.managementservice.service.ip.IpAssigner;
 
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+
 import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
 
+import io.vavr.control.Option;
 import io.vavr.control.Try;
 
 
+@Slf4j
 @RequiredArgsConstructor
 public class GatewayService {
 
     private final GatewayConfigProducer gatewayConfigProducer;
-    private final GatewayRepository gatewayRepository;
-    private final ClientCertificateRequester clientCertificateRequester;
+    private final GatewayEntityCache gatewayEntityCache;
+    private final AsyncClientCertificateRequester clientCertificateRequester;
     private final IpAssigner ipAssigner;
+    private final GatewayConfigCache gatewayConfigCache;
 
     public Try<GatewayConfigModel> getGatewayConfig(GatewayModel model) {
-        return gatewayRepository.getGatewayEntityByCommonName(model.getCommonName())
+        return gatewayEntityCache.getGatewayCredentialsByCommonName(model.getCommonName())
                 .toTry().flatMap(gatewayConfigProducer::produceFrom);
     }
 
+    // NOTE: etag is known only if config has been rendered recently, nothing is loaded to obtain it
+    public Option<String> getGatewayConfigEtag(GatewayModel model) {
+        return gatewayConfigCache.getEtag(model.getCommonName());
+    }
+
+    // NOTE: rendered config is served out of cache, so neither repository nor template and certificates are read on hit
+    public Try<RenderedGatewayConfig> getRenderedGatewayConfig(GatewayModel model) {
+        return gatewayConfigCache.get(model.getCommonName(), commonName -> gatewayEntityCache
+                .getGatewayCredentialsByCommonName(commonName)
+                .toTry()
+                .flatMap(gatewayConfigProducer::renderFrom));
+    }
+
     public Try<GatewayModel> getGateway(GatewayModel model) {
-        return gatewayRepository.getGatewayEntityByCommonName(model.getCommonName())
-                .map(GatewayModel::from)
+        return gatewayEntityCache.getGatewayEntityByCommonName(model.getCommonName())
+                .flatMap(entity -> gatewayEntityCache.getGatewayCredentialsByCommonName(entity.getCommonName())
+                        .map(credentials -> GatewayModel.from(entity, credentials)))
                 .toTry();
     }
 
@@ -44,37 +67,83 @@ public class GatewayService {
                     .withCommonName(validateCommonName(initialModel).get().getCommonName())
                     .withIpAddress(validateIpAddressString(initialModel).get().getIpAddress())
                     .build())
-                .flatMap(model -> ipAssigner
-                        .assignIp(model.getCommonName(), model.getIpAddress())
-                        .map(assignedIp -> model.toBuilder().withIpAddress(assignedIp).build()))
-                .flatMap(model -> clientCertificateRequester
-                        .requestBundle(model.getCommonName())
-                        .map(bundle -> GatewayModel.builder()
-                                .withCommonName(model.getCommonName())
-                                .withIpAddress(model.getIpAddress())
-                                .withCertificate(bundle.getCertificate())
-                                .withPrivateKey(bundle.getPrivateKey())
-                                .build()))
-                .map(GatewayEntity::from)
-                .map(gatewayRepository::save)
-                .map(GatewayModel::from);
+                .flatMap(this::provision)
+                .flatMap(model -> Try
+                        .of(() -> gatewayEntityCache.save(GatewayEntity.from(model), GatewayCredentialsEntity.from(model)))
+                        .map(entity -> model)
+                        .onFailure(exc -> log.error("Error when persisting gateway of common-name:{}", model.getCommonName(), exc))
+                        .onFailure(exc -> rollback(model)));
     }
 
+    // NOTE: certificate is revoked before ip is freed, so when certificate authority fails to revoke it
+    // gateway is left intact, instead of keeping valid certificate and row whose ip is back in the pool
     public Try<GatewayModel> deleteGateway(GatewayModel initialModel) {
         return Try.success(initialModel)
-                .flatMap(model -> gatewayRepository.getGatewayEntityByCommonName(model.getCommonName()).toTry())
-                .map(GatewayModel::from)
+                .flatMap(model -> gatewayEntityCache.getGatewayEntityByCommonName(model.getCommonName()).toTry())
+                .map(entity -> gatewayEntityCache.getGatewayCredentialsByCommonName(entity.getCommonName())
+                        .map(credentials -> GatewayModel.from(entity, credentials))
+                        .getOrElse(() -> GatewayModel.from(entity)))
+                .flatMap(model -> clientCertificateRequester
+                        .revokeBundle(model.getCommonName(), model.getCertificate())
+                        .map(x -> model))
                 .flatMap(model -> ipAssigner
                         .revokeIp(model.getCommonName())
                         .map(revokedIp -> model.toBuilder().withIpAddress(revokedIp).build()))
-                .flatMap(model -> clientCertificateRequester.revokeBundle(model.getCommonName()).map(x -> model))
-                .map(GatewayEntity::from)
-                .andThen(gatewayRepository::delete)
-                .map(GatewayModel::from);
+                .andThen(model -> gatewayEntityCache.delete(GatewayEntity.from(model)))
+                .andThen(model -> gatewayConfigCache.invalidate(model.getCommonName()));
+    }
+
+    // NOTE: ip is checked and reserved before certificate is requested, so ip which can't be assigned never costs
+    // certificate which would stay on revocation list until it expires; only making client config durable overlaps
+    // with round-trip to certificate authority, when either of them fails, the other one is compensated
+    private Try<GatewayModel> provision(GatewayModel model) {
+        return ipAssigner.assignIpAsync(model.getCommonName(), model.getIpAddress())
+                .flatMap(futureIp -> {
+                    var futureBundle = clientCertificateRequester.requestBundleAsync(model.getCommonName());
+                    var assignedIp = join(futureIp);
+                    var bundle = join(futureBundle);
+
+                    if (assignedIp.isFailure()) {
+                        bundle.forEach(b -> revokeBundle(model.getCommonName(), b.getCertificate()));
+                    }
+                    if (bundle.isFailure()) {
+                        assignedIp.forEach(ip -> releaseIp(model.getCommonName(), ip));
+                    }
+                    return assignedIp.flatMap(ip -> bundle.map(b -> withIpAndBundle(model, ip, b)));
+                });
+    }
+
+    private void rollback(GatewayModel model) {
+        releaseIp(model.getCommonName(), model.getIpAddress());
+        revokeBundle(model.getCommonName(), model.getCertificate());
+    }
+
+    private void releaseIp(String commonName, String ipAddress) {
+        ipAssigner.releaseIp(commonName, ipAddress)
+                .onFailure(exc -> log.error("Error when releasing ip of common-name:{}", commonName, exc));
+    }
+
+    private void revokeBundle(String commonName, String certificate) {
+        clientCertificateRequester.revokeBundle(commonName, certificate)
+                .onFailure(exc -> log.error("Error when revoking bundle of common-name:{}", commonName, exc));
+    }
+
+    private static <T> Try<T> join(CompletableFuture<T> future) {
+        return Try.of(future::join)
+                .recoverWith(CompletionException.class, exc -> Try.failure(exc.getCause()));
+    }
+
+    private static GatewayModel withIpAndBundle(GatewayModel model, String ipAddress, CertificateBundleModel bundle) {
+        return GatewayModel.builder()
+                .withCommonName(model.getCommonName())
+                .withIpAddress(ipAddress)
+                .withCertificate(bundle.getCertificate())
+                .withPrivateKey(bundle.getPrivateKey())
+                .build();
     }
 
     private Try<GatewayModel> validateCommonName(GatewayModel model) {
-        return gatewayRepository.getGatewayEntityByCommonName(model.getCommonName()).isEmpty()
+        return gatewayEntityCache.getGatewayEntityByCommonName(model.getCommonName()).isEmpty()
                 ? !Strings.isNullOrEmpty(model.getCommonName()) && !model.getCommonName().isBlank()
                     ? Try.success(model)
                     : Try.failure(new CommonNameBlankException())
@@ -0,0 +1,107 @@
+/* Copyright 2021 Mateusz Kubica */
+package com.mkubica.managementservice.service;
+
+import static java.lang.String.format;
+
+import com.mkubica.managementservice.exception.IdempotencyKeyInProgressException;
+import com.mkubica.managementservice.exception.IdempotencyKeyReusedException;
+
+import java.time.Duration;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+import io.vavr.control.Try;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+
+
+/**
+ * Size and time bounded store of executions keyed by idempotency key, so request retried by client is not executed
+ * again. The first request with certain key executes the operation, duplicates which arrive meanwhile wait for it
+ * (up to max wait, then they fail with {@link IdempotencyKeyInProgressException}) and all of them get the same result.
+ * Successful results are retained, failed ones are only shared with duplicates in flight and then dropped,
+ * so failure (e.g. busy certificate authority) may be retried with the same key. Key reused with different
+ * request fails with {@link IdempotencyKeyReusedException}.
+ *
+ * Hit (duplicate) and miss (first request) statistics are published to meter registry under name of the store.
+ */
+@Slf4j
+public class IdempotencyStore<T> {
+
+    public static final String CACHE_NAME = "idempotency-keys";
+
+    private final Cache<String, Execution<T>> executions;
+    private final Duration maxWait;
+
+    public IdempotencyStore(
+            long maximumSize,
+            Duration retention,
+            Duration maxWait,
+            MeterRegistry meterRegistry
+    ) {
+        this.executions = Caffeine.newBuilder()
+                .maximumSize(maximumSize)
+                .expireAfterWrite(retention)
+                .recordStats()
+                .build();
+        this.maxWait = maxWait;
+        CaffeineCacheMetrics.monitor(meterRegistry, executions, CACHE_NAME);
+    }
+
+    /**
+     * @param key - idempotency key provided by client
+     * @param request - request the key has been provided with, duplicate has to be equal to it
+     * @param operation - operation which is executed only by the first request with certain key
+     * @return result of the first request with certain key or exception, wrapped with {@link Try}
+     */
+    public Try<T> execute(String key, Object request, Supplier<Try<T>> operation) {
+        var execution = new Execution<T>(request);
+        var first = executions.get(key, k -> execution);
+        return first == execution
+                ? execute(key, execution, operation)
+                : awaitDuplicate(key, first, request);
+    }
+
+    public void invalidateAll() {
+        executions.invalidateAll();
+    }
+
+    private Try<T> execute(String key, Execution<T> execution, Supplier<Try<T>> operation) {
+        var result = Try.of(operation::get).flatMap(Function.identity());
+        execution.result.complete(result);
+        if (result.isFailure()) {
+            executions.asMap().remove(key, execution);
+        }
+        return result;
+    }
+
+    private Try<T> awaitDuplicate(String key, Execution<T> first, Object request) {
+        if (!first.request.equals(request)) {
+            return Try.failure(new IdempotencyKeyReusedException(
+                    format("Idempotency key '%s' has been used with different request", key)));
+        }
+        log.debug("Replaying result of request with idempotency key '{}'", key);
+        return Try.of(() -> first.result.get(maxWait.toMillis(), TimeUnit.MILLISECONDS))
+                .recoverWith(TimeoutException.class, exc -> Try.failure(new IdempotencyKeyInProgressException(
+                        format("Request with idempotency key '%s' is still in progress", key))))
+                .recoverWith(ExecutionException.class, exc -> Try.failure(exc.getCause()))
+                .flatMap(Function.identity());
+    }
+
+    // NOTE: result is always completed normally, failure of the operation is carried by Try
+    @RequiredArgsConstructor
+    private static final class Execution<T> {
+
+        private final Object request;
+        private final CompletableFuture<Try<T>> result = new CompletableFuture<>();
+    }
+}
@@ -0,0 +1,20 @@
+/* Copyright 2021 Mateusz Kubica */
+package com.mkubica.managementservice.service.cert;
+
+import com.mkubica.managementservice.domain.dto.CertificateBundleModel;
+
+import java.util.concurrent.CompletableFuture;
+
+
+/**
+ * {@link ClientCertificateRequester} which is able to request bundle without holding calling thread
+ * until certificate authority responds, so many bundles can be requested at once with just a few threads.
+ */
+public interface AsyncClientCertificateRequester extends ClientCertificateRequester {
+
+    /**
+     * @param commonName - common name of gateway
+     * @return future completed with bundle, or completed exceptionally with cause of failure
+     */
+    CompletableFuture<CertificateBundleModel> requestBundleAsync(String commonName);
+}
@@ -0,0 +1,54 @@
+/* Copyright 2021 Mateusz Kubica */
+package com.mkubica.managementservice.service.cert;
+
+import com.mkubica.managementservice.util.Pem;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.PrivateKey;
+
+import io.vavr.control.Try;
+import lombok.Value;
+import org.bouncycastle.asn1.pkcs.PrivateKeyInfo;
+import org.bouncycastle.cert.X509CertificateHolder;
+import org.bouncycastle.openssl.PEMKeyPair;
+import org.bouncycastle.openssl.jcajce.JcaPEMKeyConverter;
+import org.bouncycastle.operator.ContentSigner;
+import org.bouncycastle.operator.OperatorCreationException;
+import org.bouncycastle.operator.jcajce.JcaContentSignerBuilder;
+
+
+/**
+ * CA certificate together with its key, read from the files cfssl serves with,
+ * so certificates and revocation lists may be signed in-process.
+ */
+@Value
+public class CertificateAuthority {
+
+    X509CertificateHolder certificate;
+    PrivateKey key;
+
+    public static Try<CertificateAuthority> load(String certificatePath, String keyPath) {
+        return Try.of(() -> new CertificateAuthority(
+                (X509CertificateHolder) Pem.decode(Files.readString(Path.of(certificatePath))),
+                privateKeyOf(Pem.decode(Files.readString(Path.of(keyPath))))));
+    }
+
+    // NOTE: content signer is not thread safe, new one has to be obtained for every signature
+    public ContentSigner signer() throws OperatorCreationException {
+        return new JcaContentSignerBuilder(signatureAlgorithmOf(key)).build(key);
+    }
+
+    static String signatureAlgorithmOf(PrivateKey key) {
+        return "EC".equals(key.getAlgorithm()) ? "SHA256withECDSA" : "SHA256withRSA";
+    }
+
+    // NOTE: cfssl writes PKCS#1 or SEC1 keys (key pair), PKCS#8 keys are accepted as well
+    private static PrivateKey privateKeyOf(Object pem) throws IOException {
+        var converter = new JcaPEMKeyConverter();
+        return pem instanceof PEMKeyPair
+                ? converter.getKeyPair((PEMKeyPair) pem).getPrivate()
+                : converter.getPrivateKey((PrivateKeyInfo) pem);
+    }
+}
@@ -0,0 +1,125 @@
+/* Copyright 2021 Mateusz Kubica */
+package com.mkubica.managementservice.service.cert;
+
+import com.mkubica.managementservice.util.Pem;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import io.vavr.control.Try;
+import lombok.extern.slf4j.Slf4j;
+import org.bouncycastle.cert.X509CertificateHolder;
+
+
+/**
+ * Revokes certificates with {@link CertificateRevoker} and publishes revocation list to shared volume, where
+ * it's read by OpenVPN server on every connection. Publication is coalesced: revoking certificate only marks
+ * revocation list as stale, stale list is regenerated and published at most once every publish interval,
+ * so mass deletion of gateways produces a few publications instead of one per gateway. Revocation list
+ * is published at startup as well, and republished every half of its validity, so it never expires.
+ *
+ * New list is written next to the published one and moved over it atomically, so OpenVPN never reads
+ * partially written list. Failed publication is retried after publish interval.
+ */
+@Slf4j
+public class CertificateRevocation {
+
+    public static final String NAME = "certificate-revocation";
+
+    private final CertificateRevoker revoker;
+    private final Path crlPath;
+    private final Path stagingPath;
+    private final Duration refreshInterval;
+    private final AtomicBoolean stale = new AtomicBoolean(true);
+    private final ScheduledExecutorService publisher;
+    private final Counter revokedCounter;
+    private final Counter failedPublicationCounter;
+    private final Timer publicationTimer;
+    private volatile Instant publishedAt = Instant.MIN;
+
+    public CertificateRevocation(
+            CertificateRevoker revoker,
+            String crlPath,
+            Duration publishInterval,
+            Duration crlValidity,
+            MeterRegistry meterRegistry
+    ) {
+        this.revoker = revoker;
+        this.crlPath = Path.of(crlPath);
+        this.stagingPath = Path.of(crlPath + ".tmp");
+        this.refreshInterval = crlValidity.dividedBy(2);
+
+        this.revokedCounter = Counter.builder("certificate.revocation.revoked")
+                .description("Number of revoked certificates")
+                .tag("revocation", NAME)
+                .register(meterRegistry);
+        this.failedPublicationCounter = Counter.builder("certificate.revocation.publication.failed")
+                .description("Number of failed publications of revocation list")
+                .tag("revocation", NAME)
+                .register(meterRegistry);
+        this.publicationTimer = Timer.builder("certificate.revocation.publication")
+                .description("Time of generating and publishing revocation list, count of the timer is number of publications")
+                .tag("revocation", NAME)
+                .register(meterRegistry);
+
+        this.publisher = Executors.newSingleThreadScheduledExecutor(
+                new ThreadFactoryBuilder().setNameFormat(NAME + "-%d").setDaemon(true).build());
+        publisher.scheduleWithFixedDelay(this::publishIfStale, 0, publishInterval.toMillis(), TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * @param certificate - certificate in PEM, gateway without certificate has nothing to revoke
+     */
+    public Try<Void> revoke(String commonName, String certificate) {
+        if (certificate == null) {
+            log.warn("No certificate of common-name:{} to revoke", commonName);
+            return Try.success(null);
+        }
+        return Try.of(() -> (X509CertificateHolder) Pem.decode(certificate))
+                .flatMap(holder -> revoker.revoke(commonName, holder))
+                .andThen(() -> {
+                    revokedCounter.increment();
+                    stale.set(true);
+                });
+    }
+
+    public void shutdown() {
+        publisher.shutdownNow();
+    }
+
+    // NOTE: list is marked up to date before it's generated, so certificates revoked during generation,
+    // which may be missing from generated list, mark it stale again
+    void publishIfStale() {
+        if (!stale.getAndSet(false) && Instant.now().isBefore(publishedAt.plus(refreshInterval))) {
+            return;
+        }
+        var sample = Timer.start();
+        revoker.generateCrl()
+                .andThenTry(crl -> Files.write(stagingPath, crl.getBytes(StandardCharsets.US_ASCII)))
+                .andThenTry(() -> Files.move(stagingPath, crlPath,
+                        StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING))
+                .onSuccess(crl -> {
+                    publishedAt = Instant.now();
+                    sample.stop(publicationTimer);
+                    log.debug("Published revocation list to {}", crlPath);
+                })
+                .onFailure(exc -> {
+                    stale.set(true);
+                    failedPublicationCounter.increment();
+                    log.error("Error when publishing revocation list to {}", crlPath, exc);
+                });
+    }
+}
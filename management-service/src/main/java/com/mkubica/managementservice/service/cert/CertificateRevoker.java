@@ -0,0 +1,20 @@
+/* Copyright 2021 Mateusz Kubica */
+package com.mkubica.managementservice.service.cert;
+
+import io.vavr.control.Try;
+import org.bouncycastle.cert.X509CertificateHolder;
+
+
+/**
+ * Records revoked certificates and generates revocation list out of them. Revocation list is generated
+ * only when it's published (see {@link CertificateRevocation}), not for every revoked certificate.
+ */
+public interface CertificateRevoker {
+
+    Try<Void> revoke(String commonName, X509CertificateHolder certificate);
+
+    /**
+     * @return revocation list of all revoked certificates which haven't expired yet, in PEM
+     */
+    Try<String> generateCrl();
+}
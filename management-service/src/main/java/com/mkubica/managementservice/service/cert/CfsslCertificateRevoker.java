@@ -0,0 +1,61 @@
+/* Copyright 2021 Mateusz Kubica */
+package com.mkubica.managementservice.service.cert;
+
+import com.mkubica.managementservice.util.HttpUtil;
+import com.mkubica.managementservice.util.Pem;
+
+import java.time.Duration;
+import java.util.Base64;
+
+import lombok.AllArgsConstructor;
+
+import io.vavr.control.Option;
+import io.vavr.control.Try;
+import org.bouncycastle.asn1.x509.AuthorityKeyIdentifier;
+import org.bouncycastle.cert.X509CertificateHolder;
+import org.bouncycastle.util.encoders.Hex;
+import org.json.JSONObject;
+
+
+/**
+ * Revokes certificates in certificate store of cfssl, revocation list is generated and signed by cfssl
+ * out of the store, so only certificates issued by cfssl may be revoked. Certificates are identified
+ * the way cfssl stores them, with decimal serial number and hex encoded authority key identifier.
+ */
+@AllArgsConstructor
+public class CfsslCertificateRevoker implements CertificateRevoker {
+
+    private static final String REASON = "cessationOfOperation";
+
+    private final String revokeEndpoint;
+    private final String crlEndpoint;
+    private final Duration crlValidity;
+    private final HttpUtil httpUtil;
+
+    @Override
+    public Try<Void> revoke(String commonName, X509CertificateHolder certificate) {
+        return authorityKeyIdOf(certificate)
+                .map(authorityKeyId -> new JSONObject()
+                        .put("serial", certificate.getSerialNumber().toString())
+                        .put("authority_key_id", authorityKeyId)
+                        .put("reason", REASON)
+                        .toString())
+                .flatMap(body -> httpUtil.post(revokeEndpoint, body))
+                .map(response -> null);
+    }
+
+    @Override
+    public Try<String> generateCrl() {
+        return httpUtil.get(crlEndpoint + "?expiry=" + crlValidity.toHours() + "h")
+                .map(response -> new JSONObject(response).getString("result"))
+                .map(result -> Pem.restore(Base64.getDecoder().decode(result), "X509 CRL"));
+    }
+
+    private static Try<String> authorityKeyIdOf(X509CertificateHolder certificate) {
+        return Option.of(AuthorityKeyIdentifier.fromExtensions(certificate.getExtensions()))
+                .map(AuthorityKeyIdentifier::getKeyIdentifier)
+                .map(Hex::toHexString)
+                .toTry(() -> new IllegalArgumentException(
+                        "Certificate " + certificate.getSerialNumber() + " has no authority key identifier"));
+    }
+}
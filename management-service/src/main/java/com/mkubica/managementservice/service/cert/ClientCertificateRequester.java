@@ -9,5 +9,5 @@ import io.vavr.control.Try;
 public interface ClientCertificateRequester {
 
     Try<CertificateBundleModel> requestBundle(String commonName);
-    Try<Void> revokeBundle(String commonName);
+    Try<Void> revokeBundle(String commonName, String certificate);
 }
@@ -0,0 +1,81 @@
+/* Copyright 2021 Mateusz Kubica */
+package com.mkubica.managementservice.service.cert;
+
+import com.mkubica.managementservice.domain.dto.CertificateBundleModel;
+import com.mkubica.managementservice.util.AsyncHttpUtil;
+import com.mkubica.managementservice.util.HttpUtil;
+import com.mkubica.managementservice.util.Pem;
+
+import java.security.KeyPair;
+import java.util.concurrent.CompletableFuture;
+
+import lombok.AllArgsConstructor;
+
+import io.vavr.Tuple;
+import io.vavr.Tuple2;
+import io.vavr.control.Try;
+import org.bouncycastle.asn1.x500.X500NameBuilder;
+import org.bouncycastle.asn1.x500.style.BCStyle;
+import org.bouncycastle.operator.jcajce.JcaContentSignerBuilder;
+import org.bouncycastle.pkcs.jcajce.JcaPKCS10CertificationRequestBuilder;
+import org.json.JSONObject;
+
+
+/**
+ * Requests certificate for key pair taken out of {@link KeyPairPool}, instead of letting certificate authority
+ * generate private key (cfssl 'newcert'). Certificate signing request with requested common name is built
+ * and signed locally, then it's sent to 'sign' endpoint of certificate authority, so issuing certificate
+ * takes single signature and a round-trip. Private key never leaves the service, it's returned together
+ * with issued certificate.
+ */
+@AllArgsConstructor
+public class CsrClientCertificateRequester implements AsyncClientCertificateRequester {
+
+    private final String signEndpoint;
+    private final KeyPairPool keyPairPool;
+    private final HttpUtil httpUtil;
+    private final AsyncHttpUtil asyncHttpUtil;
+    private final CertificateRevocation certificateRevocation;
+
+    @Override
+    public Try<CertificateBundleModel> requestBundle(String commonName) {
+        return prepareRequest(commonName)
+                .flatMap(request -> httpUtil.post(signEndpoint, request._2)
+                        .map(response -> toBundle(response, request._1)));
+    }
+
+    @Override
+    public CompletableFuture<CertificateBundleModel> requestBundleAsync(String commonName) {
+        return prepareRequest(commonName)
+                .fold(CompletableFuture::<CertificateBundleModel>failedFuture, request -> asyncHttpUtil
+                        .postAsync(signEndpoint, request._2)
+                        .thenApply(response -> toBundle(response, request._1)));
+    }
+
+    @Override
+    public Try<Void> revokeBundle(String commonName, String certificate) {
+        return certificateRevocation.revoke(commonName, certificate);
+    }
+
+    // NOTE: private key in PEM and body of sign request
+    private Try<Tuple2<String, String>> prepareRequest(String commonName) {
+        return keyPairPool.take()
+                .mapTry(keyPair -> Tuple.of(
+                        Pem.encode(keyPair.getPrivate()),
+                        new JSONObject().put("certificate_request", csrOf(commonName, keyPair)).toString()));
+    }
+
+    private static String csrOf(String commonName, KeyPair keyPair) throws Exception {
+        var subject = new X500NameBuilder(BCStyle.INSTANCE).addRDN(BCStyle.CN, commonName).build();
+        var signer = new JcaContentSignerBuilder(CertificateAuthority.signatureAlgorithmOf(keyPair.getPrivate()))
+                .build(keyPair.getPrivate());
+        return Pem.encode(new JcaPKCS10CertificationRequestBuilder(subject, keyPair.getPublic()).build(signer));
+    }
+
+    private static CertificateBundleModel toBundle(String response, String privateKey) {
+        return CertificateBundleModel.builder()
+                .withCertificate((String) new JSONObject(response).getJSONObject("result").get("certificate"))
+                .withPrivateKey(privateKey)
+                .build();
+    }
+}
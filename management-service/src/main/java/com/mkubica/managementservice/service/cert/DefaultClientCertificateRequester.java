@@ -3,8 +3,11 @@ package com.mkubica.managementservice.service.cert;
 
 import com.mkubica.managementservice.domain.dto.CertificateBundleModel;
 import com.mkubica.managementservice.provider.TemplateProvider;
+import com.mkubica.managementservice.util.AsyncHttpUtil;
 import com.mkubica.managementservice.util.HttpUtil;
 
+import java.util.concurrent.CompletableFuture;
+
 import lombok.AllArgsConstructor;
 
 import io.vavr.control.Try;
@@ -12,27 +15,31 @@ import org.json.JSONObject;
 
 
 @AllArgsConstructor
-public class DefaultClientCertificateRequester implements ClientCertificateRequester {
+public class DefaultClientCertificateRequester implements AsyncClientCertificateRequester {
 
     private final String newCertEndpoint;
     private final TemplateProvider templateProvider;
     private final HttpUtil httpUtil;
+    private final AsyncHttpUtil asyncHttpUtil;
+    private final CertificateRevocation certificateRevocation;
 
     @Override
     public Try<CertificateBundleModel> requestBundle(String commonName) {
         return prepareBody(commonName)
                 .map(body -> httpUtil.post(newCertEndpoint, body).get())
-                .map(response -> CertificateBundleModel.builder()
-                        .withCertificate(extractCertificate(response))
-                        .withPrivateKey(extractPrivateKey(response))
-                        .build()
-                );
+                .map(DefaultClientCertificateRequester::toBundle);
     }
 
     @Override
-    // TODO: to implement....
-    public Try<Void> revokeBundle(String commonName) {
-        return Try.success(null);
+    public CompletableFuture<CertificateBundleModel> requestBundleAsync(String commonName) {
+        return prepareBody(commonName)
+                .fold(CompletableFuture::<String>failedFuture, body -> asyncHttpUtil.postAsync(newCertEndpoint, body))
+                .thenApply(DefaultClientCertificateRequester::toBundle);
+    }
+
+    @Override
+    public Try<Void> revokeBundle(String commonName, String certificate) {
+        return certificateRevocation.revoke(commonName, certificate);
     }
 
     private Try<String> prepareBody(String commonName) {
@@ -44,6 +51,13 @@ public class DefaultClientCertificateRequester implements ClientCertificateReque
                 .map(JSONObject::toString);
     }
 
+    private static CertificateBundleModel toBundle(String response) {
+        return CertificateBundleModel.builder()
+                .withCertificate(extractCertificate(response))
+                .withPrivateKey(extractPrivateKey(response))
+                .build();
+    }
+
     private static String extractCertificate(String response) {
         return (String) new JSONObject(response).getJSONObject("result").get("certificate");
     }
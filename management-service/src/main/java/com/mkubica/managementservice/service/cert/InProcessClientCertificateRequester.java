@@ -0,0 +1,136 @@
+/* Copyright 2021 Mateusz Kubica */
+package com.mkubica.managementservice.service.cert;
+
+import com.mkubica.managementservice.domain.dto.CertificateBundleModel;
+import com.mkubica.managementservice.util.Pem;
+
+import java.math.BigInteger;
+import java.security.KeyPair;
+import java.security.SecureRandom;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Date;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import io.micrometer.core.instrument.binder.jvm.ExecutorServiceMetrics;
+import io.vavr.control.Try;
+import lombok.extern.slf4j.Slf4j;
+import org.bouncycastle.asn1.x500.X500NameBuilder;
+import org.bouncycastle.asn1.x500.style.BCStyle;
+import org.bouncycastle.asn1.x509.BasicConstraints;
+import org.bouncycastle.asn1.x509.ExtendedKeyUsage;
+import org.bouncycastle.asn1.x509.Extension;
+import org.bouncycastle.asn1.x509.KeyPurposeId;
+import org.bouncycastle.asn1.x509.KeyUsage;
+import org.bouncycastle.cert.X509CertificateHolder;
+import org.bouncycastle.cert.jcajce.JcaX509ExtensionUtils;
+import org.bouncycastle.cert.jcajce.JcaX509v3CertificateBuilder;
+
+
+/**
+ * Issues client certificates in-process with {@link CertificateAuthority} read from shared volume, so issuing
+ * certificate takes no network round-trip at all. Certificates follow client profile of the certificate authority:
+ * CN only subject, client auth extended key usage, random serial number and validity backdated a few minutes
+ * to tolerate clock skew. Key pairs are taken out of {@link KeyPairPool}, so they are generated as requested
+ * in 'static/client-csr.json', ahead of time.
+ *
+ * Certificates are signed on dedicated pool of signer threads, blocking variant waits for the signer.
+ * Issued certificates are not recorded in certificate store of cfssl, so they are revoked in-process
+ * as well (see {@link LocalCertificateRevoker}).
+ */
+@Slf4j
+public class InProcessClientCertificateRequester implements AsyncClientCertificateRequester {
+
+    public static final String NAME = "certificate-signer";
+
+    private static final Duration BACKDATE = Duration.ofMinutes(5);
+    private static final int SERIAL_NUMBER_BITS = 159;
+
+    private final CertificateAuthority certificateAuthority;
+    private final KeyPairPool keyPairPool;
+    private final CertificateRevocation certificateRevocation;
+    private final Duration validity;
+    private final ExecutorService signer;
+    private final SecureRandom random = new SecureRandom();
+    private final Timer issuanceTimer;
+
+    public InProcessClientCertificateRequester(
+            CertificateAuthority certificateAuthority,
+            KeyPairPool keyPairPool,
+            CertificateRevocation certificateRevocation,
+            Duration validity,
+            int signerThreads,
+            MeterRegistry meterRegistry
+    ) {
+        this.certificateAuthority = certificateAuthority;
+        this.keyPairPool = keyPairPool;
+        this.certificateRevocation = certificateRevocation;
+        this.validity = validity;
+        this.signer = ExecutorServiceMetrics.monitor(meterRegistry, Executors.newFixedThreadPool(signerThreads,
+                new ThreadFactoryBuilder().setNameFormat(NAME + "-%d").setDaemon(true).build()), NAME);
+        this.issuanceTimer = Timer.builder("certificate.issuance")
+                .description("Time of issuing certificate, including waiting for signer")
+                .tag("requester", NAME)
+                .publishPercentileHistogram()
+                .register(meterRegistry);
+        log.info("Issuing certificates in-process on behalf of '{}'", certificateAuthority.getCertificate().getSubject());
+    }
+
+    @Override
+    public Try<CertificateBundleModel> requestBundle(String commonName) {
+        return Try.of(() -> requestBundleAsync(commonName).join())
+                .recoverWith(CompletionException.class, exc -> Try.failure(exc.getCause()));
+    }
+
+    @Override
+    public CompletableFuture<CertificateBundleModel> requestBundleAsync(String commonName) {
+        var sample = Timer.start();
+        return CompletableFuture
+                .supplyAsync(() -> issue(commonName).get(), signer)
+                .whenComplete((bundle, exc) -> sample.stop(issuanceTimer));
+    }
+
+    @Override
+    public Try<Void> revokeBundle(String commonName, String certificate) {
+        return certificateRevocation.revoke(commonName, certificate);
+    }
+
+    public void shutdown() {
+        signer.shutdown();
+    }
+
+    private Try<CertificateBundleModel> issue(String commonName) {
+        return keyPairPool.take()
+                .mapTry(keyPair -> CertificateBundleModel.builder()
+                        .withCertificate(Pem.encode(certificateOf(commonName, keyPair)))
+                        .withPrivateKey(Pem.encode(keyPair.getPrivate()))
+                        .build());
+    }
+
+    private X509CertificateHolder certificateOf(String commonName, KeyPair keyPair) throws Exception {
+        var now = Instant.now();
+        var extensions = new JcaX509ExtensionUtils();
+        return new JcaX509v3CertificateBuilder(
+                certificateAuthority.getCertificate().getSubject(),
+                new BigInteger(SERIAL_NUMBER_BITS, random),
+                Date.from(now.minus(BACKDATE)),
+                Date.from(now.plus(validity)),
+                new X500NameBuilder(BCStyle.INSTANCE).addRDN(BCStyle.CN, commonName).build(),
+                keyPair.getPublic())
+                .addExtension(Extension.basicConstraints, true, new BasicConstraints(false))
+                .addExtension(Extension.keyUsage, true, new KeyUsage(KeyUsage.digitalSignature | KeyUsage.keyEncipherment))
+                .addExtension(Extension.extendedKeyUsage, false, new ExtendedKeyUsage(KeyPurposeId.id_kp_clientAuth))
+                .addExtension(Extension.subjectKeyIdentifier, false,
+                        extensions.createSubjectKeyIdentifier(keyPair.getPublic()))
+                .addExtension(Extension.authorityKeyIdentifier, false,
+                        extensions.createAuthorityKeyIdentifier(certificateAuthority.getCertificate()))
+                .build(certificateAuthority.signer());
+    }
+}
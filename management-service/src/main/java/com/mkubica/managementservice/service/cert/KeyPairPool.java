@@ -0,0 +1,119 @@
+/* Copyright 2021 Mateusz Kubica */
+package com.mkubica.managementservice.service.cert;
+
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+import java.time.Duration;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import io.vavr.control.Option;
+import io.vavr.control.Try;
+import lombok.extern.slf4j.Slf4j;
+
+
+/**
+ * Pool of pre-generated key pairs, so generating key pair (which is the slowest step of issuing certificate,
+ * especially for RSA) is not performed while gateway is being created. Background generator refills the pool
+ * every refill interval, with at most refill batch size of key pairs, until it's full. When the pool is drained,
+ * key pair is generated by calling thread, so taking key pair never fails because of the pool being empty.
+ *
+ * Number of available key pairs, generated key pairs and misses of the pool are published to meter registry.
+ */
+@Slf4j
+public class KeyPairPool {
+
+    public static final String NAME = "key-pair-pool";
+
+    private final String algorithm;
+    private final int keySize;
+    private final int refillBatchSize;
+    private final BlockingQueue<KeyPair> keyPairs;
+    private final ScheduledExecutorService generator;
+    private final Timer generationTimer;
+    private final Counter missCounter;
+
+    public KeyPairPool(
+            String algorithm,
+            int keySize,
+            int size,
+            int refillBatchSize,
+            Duration refillInterval,
+            MeterRegistry meterRegistry
+    ) {
+        this.algorithm = algorithm;
+        this.keySize = keySize;
+        this.refillBatchSize = refillBatchSize;
+        this.keyPairs = new ArrayBlockingQueue<>(size);
+
+        Gauge.builder("key.pair.pool.available", keyPairs, BlockingQueue::size)
+                .description("Number of pre-generated key pairs available in the pool")
+                .tag("pool", NAME)
+                .register(meterRegistry);
+        Gauge.builder("key.pair.pool.capacity", keyPairs, queue -> size)
+                .description("Maximum number of pre-generated key pairs")
+                .tag("pool", NAME)
+                .register(meterRegistry);
+        this.missCounter = Counter.builder("key.pair.pool.misses")
+                .description("Number of key pairs generated on demand, because the pool was drained")
+                .tag("pool", NAME)
+                .register(meterRegistry);
+        this.generationTimer = Timer.builder("key.pair.pool.generation")
+                .description("Time of generating key pair, count of the timer is number of generated key pairs")
+                .tag("pool", NAME)
+                .tag("algorithm", algorithm)
+                .register(meterRegistry);
+
+        // NOTE: fails fast on unsupported algorithm or key size, instead of failing every refill
+        generate().get();
+        this.generator = Executors.newSingleThreadScheduledExecutor(
+                new ThreadFactoryBuilder().setNameFormat("key-pair-generator-%d").setDaemon(true).build());
+        generator.scheduleWithFixedDelay(this::refill, 0, refillInterval.toMillis(), TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * @return pre-generated key pair, or key pair generated on demand if the pool is drained
+     */
+    public Try<KeyPair> take() {
+        return Option.of(keyPairs.poll())
+                .toTry()
+                .orElse(() -> {
+                    missCounter.increment();
+                    return generate();
+                });
+    }
+
+    public int available() {
+        return keyPairs.size();
+    }
+
+    public void shutdown() {
+        generator.shutdownNow();
+    }
+
+    void refill() {
+        for (int i = 0; i < refillBatchSize && keyPairs.remainingCapacity() > 0; i++) {
+            var generated = generate()
+                    .onFailure(exc -> log.error("Error when generating {} key pair", algorithm, exc));
+            if (generated.isFailure() || !keyPairs.offer(generated.get())) {
+                return;
+            }
+        }
+    }
+
+    // NOTE: generator is not thread safe, new one is obtained every time, which is negligible compared to generation
+    private Try<KeyPair> generate() {
+        return Try.of(() -> KeyPairGenerator.getInstance(algorithm))
+                .andThenTry(keyPairGenerator -> keyPairGenerator.initialize(keySize))
+                .mapTry(keyPairGenerator -> generationTimer.recordCallable(keyPairGenerator::generateKeyPair));
+    }
+}
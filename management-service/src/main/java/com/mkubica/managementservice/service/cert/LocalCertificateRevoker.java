@@ -0,0 +1,70 @@
+/* Copyright 2021 Mateusz Kubica */
+package com.mkubica.managementservice.service.cert;
+
+import com.mkubica.managementservice.domain.dao.RevokedCertificateEntity;
+import com.mkubica.managementservice.repository.RevokedCertificateRepository;
+import com.mkubica.managementservice.util.Pem;
+
+import java.math.BigInteger;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Date;
+import java.util.List;
+
+import lombok.AllArgsConstructor;
+
+import io.vavr.control.Try;
+import org.bouncycastle.asn1.x509.CRLNumber;
+import org.bouncycastle.asn1.x509.CRLReason;
+import org.bouncycastle.asn1.x509.Extension;
+import org.bouncycastle.cert.X509CRLHolder;
+import org.bouncycastle.cert.X509CertificateHolder;
+import org.bouncycastle.cert.X509v2CRLBuilder;
+import org.bouncycastle.cert.jcajce.JcaX509ExtensionUtils;
+
+
+/**
+ * Revokes certificates issued in-process (see {@link InProcessClientCertificateRequester}), which are unknown
+ * to certificate store of cfssl. Revoked certificates are recorded in database and revocation list is signed
+ * in-process with {@link CertificateAuthority}. Certificates drop out of revocation list once they expire,
+ * so the list doesn't grow with every certificate ever revoked.
+ */
+@AllArgsConstructor
+public class LocalCertificateRevoker implements CertificateRevoker {
+
+    private final CertificateAuthority certificateAuthority;
+    private final RevokedCertificateRepository revokedCertificateRepository;
+    private final Duration crlValidity;
+
+    @Override
+    public Try<Void> revoke(String commonName, X509CertificateHolder certificate) {
+        return Try.of(() -> revokedCertificateRepository.save(RevokedCertificateEntity.builder()
+                        .withSerialNumber(certificate.getSerialNumber().toString(16))
+                        .withCommonName(commonName)
+                        .withRevokedAt(Instant.now())
+                        .withExpiresAt(certificate.getNotAfter().toInstant())
+                        .build()))
+                .map(entity -> null);
+    }
+
+    @Override
+    public Try<String> generateCrl() {
+        var now = Instant.now();
+        return Try.of(() -> revokedCertificateRepository.findAllByExpiresAtAfter(now))
+                .mapTry(revoked -> crlOf(revoked, now))
+                .mapTry(Pem::encode);
+    }
+
+    private X509CRLHolder crlOf(List<RevokedCertificateEntity> revoked, Instant now) throws Exception {
+        var builder = new X509v2CRLBuilder(certificateAuthority.getCertificate().getSubject(), Date.from(now))
+                .setNextUpdate(Date.from(now.plus(crlValidity)));
+        revoked.forEach(entity -> builder.addCRLEntry(
+                new BigInteger(entity.getSerialNumber(), 16), Date.from(entity.getRevokedAt()), CRLReason.cessationOfOperation));
+        // NOTE: lists are published at most once a millisecond, so time of publication makes increasing CRL number
+        return builder
+                .addExtension(Extension.authorityKeyIdentifier, false,
+                        new JcaX509ExtensionUtils().createAuthorityKeyIdentifier(certificateAuthority.getCertificate()))
+                .addExtension(Extension.cRLNumber, false, new CRLNumber(BigInteger.valueOf(now.toEpochMilli())))
+                .build(certificateAuthority.signer());
+    }
+}
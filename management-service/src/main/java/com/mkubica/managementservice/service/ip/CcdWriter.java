@@ -0,0 +1,42 @@
+/* Copyright 2021 Mateusz Kubica */
+package com.mkubica.managementservice.service.ip;
+
+import java.util.concurrent.CompletableFuture;
+
+import io.vavr.control.Try;
+import org.springframework.lang.NonNull;
+
+
+/**
+ * Interface whose implementations should maintain client config directory (ccd) shared with vpn server,
+ * where every entry is a file named after common name of gateway.
+ *
+ * Entries are published atomically, so vpn server never reads partially written entry. Publishing and
+ * making entry durable are separate steps, each operation returns {@link CompletableFuture} which completes
+ * once change survives crash of the host, thus implementations are free to make many changes durable at once.
+ */
+public interface CcdWriter {
+
+    /**
+     * Method which atomically publishes new entry of certain common name.
+     *
+     * @param commonName - common name of gateway, used as a name of entry
+     * @param content - content of entry, eg. "ifconfig-push 10.8.0.2 10.8.0.3\n"
+     *
+     * @return future completed when entry is durable or exception, wrapped with {@link Try},
+     * {@link java.nio.file.FileAlreadyExistsException} if entry of this common name already exists
+     */
+    @NonNull
+    Try<CompletableFuture<Void>> create(@NonNull String commonName, @NonNull String content);
+
+    /**
+     * Method which removes entry of certain common name.
+     *
+     * @param commonName - common name of gateway, used as a name of entry
+     *
+     * @return future completed when removal is durable or exception, wrapped with {@link Try},
+     * {@link java.io.FileNotFoundException} if there is no entry of this common name
+     */
+    @NonNull
+    Try<CompletableFuture<Void>> delete(@NonNull String commonName);
+}
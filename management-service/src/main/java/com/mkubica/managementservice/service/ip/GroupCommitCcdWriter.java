@@ -0,0 +1,183 @@
+/* Copyright 2021 Mateusz Kubica */
+package com.mkubica.managementservice.service.ip;
+
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Lock;
+
+import com.google.common.util.concurrent.Striped;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+import io.vavr.CheckedFunction0;
+import io.vavr.control.Try;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.lang.NonNull;
+
+import static java.lang.String.format;
+
+
+/**
+ * Ccd writer which writes entry to temp file through {@link FileChannel}, forces its content to disk
+ * and publishes it with atomic rename. Renames are made durable by fsync of the directory, which is
+ * group committed - single background committer syncs the directory once for all renames that happened
+ * since previous sync, so cost of the sync is shared by all concurrent writers.
+ *
+ * Operations of the same common name are guarded by locks striped by common name.
+ */
+@Slf4j
+public class GroupCommitCcdWriter implements CcdWriter {
+
+    private static final String TEMP_FILE_PREFIX = ".tmp-";
+    private static final int LOCK_STRIPES = 64;
+    private static final long POLL_TIMEOUT_MILLIS = 100;
+
+    private final Path ccdPath;
+    private final Duration commitDelay;
+
+    private final Striped<Lock> commonNameLocks = Striped.lock(LOCK_STRIPES);
+    private final BlockingQueue<CompletableFuture<Void>> pendingCommits = new LinkedBlockingQueue<>();
+    private final Thread committer;
+    private volatile boolean running = true;
+
+    /**
+     * @param ccdPath - path of client config directory
+     * @param commitDelay - how long committer waits for more changes before syncing the directory,
+     *                      zero means that only changes queued during previous sync are grouped
+     */
+    public GroupCommitCcdWriter(String ccdPath, Duration commitDelay) {
+        this.ccdPath = Path.of(ccdPath);
+        this.commitDelay = commitDelay;
+        this.committer = new ThreadFactoryBuilder().setNameFormat("ccd-committer-%d").setDaemon(true).build()
+                .newThread(this::commitLoop);
+        committer.start();
+    }
+
+    @Override
+    @NonNull
+    public Try<CompletableFuture<Void>> create(@NonNull String commonName, @NonNull String content) {
+        return withCommonNameLock(commonName, () -> {
+            var entry = ccdPath.resolve(commonName);
+            if (Files.exists(entry)) {
+                throw new FileAlreadyExistsException(format("File %s already exist", entry.toAbsolutePath()));
+            }
+            var tempFile = writeTempFile(ccdPath.resolve(TEMP_FILE_PREFIX + commonName), content);
+            try {
+                Files.move(tempFile, entry, StandardCopyOption.ATOMIC_MOVE);
+            } catch (IOException exc) {
+                Files.deleteIfExists(tempFile);
+                throw exc;
+            }
+            return scheduleCommit();
+        });
+    }
+
+    @Override
+    @NonNull
+    public Try<CompletableFuture<Void>> delete(@NonNull String commonName) {
+        return withCommonNameLock(commonName, () -> {
+            var entry = ccdPath.resolve(commonName);
+            if (!Files.deleteIfExists(entry)) {
+                throw new FileNotFoundException(format("File %s doesn't exist", entry.toAbsolutePath()));
+            }
+            return scheduleCommit();
+        });
+    }
+
+    // NOTE: changes scheduled before shutdown are still committed, committer is awaited
+    public void shutdown() {
+        running = false;
+        try {
+            committer.join();
+        } catch (InterruptedException exc) {
+            Thread.currentThread().interrupt();
+        }
+        var abandoned = new ArrayList<CompletableFuture<Void>>();
+        pendingCommits.drainTo(abandoned);
+        abandoned.forEach(commit -> commit.completeExceptionally(new IllegalStateException("Ccd writer has been shut down")));
+    }
+
+    // NOTE: temp file is named after common name, lock of common name is held, so nobody else writes to it,
+    // leftover of interrupted write is simply overwritten
+    private static Path writeTempFile(Path tempFile, String content) throws IOException {
+        try (var channel = FileChannel.open(tempFile,
+                StandardOpenOption.WRITE, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            var buffer = StandardCharsets.UTF_8.encode(content);
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+            // NOTE: only data is forced here, metadata of the directory is synced by committer
+            channel.force(false);
+        } catch (IOException exc) {
+            Files.deleteIfExists(tempFile);
+            throw exc;
+        }
+        return tempFile;
+    }
+
+    private CompletableFuture<Void> scheduleCommit() {
+        var commit = new CompletableFuture<Void>();
+        pendingCommits.add(commit);
+        return commit;
+    }
+
+    private void commitLoop() {
+        var batch = new ArrayList<CompletableFuture<Void>>();
+        while (running || !pendingCommits.isEmpty()) {
+            try {
+                var first = pendingCommits.poll(POLL_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS);
+                if (first == null) {
+                    continue;
+                }
+                batch.add(first);
+                if (!commitDelay.isZero()) {
+                    Thread.sleep(commitDelay.toMillis());
+                }
+                pendingCommits.drainTo(batch);
+                commit(batch);
+                batch.clear();
+            } catch (InterruptedException exc) {
+                Thread.currentThread().interrupt();
+                commit(batch);
+                return;
+            }
+        }
+    }
+
+    private void commit(List<CompletableFuture<Void>> batch) {
+        Try.run(this::syncDirectory)
+                .onSuccess(res -> log.debug("Committed {} changes of ccd", batch.size()))
+                .onSuccess(res -> batch.forEach(commit -> commit.complete(null)))
+                .onFailure(exc -> log.error("Unable to commit {} changes of ccd", batch.size(), exc))
+                .onFailure(exc -> batch.forEach(commit -> commit.completeExceptionally(exc)));
+    }
+
+    private void syncDirectory() throws IOException {
+        try (var channel = FileChannel.open(ccdPath, StandardOpenOption.READ)) {
+            channel.force(true);
+        }
+    }
+
+    private <T> Try<T> withCommonNameLock(String commonName, CheckedFunction0<T> action) {
+        var lock = commonNameLocks.get(commonName);
+        lock.lock();
+        try {
+            return Try.of(action);
+        } finally {
+            lock.unlock();
+        }
+    }
+}
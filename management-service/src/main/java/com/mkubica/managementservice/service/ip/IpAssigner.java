@@ -4,11 +4,14 @@ package com.mkubica.managementservice.service.ip;
 import inet.ipaddr.IPAddress;
 import inet.ipaddr.IPAddressSeqRange;
 import inet.ipaddr.IPAddressString;
+import io.vavr.Tuple2;
+import io.vavr.collection.List;
 import io.vavr.collection.TreeSet;
 import io.vavr.control.Try;
 import org.springframework.lang.NonNull;
 import org.springframework.lang.Nullable;
 
+import java.util.concurrent.CompletableFuture;
 import java.util.stream.Collectors;
 
 import static java.lang.String.format;
@@ -40,6 +43,23 @@ public interface IpAssigner {
     Try<String> assignIp(@NonNull String commonName, @Nullable String ipAddressString);
 
 
+    /**
+     * Asynchronous version of {@link #assignIp(String, String)}, implementations should check whether ip address
+     * can be assigned and reserve it before returning, only waiting for assignment to take effect (eg. for config
+     * to be durable) is left to returned future. Thus ip address which can't be assigned is reported immediately.
+     *
+     * @param commonName - common name of gateway to which ip address will be assigned
+     * @param ipAddressString - valid ip address string with even, non-zero suffix, ex. 10.8.0.2, 10.8.0.4, ..., or null
+     *
+     * @return future of assigned ip address string or exception, wrapped with {@link Try},
+     * future is completed exceptionally if reserved ip address couldn't be assigned after all
+     */
+    @NonNull
+    default Try<CompletableFuture<String>> assignIpAsync(@NonNull String commonName, @Nullable String ipAddressString) {
+        return assignIp(commonName, ipAddressString).map(CompletableFuture::completedFuture);
+    }
+
+
     /**
      * Alias for {@link #assignIp(String, String) assignIp("some-common-name", null)}
      *
@@ -53,6 +73,22 @@ public interface IpAssigner {
     }
 
 
+    /**
+     * Batch version of {@link #assignIp(String, String)}, implementations should assign
+     * all ip addresses at once, rather than one by one. Each assignment is a pair of common name
+     * and ip address string, which might be null if ip address should be assigned automatically.
+     *
+     * @param assignments - pairs of common name and ip address string or null
+     *
+     * @return list of assigned ip address strings or exceptions, wrapped with {@link Try},
+     * in the same order as provided assignments
+     */
+    @NonNull
+    default List<Try<String>> assignIps(@NonNull List<Tuple2<String, String>> assignments) {
+        return assignments.map(assignment -> assignIp(assignment._1, assignment._2));
+    }
+
+
     /**
      * Method which removes association between provided common name and assigned ip address,
      * it shouldn't validate common name.
@@ -64,6 +100,19 @@ public interface IpAssigner {
     @NonNull
     Try<String> revokeIp(@NonNull String commonName);
 
+    /**
+     * Method which removes association between provided common name and ip address that has been assigned to it,
+     * unlike {@link #revokeIp(String)} it doesn't look the association up, thus it is meant for rolling back
+     * assignments which haven't been persisted.
+     *
+     * @param commonName - common name of gateway from which ip address will be released
+     * @param ipAddressString - ip address string previously assigned to this common name
+     *
+     * @return released ip address string or exception, wrapped with {@link Try}
+     */
+    @NonNull
+    Try<String> releaseIp(@NonNull String commonName, @NonNull String ipAddressString);
+
     /**
      * Static method which converts CIDR (eg. 10.8.0.0/16) to {@link TreeSet}
      * of {@link IPAddressSeqRange} with 31 prefix length.
@@ -95,6 +144,20 @@ public interface IpAssigner {
 
     }
 
+    /**
+     * Static method which converts address and mask pair to {@link IpPairPool}
+     * of ip address pairs with 31 prefix length. Unlike {@link #getAllPairsFromAddressAndMask(String, String)}
+     * pairs are not materialized, so it is suitable for networks of any size.
+     *
+     * @param address - valid IPv4 network address, eg. 10.8.0.0
+     * @param mask - valid network mask, eg. 255.255.0.0
+     * @return {@link IpPairPool} or exception, wrapped with {@link Try}
+     */
+    static Try<IpPairPool> getPairPoolFromAddressAndMask(String address, String mask) {
+        return Try.of(() -> new IPAddressString(format("%s/%s", address, mask)).toAddress())
+                .mapTry(IpPairPool::of);
+    }
+
     /**
      * Static method which converts {@link IPAddressSeqRange} to list of canonical ip address names
      * separated by spaces, i.e IpAddressSeqRange(10.8.0.2 -> 10.8.0.3) == "10.8.0.2 10.8.0.3"
@@ -0,0 +1,151 @@
+/* Copyright 2021 Mateusz Kubica */
+package com.mkubica.managementservice.service.ip;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import static java.lang.String.format;
+
+
+/**
+ * Allocation engine which tracks state of ip address pairs as bits of compact bitmap,
+ * n-th bit corresponds to n-th pair of the pool, so memory cost per pair is constant
+ * and doesn't depend on how many pairs have been allocated.
+ *
+ * Bitmap keeps cursor pointing to the lowest pair that might be free, thus consecutive allocations
+ * do not rescan allocated part of the pool and allocation, as well as release, is O(1) amortized.
+ * Lowest free pair is chosen, same as it was when pool was scanned.
+ *
+ * This class is thread safe and lock free, bits are set and cleared with CAS operations on words of the bitmap.
+ * Under contention cursor is only a hint, it may point above some free pair for a while,
+ * but no pair is ever allocated twice and free pair is always found if there is any.
+ */
+public class IpPairBitmap {
+
+    private static final int ADDRESS_BITS_PER_WORD = 6;
+    private static final long WORD_MASK = 0xffffffffffffffffL;
+
+    private final AtomicLongArray words;
+    private final int capacity;
+
+    private final AtomicInteger cursor = new AtomicInteger();
+    private final AtomicInteger allocated = new AtomicInteger();
+
+    public IpPairBitmap(int capacity) {
+        if (capacity < 0) {
+            throw new IllegalArgumentException(format("Capacity cannot be negative: %d", capacity));
+        }
+        this.capacity = capacity;
+        this.words = new AtomicLongArray(wordIndex(capacity - 1) + 1);
+        // NOTE: bits above capacity are marked as allocated, so they are never chosen
+        if (capacity % Long.SIZE != 0) {
+            words.set(words.length() - 1, WORD_MASK << capacity);
+        }
+    }
+
+    /**
+     * Allocates lowest free pair.
+     *
+     * @return index of allocated pair or -1 if all pairs have been already allocated
+     */
+    public int allocate() {
+        if (allocated.get() >= capacity) {
+            return -1;
+        }
+        int from = cursor.get();
+        int index = claimNextFree(from);
+        if (index < 0 && from > 0) {
+            index = claimNextFree(0);
+        }
+        if (index >= 0) {
+            // NOTE: cursor is moved only if nobody changed it in the meantime,
+            // otherwise concurrent release could be missed
+            cursor.compareAndSet(from, index + 1);
+        }
+        return index;
+    }
+
+    /**
+     * Allocates pair with certain index.
+     *
+     * @param index - index of pair within the pool
+     * @return true if pair has been allocated, false if it was already allocated before
+     */
+    public boolean allocate(int index) {
+        checkIndex(index);
+        int wordIndex = wordIndex(index);
+        long bit = 1L << index;
+        long word;
+        do {
+            word = words.get(wordIndex);
+            if ((word & bit) != 0) {
+                return false;
+            }
+        } while (!words.compareAndSet(wordIndex, word, word | bit));
+        allocated.incrementAndGet();
+        return true;
+    }
+
+    /**
+     * Releases pair with certain index, so it can be allocated again.
+     *
+     * @param index - index of pair within the pool
+     * @return true if pair has been released, false if it wasn't allocated
+     */
+    public boolean release(int index) {
+        checkIndex(index);
+        int wordIndex = wordIndex(index);
+        long bit = 1L << index;
+        long word;
+        do {
+            word = words.get(wordIndex);
+            if ((word & bit) == 0) {
+                return false;
+            }
+        } while (!words.compareAndSet(wordIndex, word, word & ~bit));
+        allocated.decrementAndGet();
+        cursor.accumulateAndGet(index, Math::min);
+        return true;
+    }
+
+    public boolean isAllocated(int index) {
+        checkIndex(index);
+        return (words.get(wordIndex(index)) & (1L << index)) != 0;
+    }
+
+    public int allocatedCount() {
+        return allocated.get();
+    }
+
+    public int capacity() {
+        return capacity;
+    }
+
+    private int claimNextFree(int fromIndex) {
+        for (int wordIndex = wordIndex(fromIndex); wordIndex < words.length(); wordIndex++) {
+            long mask = wordIndex == wordIndex(fromIndex) ? WORD_MASK << fromIndex : WORD_MASK;
+            long word = words.get(wordIndex);
+            long free = ~word & mask;
+            while (free != 0) {
+                long bit = Long.lowestOneBit(free);
+                if (words.compareAndSet(wordIndex, word, word | bit)) {
+                    allocated.incrementAndGet();
+                    return (wordIndex << ADDRESS_BITS_PER_WORD) + Long.numberOfTrailingZeros(bit);
+                }
+                word = words.get(wordIndex);
+                free = ~word & mask;
+            }
+        }
+        return -1;
+    }
+
+    private void checkIndex(int index) {
+        if (index < 0 || index >= capacity) {
+            throw new IndexOutOfBoundsException(format("Index %d out of pool of %d pairs", index, capacity));
+        }
+    }
+
+    private static int wordIndex(int index) {
+        return index >> ADDRESS_BITS_PER_WORD;
+    }
+}
@@ -0,0 +1,106 @@
+/* Copyright 2021 Mateusz Kubica */
+package com.mkubica.managementservice.service.ip;
+
+import inet.ipaddr.IPAddress;
+import inet.ipaddr.IPAddressSeqRange;
+import inet.ipaddr.ipv4.IPv4Address;
+import inet.ipaddr.ipv4.IPv4AddressSeqRange;
+import io.vavr.control.Option;
+import org.springframework.lang.NonNull;
+
+import static java.lang.String.format;
+
+
+/**
+ * Pool of ip address pairs with prefix length of 31, i.e network 10.8.0.0/24 consists of pairs
+ * (10.8.0.0 -> 10.8.0.1), (10.8.0.2 -> 10.8.0.3), ..., (10.8.0.254 -> 10.8.0.255).
+ *
+ * Pool is not materialized, it is described by address of its first pair and number of pairs,
+ * every pair is computed out of its index, so size of the network doesn't affect memory usage
+ * and all operations are O(1). Only IPv4 networks are supported.
+ */
+public class IpPairPool {
+
+    private static final int PAIR_SIZE = 2;
+
+    private final long base;
+    private final int size;
+
+    private IpPairPool(long base, int size) {
+        this.base = base;
+        this.size = size;
+    }
+
+    /**
+     * Creates pool of all pairs within network, network address is converted to its prefix block,
+     * so host bits of provided address are ignored.
+     *
+     * @param network - IPv4 network with prefix length, eg. 10.8.0.0/24
+     * @return pool of pairs covering whole network
+     */
+    public static IpPairPool of(@NonNull IPAddress network) {
+        if (!network.isIPv4() || !network.isPrefixed()) {
+            throw new IllegalArgumentException(format("'%s' is not valid IPv4 network", network));
+        }
+        var block = network.toPrefixBlock();
+        var pairs = block.getCount().shiftRight(1).intValueExact();
+        return new IpPairPool(block.getLower().toIPv4().longValue(), pairs);
+    }
+
+    /**
+     * Returns pool without its first n pairs, same as dropping elements of sorted collection.
+     *
+     * @param n - number of pairs to omit
+     * @return pool without first n pairs
+     */
+    public IpPairPool drop(int n) {
+        var dropped = Math.min(Math.max(n, 0), size);
+        return new IpPairPool(base + (long) dropped * PAIR_SIZE, size - dropped);
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    public boolean contains(@NonNull IPAddressSeqRange pair) {
+        return indexOf(pair).isDefined();
+    }
+
+    /**
+     * @param pair - ip address pair, eg. IpAddressSeqRange(10.8.0.2 -> 10.8.0.3)
+     * @return index of pair within the pool or none if pair doesn't belong to the pool
+     */
+    public Option<Integer> indexOf(@NonNull IPAddressSeqRange pair) {
+        if (!pair.getLower().isIPv4() || pair.getCount().intValue() != PAIR_SIZE) {
+            return Option.none();
+        }
+        var offset = pair.getLower().toIPv4().longValue() - base;
+        return offset >= 0 && offset % PAIR_SIZE == 0 && offset / PAIR_SIZE < size
+                ? Option.some((int) (offset / PAIR_SIZE))
+                : Option.none();
+    }
+
+    /**
+     * @param index - index of pair within the pool
+     * @return pair with certain index
+     */
+    public IPAddressSeqRange get(int index) {
+        if (index < 0 || index >= size) {
+            throw new IndexOutOfBoundsException(format("Index %d out of pool of %d pairs", index, size));
+        }
+        var lower = base + (long) index * PAIR_SIZE;
+        return new IPv4AddressSeqRange(new IPv4Address((int) lower), new IPv4Address((int) (lower + 1)));
+    }
+
+    public IPAddressSeqRange first() {
+        return get(0);
+    }
+
+    public IPAddressSeqRange last() {
+        return get(size - 1);
+    }
+}
@@ -6,17 +6,22 @@ import com.mkubica.managementservice.exception.IpAddressNotUniqueException;
 import com.mkubica.managementservice.exception.IpAddressNotWithinPoolException;
 import com.mkubica.managementservice.exception.IpAddressPoolFullyAllocatedException;
 import com.mkubica.managementservice.repository.GatewayRepository;
+import com.mkubica.managementservice.service.GatewayEntityCache;
 
-import java.io.*;
-import java.nio.file.FileAlreadyExistsException;
-import java.util.NoSuchElementException;
+import java.io.FileNotFoundException;
 import java.util.Objects;
-import java.util.function.Supplier;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.function.Predicate;
 
 import inet.ipaddr.IPAddress;
 
 import inet.ipaddr.IPAddressSeqRange;
 import inet.ipaddr.IPAddressString;
+import io.vavr.Tuple;
+import io.vavr.Tuple2;
+import io.vavr.collection.HashSet;
+import io.vavr.collection.List;
 import io.vavr.collection.SortedSet;
 import io.vavr.collection.Stream;
 import io.vavr.collection.TreeSet;
@@ -26,160 +31,213 @@ import org.springframework.lang.NonNull;
 import org.springframework.lang.Nullable;
 
 import static inet.ipaddr.Address.ADDRESS_LOW_VALUE_COMPARATOR;
-import static io.vavr.API.*;
-import static io.vavr.Predicates.instanceOf;
 import static java.lang.String.format;
 
+/**
+ * Ip assigner which saves ip address pair of certain common name into client config directory
+ * shared with vpn server. Pairs are reserved in lock free {@link IpPairBitmap}, config files
+ * are written by {@link CcdWriter}, so requests for different common names do not wait
+ * for each other, repository is queried outside of any lock.
+ *
+ * Assignment (as well as revocation) is reported only when config file is durable.
+ */
 public class SharedVolumeIpAssigner implements IpAssigner {
 
-    private final String ccdPath;
+    private final CcdWriter ccdWriter;
     private final GatewayRepository gatewayRepository;
+    private final GatewayEntityCache gatewayEntityCache;
 
-    private final StatefulSortedSet<IPAddressSeqRange> allocatedIpPairs;
-    private final StatefulSortedSet<IPAddressSeqRange> ipPairsPool;
+    private final IpPairPool ipPairsPool;
+    private final IpPairBitmap allocationBitmap;
 
 
     // TODO: add some validation, here or on bean creation - to validate ccd path and internal address pool
     public SharedVolumeIpAssigner(
-            String ccdPath,
+            CcdWriter ccdWriter,
             GatewayRepository gatewayRepository,
+            GatewayEntityCache gatewayEntityCache,
             String internalNetworkAddress,
             String internalNetworkMask
     ) {
-        this.ccdPath = ccdPath;
+        this.ccdWriter = ccdWriter;
         this.gatewayRepository = gatewayRepository;
+        this.gatewayEntityCache = gatewayEntityCache;
 
         // NOTE: when creating pool, omit first pair since it is allocated for vpn server
-        this.ipPairsPool = StatefulSortedSet.of(() -> IpAssigner
-                .getAllPairsFromAddressAndMask(internalNetworkAddress, internalNetworkMask)
+        this.ipPairsPool = IpAssigner
+                .getPairPoolFromAddressAndMask(internalNetworkAddress, internalNetworkMask)
                 .get()
-                .drop(1)
-        );
-        this.allocatedIpPairs = StatefulSortedSet.of(this::getAllAllocatedPairs);
+                .drop(1);
+        this.allocationBitmap = new IpPairBitmap(ipPairsPool.size());
+        allocateAlreadyAssignedPairs();
     }
 
 
     @Override
     @NonNull
-    public synchronized Try<String> assignIp(@NonNull String commonName, @Nullable String ipAddressString) {
-        Try<IPAddressSeqRange> chosenIpPair = ipAddressString == null
+    public Try<String> assignIp(@NonNull String commonName, @Nullable String ipAddressString) {
+        Try<Integer> chosenIpPair = ipAddressString == null
                 ? chooseIpPair()
-                : Try.success(ipAddressString)
-                    .flatMap(this::checkIfIpWithinPool)
-                    .flatMap(this::checkIfIpAlreadyAssigned)
-                    .flatMap(IpAssigner::seqRangeFromString);
-        return assignChosenIpPair(commonName, chosenIpPair);
+                : chooseExplicitIpPair(ipAddressString, this::isIpAssignedInRepository);
+        return awaitCommit(commonName, saveChosenIpPair(commonName, chosenIpPair));
     }
 
+    // NOTE: pair is checked against pool and repository, reserved in bitmap and its config file is saved
+    // before returning, only making config file durable is awaited with returned future
     @Override
     @NonNull
-    public synchronized Try<String> revokeIp(@NonNull String commonName) {
+    public Try<CompletableFuture<String>> assignIpAsync(@NonNull String commonName, @Nullable String ipAddressString) {
+        Try<Integer> chosenIpPair = ipAddressString == null
+                ? chooseIpPair()
+                : chooseExplicitIpPair(ipAddressString, this::isIpAssignedInRepository);
+        return saveChosenIpPair(commonName, chosenIpPair).map(saved -> commitOf(commonName, saved));
+    }
+
+    // NOTE: explicit ip addresses of whole batch are checked against repository with single query,
+    // all pairs are reserved in bitmap before any config file is saved and all config files
+    // are saved before waiting for them to be durable, so they are committed together
+    @Override
+    @NonNull
+    public List<Try<String>> assignIps(@NonNull List<Tuple2<String, String>> assignments) {
+        var explicitIpAddresses = assignments.map(Tuple2::_2).filter(Objects::nonNull);
+        var assignedIpAddresses = explicitIpAddresses.isEmpty()
+                ? HashSet.<String>empty()
+                : HashSet.ofAll(gatewayRepository.findExistingIpAddresses(explicitIpAddresses.toJavaList()));
+        var chosenIpPairs = assignments.map(assignment -> assignment._2 == null
+                ? chooseIpPair()
+                : chooseExplicitIpPair(assignment._2, assignedIpAddresses::contains));
+        var savedIpPairs = assignments.zipWith(chosenIpPairs,
+                (assignment, pairIndex) -> Tuple.of(assignment._1, saveChosenIpPair(assignment._1, pairIndex)));
+        return savedIpPairs.map(saved -> awaitCommit(saved._1, saved._2));
+    }
+
+    @Override
+    @NonNull
+    public Try<String> revokeIp(@NonNull String commonName) {
         return deleteIpConfigFile(commonName)
                 .map(ipAddress -> ipAddress.setPrefixLength(31).toSequentialRange())
-                .map(seqRange -> allocatedIpPairs.remove(seqRange).getLower().toCanonicalString());
+                .andThen(seqRange -> ipPairsPool.indexOf(seqRange).forEach(allocationBitmap::release))
+                .map(seqRange -> seqRange.getLower().toCanonicalString());
     }
 
+    @Override
+    @NonNull
+    public Try<String> releaseIp(@NonNull String commonName, @NonNull String ipAddressString) {
+        return ccdWriter.delete(commonName)
+                .recover(FileNotFoundException.class, exc -> CompletableFuture.completedFuture(null))
+                .flatMap(SharedVolumeIpAssigner::await)
+                .flatMap(res -> IpAssigner.seqRangeFromString(ipAddressString))
+                .andThen(seqRange -> ipPairsPool.indexOf(seqRange).forEach(allocationBitmap::release))
+                .map(seqRange -> seqRange.getLower().toCanonicalString());
+    }
 
-    private Try<String> assignChosenIpPair(String commonName, Try<IPAddressSeqRange> pair) {
-        return pair
-                .flatMap(seqRange -> saveIpConfigFile(commonName, seqRange))
-                .map(ipAddress -> ipAddress.setPrefixLength(31).toSequentialRange())
-                .map(seqRange -> allocatedIpPairs.add(seqRange).getLower().toCanonicalString());
+    // NOTE: materializes allocated pairs out of bitmap, meant for diagnostics and tests only
+    SortedSet<IPAddressSeqRange> allocatedIpPairs() {
+        return TreeSet.ofAll(ADDRESS_LOW_VALUE_COMPARATOR, Stream.range(0, allocationBitmap.capacity())
+                .filter(allocationBitmap::isAllocated)
+                .map(ipPairsPool::get));
     }
 
-    private TreeSet<IPAddressSeqRange> getAllAllocatedPairs() {
 
-        return TreeSet.ofAll(ADDRESS_LOW_VALUE_COMPARATOR,
-                // NOTE: repository returns java stream (since JPA is not compatible with vavr stream),
-                // thus it needs to be converted
-                Stream.ofAll(gatewayRepository.findAll())
-                    .map(GatewayEntity::getIpAddress)
-                    .map(ipAddress -> IpAssigner.seqRangeFromString(ipAddress).toOption().getOrNull())
-                    .filter(Objects::nonNull)
-        );
+    // NOTE: pair is reserved in bitmap before config file is saved, so it has to be released when saving fails
+    private Try<Tuple2<Integer, CompletableFuture<Void>>> saveChosenIpPair(String commonName, Try<Integer> pairIndex) {
+        return pairIndex.flatMap(index -> saveIpConfigFile(commonName, ipPairsPool.get(index))
+                .map(commit -> Tuple.of(index, commit))
+                .onFailure(exc -> allocationBitmap.release(index)));
     }
 
-    // NOTE: it seems that warning from method below is caused by some bug in intelliJ
-    // https://github.com/vavr-io/vavr/issues/2411
-    private Try<IPAddressSeqRange> chooseIpPair() {
-        return Try.of(() -> allocatedIpPairs.all().isEmpty()
-                    ? ipPairsPool.all().get()
-                    : ipPairsPool.all().find(ip -> !allocatedIpPairs.all().contains(ip)).get())
-                .mapFailure(Case($(instanceOf(NoSuchElementException.class)), x ->
-                        new IpAddressPoolFullyAllocatedException()));
+    // NOTE: config file which couldn't be made durable is removed and its pair is released, as if it was never saved
+    private Try<String> awaitCommit(String commonName, Try<Tuple2<Integer, CompletableFuture<Void>>> savedIpPair) {
+        return savedIpPair.flatMap(saved -> await(saved._2)
+                .onFailure(exc -> {
+                    ccdWriter.delete(commonName);
+                    allocationBitmap.release(saved._1);
+                })
+                .map(res -> ipPairsPool.get(saved._1).getLower().toCanonicalString()));
+    }
+
+    // NOTE: asynchronous counterpart of awaitCommit, commit is not awaited by calling thread
+    private CompletableFuture<String> commitOf(String commonName, Tuple2<Integer, CompletableFuture<Void>> saved) {
+        return saved._2
+                .whenComplete((res, exc) -> {
+                    if (exc != null) {
+                        ccdWriter.delete(commonName);
+                        allocationBitmap.release(saved._1);
+                    }
+                })
+                .thenApply(res -> ipPairsPool.get(saved._1).getLower().toCanonicalString());
+    }
+
+    // NOTE: only ip addresses are streamed out of repository, bitmap is filled incrementally,
+    // corrupted addresses and addresses from outside the pool are skipped
+    private void allocateAlreadyAssignedPairs() {
+        gatewayRepository.forEachIpAddress(ipAddress -> IpAssigner.seqRangeFromString(ipAddress)
+                .toOption()
+                .flatMap(ipPairsPool::indexOf)
+                .forEach(allocationBitmap::allocate));
+    }
+
+    private Try<Integer> chooseIpPair() {
+        int index = allocationBitmap.allocate();
+        return index < 0
+                ? Try.failure(new IpAddressPoolFullyAllocatedException())
+                : Try.success(index);
+    }
+
+    private Try<Integer> chooseExplicitIpPair(String ipAddressString, Predicate<String> isAlreadyAssigned) {
+        return Try.success(ipAddressString)
+                .flatMap(this::checkIfIpWithinPool)
+                .flatMap(ipAddress -> checkIfIpAlreadyAssigned(ipAddress, isAlreadyAssigned))
+                .flatMap(IpAssigner::seqRangeFromString)
+                .flatMap(this::reserveIpPair);
+    }
+
+    private Try<Integer> reserveIpPair(IPAddressSeqRange ipPair) {
+        return ipPairsPool.indexOf(ipPair)
+                .filter(allocationBitmap::allocate)
+                .toTry(() -> new IpAddressNotUniqueException(
+                        format("Ip address '%s' already allocated", ipPair.getLower().toCanonicalString())));
     }
 
     private Try<String> checkIfIpWithinPool(String ipAddress) {
         return IpAssigner.seqRangeFromString(ipAddress)
-                .map(ipPairsPool.all()::contains)
+                .map(ipPairsPool::contains)
                 .flatMap(res -> res
                         ? Try.success(ipAddress)
                         : Try.failure(new IpAddressNotWithinPoolException(
                             format("Ip address '%s' doesn't belong to the pool: (<%s> ; <%s>)",
-                                    ipAddress, ipPairsPool.all().get(),
-                                    ipPairsPool.all().last())))
+                                    ipAddress, ipPairsPool.first(),
+                                    ipPairsPool.last())))
                 );
     }
 
-    private Try<String> checkIfIpAlreadyAssigned(String ipAddress) {
-        return gatewayRepository.getGatewayEntityByIpAddress(ipAddress).isEmpty()
+    private boolean isIpAssignedInRepository(String ipAddress) {
+        return gatewayRepository.getGatewayEntityByIpAddress(ipAddress).isDefined();
+    }
+
+    private Try<String> checkIfIpAlreadyAssigned(String ipAddress, Predicate<String> isAlreadyAssigned) {
+        return !isAlreadyAssigned.test(ipAddress)
                 ? Try.success(ipAddress)
                 : Try.failure(new IpAddressNotUniqueException(
                 format("Ip address '%s' already allocated", ipAddress)));
     }
 
-    private Try<IPAddress> saveIpConfigFile(String commonName, IPAddressSeqRange ipAddressPair) {
-        return Try.of(() -> createFile(new File(ccdPath, commonName)))
-                .mapTry(fw -> writeIpPairToFile(fw, ipAddressPair));
+    private Try<CompletableFuture<Void>> saveIpConfigFile(String commonName, IPAddressSeqRange ipAddressPair) {
+        return IpAssigner.seqRangeToString(ipAddressPair)
+                .flatMap(ipPair -> ccdWriter.create(commonName, format("ifconfig-push %s\n", ipPair)));
     }
 
     private Try<IPAddress> deleteIpConfigFile(String commonName) {
-        return Try.of(() -> new File(ccdPath, commonName).delete())
-                .flatMap(res -> res
-                            ? gatewayRepository.getGatewayEntityByCommonName(commonName).toTry()
-                            : Try.failure(new FileNotFoundException()))
+        return ccdWriter.delete(commonName)
+                .flatMap(SharedVolumeIpAssigner::await)
+                .flatMap(res -> gatewayEntityCache.getGatewayEntityByCommonName(commonName).toTry())
                 .map(GatewayEntity::getIpAddress)
                 .map(IPAddressString::new)
                 .mapTry(IPAddressString::getAddress);
     }
 
-    private static FileWriter createFile(File file) throws IOException {
-        if (file.createNewFile()) {
-            return new FileWriter(file);
-        }
-        throw new FileAlreadyExistsException(format("File %s already exist", file.getAbsolutePath()));
-    }
-
-    private static IPAddress writeIpPairToFile(FileWriter fw, IPAddressSeqRange ipAddressPair) throws IOException {
-        fw.write(format("ifconfig-push %s\n", IpAssigner.seqRangeToString(ipAddressPair).get()));
-        fw.close();
-        return ipAddressPair.getLower();
-    }
-
-    private static class StatefulSortedSet<T> {
-
-        private SortedSet<T> collection;
-
-        private StatefulSortedSet(SortedSet<T> collection) {
-            this.collection = collection;
-        }
-
-        public static <T> StatefulSortedSet<T> of(Supplier<SortedSet<T>> supplier) {
-            return new StatefulSortedSet<>(supplier.get());
-        }
-
-        public T add(T object) {
-            this.collection = collection.add(object);
-            return object;
-        }
-
-        public T remove(T object) {
-            this.collection = collection.remove(object);
-            return object;
-        }
-
-        public SortedSet<T> all() {
-            return this.collection;
-        }
+    private static Try<Void> await(CompletableFuture<Void> commit) {
+        return Try.of(commit::get)
+                .recoverWith(ExecutionException.class, exc -> Try.failure(exc.getCause()));
     }
 }
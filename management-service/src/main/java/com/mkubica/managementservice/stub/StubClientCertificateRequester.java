@@ -2,11 +2,13 @@
 package com.mkubica.managementservice.stub;
 
 import com.mkubica.managementservice.domain.dto.CertificateBundleModel;
-import com.mkubica.managementservice.service.cert.ClientCertificateRequester;
+import com.mkubica.managementservice.service.cert.AsyncClientCertificateRequester;
+
+import java.util.concurrent.CompletableFuture;
 
 import io.vavr.control.Try;
 
-public class StubClientCertificateRequester implements ClientCertificateRequester {
+public class StubClientCertificateRequester implements AsyncClientCertificateRequester {
 
     @Override
     public Try<CertificateBundleModel> requestBundle(String commonName) {
@@ -18,7 +20,12 @@ public class StubClientCertificateRequester implements ClientCertificateRequeste
     }
 
     @Override
-    public Try<Void> revokeBundle(String commonName) {
+    public CompletableFuture<CertificateBundleModel> requestBundleAsync(String commonName) {
+        return requestBundle(commonName).fold(CompletableFuture::<CertificateBundleModel>failedFuture, CompletableFuture::completedFuture);
+    }
+
+    @Override
+    public Try<Void> revokeBundle(String commonName, String certificate) {
         return Try.success(null);
     }
 }
@@ -0,0 +1,71 @@
+/* Copyright 2021 Mateusz Kubica */
+package com.mkubica.managementservice.util;
+
+import static java.lang.String.format;
+
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.Duration;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+
+import io.vavr.control.Try;
+
+
+/**
+ * Non-blocking http client of certificate authority, backed by JDK {@link HttpClient}. Request returns immediately
+ * with future, response is awaited by selector of the client, so requests in flight don't hold any threads.
+ * Connections are kept alive and reused by the client, connecting and awaiting response are bounded by timeouts.
+ * Number of requests in flight is bounded with {@link CertificateAuthorityBulkhead} shared with {@link HttpUtil}.
+ */
+public class AsyncHttpUtil {
+
+    private final HttpClient client;
+    private final Duration readTimeout;
+    private final CertificateAuthorityBulkhead bulkhead;
+
+    public AsyncHttpUtil(
+            Duration connectTimeout,
+            Duration readTimeout,
+            CertificateAuthorityBulkhead bulkhead
+    ) {
+        this.client = HttpClient.newBuilder()
+                .version(HttpClient.Version.HTTP_1_1)
+                .connectTimeout(connectTimeout)
+                .build();
+        this.readTimeout = readTimeout;
+        this.bulkhead = bulkhead;
+    }
+
+    public CompletableFuture<String> postAsync(String endpoint, String body) {
+        var permit = bulkhead.acquire(endpoint);
+        if (permit.isFailure()) {
+            return CompletableFuture.failedFuture(permit.getCause());
+        }
+        return Try.of(() -> preparePostRequest(endpoint, body))
+                .map(request -> client.sendAsync(request, HttpResponse.BodyHandlers.ofString()))
+                .fold(CompletableFuture::<HttpResponse<String>>failedFuture, response -> response)
+                .thenApply(AsyncHttpUtil::bodyOf)
+                .whenComplete((response, exc) -> bulkhead.release(permit.get()));
+    }
+
+    private HttpRequest preparePostRequest(String endpoint, String body) {
+        return HttpRequest.newBuilder(URI.create(endpoint))
+                .timeout(readTimeout)
+                .header("Content-Type", "application/json")
+                .POST(HttpRequest.BodyPublishers.ofString(body))
+                .build();
+    }
+
+    // NOTE: same as response handler of blocking client, unsuccessful status is failure
+    private static String bodyOf(HttpResponse<String> response) {
+        if (response.statusCode() >= 300) {
+            throw new CompletionException(new IOException(
+                    format("Request to %s failed with status %d", response.uri(), response.statusCode())));
+        }
+        return response.body();
+    }
+}
@@ -0,0 +1,64 @@
+/* Copyright 2021 Mateusz Kubica */
+package com.mkubica.managementservice.util;
+
+import com.mkubica.managementservice.exception.CertificateAuthorityBusyException;
+
+import java.util.concurrent.Semaphore;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import io.vavr.control.Try;
+import lombok.extern.slf4j.Slf4j;
+
+
+/**
+ * Bound of requests in flight to certificate authority. Single instance is shared by its blocking and non-blocking
+ * http clients, so the bound applies to all requests together. Request exceeding the bound fails immediately
+ * with {@link CertificateAuthorityBusyException}, instead of waiting for other requests to complete.
+ *
+ * Requests in flight, rejected requests and latency of requests (as histogram) are published to meter registry.
+ */
+@Slf4j
+public class CertificateAuthorityBulkhead {
+
+    private final Semaphore permits;
+    private final Counter rejectedCounter;
+    private final Timer requestTimer;
+
+    public CertificateAuthorityBulkhead(int maxInFlightRequests, MeterRegistry meterRegistry) {
+        this.permits = new Semaphore(maxInFlightRequests);
+
+        Gauge.builder("certificate.authority.bulkhead.in.flight", permits,
+                        semaphore -> maxInFlightRequests - semaphore.availablePermits())
+                .description("Number of requests in flight")
+                .register(meterRegistry);
+        this.rejectedCounter = Counter.builder("certificate.authority.bulkhead.rejected")
+                .description("Number of requests rejected, because too many requests were in flight")
+                .register(meterRegistry);
+        this.requestTimer = Timer.builder("certificate.authority.request")
+                .description("Latency of requests")
+                .publishPercentileHistogram()
+                .register(meterRegistry);
+    }
+
+    /**
+     * @param endpoint - endpoint the request is sent to, for logging only
+     * @return sample of request latency, which has to be passed to {@link #release(Timer.Sample)} once
+     * the request completes, or {@link CertificateAuthorityBusyException}, wrapped with {@link Try}
+     */
+    public Try<Timer.Sample> acquire(Object endpoint) {
+        if (!permits.tryAcquire()) {
+            rejectedCounter.increment();
+            log.warn("Rejecting request to {}, too many requests are in flight already", endpoint);
+            return Try.failure(new CertificateAuthorityBusyException());
+        }
+        return Try.success(Timer.start());
+    }
+
+    public void release(Timer.Sample sample) {
+        permits.release();
+        sample.stop(requestTimer);
+    }
+}
@@ -1,23 +1,101 @@
 /* Copyright 2021 Mateusz Kubica */
 package com.mkubica.managementservice.util;
 
+import java.io.Closeable;
+import java.io.IOException;
+import java.time.Duration;
+import java.util.concurrent.TimeUnit;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.httpcomponents.PoolingHttpClientConnectionManagerMetricsBinder;
 import io.vavr.control.Try;
 import org.apache.http.HttpEntity;
-import org.apache.http.client.HttpClient;
+import org.apache.http.client.config.RequestConfig;
+import org.apache.http.client.methods.HttpGet;
 import org.apache.http.client.methods.HttpPost;
+import org.apache.http.client.methods.HttpUriRequest;
 import org.apache.http.entity.ContentType;
 import org.apache.http.entity.StringEntity;
 import org.apache.http.impl.client.BasicResponseHandler;
+import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.impl.client.DefaultConnectionKeepAliveStrategy;
 import org.apache.http.impl.client.HttpClientBuilder;
+import org.apache.http.impl.conn.PoolingHttpClientConnectionManager;
+
+
+/**
+ * Http client of certificate authority. Connections are pooled and kept alive between requests, connecting,
+ * waiting for pooled connection and reading response are bounded by timeouts. Number of requests in flight
+ * is bounded as well ({@link CertificateAuthorityBulkhead} shared with {@link AsyncHttpUtil}), request exceeding
+ * the bound fails immediately instead of holding calling thread, so slow certificate authority can't exhaust
+ * threads of the server.
+ *
+ * Pool usage is published to meter registry under name of the pool, requests are published by the bulkhead.
+ */
+public class HttpUtil implements Closeable {
 
-public class HttpUtil {
+    public static final String NAME = "certificate-authority";
 
-    HttpClient client = HttpClientBuilder.create().build();
+    private final PoolingHttpClientConnectionManager connectionManager;
+    private final CloseableHttpClient client;
+    private final CertificateAuthorityBulkhead bulkhead;
+
+    public HttpUtil(
+            int maxConnections,
+            Duration connectTimeout,
+            Duration readTimeout,
+            Duration keepAlive,
+            CertificateAuthorityBulkhead bulkhead,
+            MeterRegistry meterRegistry
+    ) {
+        this.connectionManager = new PoolingHttpClientConnectionManager();
+        // NOTE: all requests go to single certificate authority, so the only route may use whole pool
+        connectionManager.setMaxTotal(maxConnections);
+        connectionManager.setDefaultMaxPerRoute(maxConnections);
+        connectionManager.setValidateAfterInactivity((int) Duration.ofSeconds(2).toMillis());
+        this.client = HttpClientBuilder.create()
+                .setConnectionManager(connectionManager)
+                .setDefaultRequestConfig(RequestConfig.custom()
+                        .setConnectTimeout((int) connectTimeout.toMillis())
+                        .setConnectionRequestTimeout((int) connectTimeout.toMillis())
+                        .setSocketTimeout((int) readTimeout.toMillis())
+                        .build())
+                .setKeepAliveStrategy((response, context) -> {
+                    var keepAliveMillis = DefaultConnectionKeepAliveStrategy.INSTANCE.getKeepAliveDuration(response, context);
+                    return keepAliveMillis > 0 ? Math.min(keepAliveMillis, keepAlive.toMillis()) : keepAlive.toMillis();
+                })
+                .evictExpiredConnections()
+                .evictIdleConnections(keepAlive.toMillis(), TimeUnit.MILLISECONDS)
+                .build();
+        this.bulkhead = bulkhead;
+
+        new PoolingHttpClientConnectionManagerMetricsBinder(connectionManager, NAME).bindTo(meterRegistry);
+    }
 
     public Try<String> post(String endpoint, String body) {
         return Try.of(() -> new StringEntity(body, ContentType.APPLICATION_JSON))
                 .map(entity -> preparePostRequest(endpoint, entity))
-                .mapTry(request -> client.execute(request, new BasicResponseHandler()));
+                .flatMap(this::execute);
+    }
+
+    public Try<String> get(String endpoint) {
+        return Try.of(() -> new HttpGet(endpoint))
+                .flatMap(this::execute);
+    }
+
+    @Override
+    public void close() throws IOException {
+        client.close();
+    }
+
+    private Try<String> execute(HttpUriRequest request) {
+        return bulkhead.acquire(request.getURI()).flatMap(sample -> {
+            try {
+                return Try.of(() -> client.execute(request, new BasicResponseHandler()));
+            } finally {
+                bulkhead.release(sample);
+            }
+        });
     }
 
     private static HttpPost preparePostRequest(String endpoint, HttpEntity entity) {
@@ -0,0 +1,90 @@
+/* Copyright 2021 Mateusz Kubica */
+package com.mkubica.managementservice.util;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+import java.util.regex.Pattern;
+
+import io.vavr.Tuple;
+import io.vavr.Tuple2;
+import org.bouncycastle.openssl.PEMParser;
+import org.bouncycastle.openssl.jcajce.JcaPEMWriter;
+
+/**
+ * Converts certificates and keys between PEM text and compact form, which is DER together with label
+ * of the PEM block (e.g. 'CERTIFICATE', 'RSA PRIVATE KEY'). Only text which is single PEM block, laid out exactly
+ * as restored one (64 characters per line, every line terminated with LF, the way cfssl writes it), is compacted
+ * to DER, any other text is kept as is without label, so text is always restored byte to byte.
+ */
+public final class Pem {
+
+    private static final Pattern BLOCK = Pattern.compile(
+            "-----BEGIN ([A-Z0-9 ]+)-----\n([A-Za-z0-9+/=\n]+)-----END \\1-----\n");
+    private static final int LINE_LENGTH = 64;
+
+    private Pem() {
+    }
+
+    /**
+     * @param text - PEM text or any other text
+     * @return compact form and label, label is null when text is kept as is
+     */
+    public static Tuple2<byte[], String> compact(String text) {
+        if (text == null) {
+            return Tuple.of(null, null);
+        }
+        var matcher = BLOCK.matcher(text);
+        if (matcher.matches()) {
+            var label = matcher.group(1);
+            var der = Base64.getMimeDecoder().decode(matcher.group(2));
+            if (restore(der, label).equals(text)) {
+                return Tuple.of(der, label);
+            }
+        }
+        return Tuple.of(text.getBytes(StandardCharsets.UTF_8), null);
+    }
+
+    /**
+     * @param object - key, certificate, certificate signing request or any other object supported by BouncyCastle
+     * @return object encoded as PEM block
+     */
+    public static String encode(Object object) throws IOException {
+        var writer = new StringWriter();
+        try (var pemWriter = new JcaPEMWriter(writer)) {
+            pemWriter.writeObject(object);
+        }
+        return writer.toString();
+    }
+
+    /**
+     * @param text - PEM text
+     * @return object of the first PEM block (e.g. X509CertificateHolder, PEMKeyPair), as parsed by BouncyCastle
+     */
+    public static Object decode(String text) throws IOException {
+        try (var parser = new PEMParser(new StringReader(text))) {
+            var object = parser.readObject();
+            if (object == null) {
+                throw new IOException("No PEM block found");
+            }
+            return object;
+        }
+    }
+
+    public static String restore(byte[] compact, String label) {
+        return compact == null
+                ? null
+                : new String(restoreBytes(compact, label), StandardCharsets.UTF_8);
+    }
+
+    public static byte[] restoreBytes(byte[] compact, String label) {
+        if (compact == null || label == null) {
+            return compact;
+        }
+        var body = Base64.getMimeEncoder(LINE_LENGTH, new byte[] {'\n'}).encodeToString(compact);
+        return ("-----BEGIN " + label + "-----\n" + body + "\n-----END " + label + "-----\n")
+                .getBytes(StandardCharsets.US_ASCII);
+    }
+}
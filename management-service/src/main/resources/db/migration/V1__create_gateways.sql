@@ -0,0 +1,8 @@
+-- NOTE: mirrors schema which used to be generated by hibernate, so existing databases are baselined at this version
+create table gateways (
+    common_name varchar(255) not null,
+    certificate text,
+    private_key text,
+    ip_address  varchar(255),
+    primary key (common_name)
+);
@@ -0,0 +1,4 @@
+-- NOTE: gateways are looked up by ip address whenever it is provided explicitly, unique index turns that lookup
+-- into index scan and lets database reject duplicated addresses; listing is ordered by common name,
+-- which is already covered by primary key
+create unique index gateways_ip_address_key on gateways (ip_address);
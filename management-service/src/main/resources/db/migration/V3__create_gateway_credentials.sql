@@ -0,0 +1,11 @@
+-- NOTE: certificate and private key are kept in compact (DER) form, apart from gateways, so scans of gateways
+-- table don't touch them; label of PEM block is null when value is kept as text
+create table gateway_credentials (
+    common_name       varchar(255) not null,
+    certificate       bytea,
+    certificate_label varchar(64),
+    private_key       bytea,
+    private_key_label varchar(64),
+    primary key (common_name),
+    foreign key (common_name) references gateways (common_name) on delete cascade
+);
@@ -0,0 +1,3 @@
+-- NOTE: credentials have been moved to gateway_credentials table by V4
+alter table gateways drop column certificate;
+alter table gateways drop column private_key;
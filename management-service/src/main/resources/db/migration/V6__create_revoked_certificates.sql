@@ -0,0 +1,10 @@
+-- NOTE: certificates revoked in-process, expired ones are left out of revocation list (hence the index)
+create table revoked_certificates (
+    serial_number varchar(64)  not null,
+    common_name   varchar(255) not null,
+    revoked_at    timestamp    not null,
+    expires_at    timestamp    not null,
+    primary key (serial_number)
+);
+
+create index revoked_certificates_expires_at_key on revoked_certificates (expires_at);
@@ -0,0 +1,97 @@
+package com.mkubica.managementservice.provider.cert
+
+import spock.lang.*
+import spock.util.concurrent.PollingConditions
+
+import java.nio.file.Files
+import java.nio.file.StandardCopyOption
+import java.time.Duration
+import java.util.concurrent.atomic.AtomicInteger
+
+class WatchingCertificateProviderSpec extends Specification {
+
+    private File directory
+    private File caCertFile
+    private File taKeyFile
+    private WatchingCertificateProvider provider
+    private PollingConditions conditions = new PollingConditions(timeout: 5)
+
+    def setup() {
+        directory = File.createTempDir("common-")
+        caCertFile = new File(directory, "ca.crt")
+        taKeyFile = new File(directory, "ta.key")
+        caCertFile.write("some-cert")
+        taKeyFile.write("some-key")
+    }
+
+    def cleanup() {
+        provider?.shutdown()
+    }
+
+    def "certificate provider serves certificates out of memory"() {
+        given:
+            provider = new WatchingCertificateProvider(caCertFile.getPath(), taKeyFile.getPath(), Duration.ofMillis(50))
+
+        when: "files are removed after provider has been created"
+            caCertFile.delete()
+            taKeyFile.delete()
+
+        then: "last content is still served"
+            provider.obtainCACert().get() == "some-cert\n"
+            provider.obtainTAKey().get() == "some-key\n"
+            provider.obtainCACertBytes().get() == "some-cert\n".bytes
+            provider.obtainTAKeyBytes().get() == "some-key\n".bytes
+    }
+
+    def "certificate provider reloads rotated certificates and notifies listeners"() {
+        given:
+            provider = new WatchingCertificateProvider(caCertFile.getPath(), taKeyFile.getPath(), Duration.ofMillis(50))
+            def rotations = new AtomicInteger()
+            provider.addRotationListener({ rotations.incrementAndGet() })
+
+        when: "ca certificate is atomically replaced"
+            def rotated = new File(directory, "ca.crt.new")
+            rotated.write("some-rotated-cert")
+            Files.move(rotated.toPath(), caCertFile.toPath(), StandardCopyOption.ATOMIC_MOVE)
+
+        then: "new content is served"
+            conditions.eventually {
+                assert provider.obtainCACert().get() == "some-rotated-cert\n"
+                assert provider.obtainCACertBytes().get() == "some-rotated-cert\n".bytes
+            }
+        and: "listeners are notified"
+            rotations.get() >= 1
+        and: "ta key is untouched"
+            provider.obtainTAKey().get() == "some-key\n"
+    }
+
+    def "certificate provider reloads rotated certificates by polling"() {
+        given:
+            provider = new WatchingCertificateProvider(caCertFile.getPath(), taKeyFile.getPath(), Duration.ofMillis(50))
+
+        when: "ta key changes, without notifying watcher"
+            taKeyFile.write("some-longer-rotated-key")
+            provider.reloadIfRotated()
+
+        then: "new content is served"
+            provider.obtainTAKey().get() == "some-longer-rotated-key\n"
+    }
+
+    def "certificate provider loads certificates which appear after start"() {
+        given: "ca certificate doesn't exist at start"
+            caCertFile.delete()
+            provider = new WatchingCertificateProvider(caCertFile.getPath(), taKeyFile.getPath(), Duration.ofMillis(50))
+
+        expect: "failure is reported"
+            provider.obtainCACert().isFailure()
+            provider.obtainCACert().getCause() instanceof IOException
+
+        when: "ca certificate appears"
+            caCertFile.write("some-cert")
+
+        then: "its content is served"
+            conditions.eventually {
+                assert provider.obtainCACert().get() == "some-cert\n"
+            }
+    }
+}
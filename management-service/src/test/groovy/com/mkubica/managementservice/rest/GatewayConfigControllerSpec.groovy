@@ -0,0 +1,106 @@
+package com.mkubica.managementservice.rest
+
+import com.mkubica.managementservice.domain.dto.RenderedGatewayConfig
+import com.mkubica.managementservice.service.GatewayService
+import io.vavr.control.Option
+import io.vavr.control.Try
+import org.springframework.test.web.servlet.MockMvc
+import org.springframework.test.web.servlet.setup.MockMvcBuilders
+import spock.lang.Specification
+
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.*
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.*
+
+class GatewayConfigControllerSpec extends Specification {
+
+    private GatewayService gatewayService = Mock()
+    private MockMvc mockMvc = MockMvcBuilders
+            .standaloneSetup(new GatewayConfigController(gatewayService))
+            .build()
+    private static final RenderedGatewayConfig config = RenderedGatewayConfig.of("some-".bytes, "config".bytes)
+
+
+    def "get gateway config"() {
+        when:
+            def result = mockMvc.perform(get("/gateway-config/some-common-name"))
+
+        then: "config is rendered"
+            1 * gatewayService.getGatewayConfigEtag(_) >> Option.none()
+            1 * gatewayService.getRenderedGatewayConfig(_) >> Try.success(config)
+        and: "whole config is returned together with its length and etag"
+            result.andExpect(status().isOk())
+            result.andExpect(content().contentType("application/file"))
+            result.andExpect(content().string("some-config"))
+            result.andExpect(header().longValue("Content-Length", 11))
+            result.andExpect(header().string("ETag", "\"${config.etag()}\""))
+    }
+
+    def "get gateway config which hasn't been modified, when etag is known"() {
+        when:
+            def result = mockMvc.perform(get("/gateway-config/some-common-name")
+                    .header("If-None-Match", "\"${config.etag()}\""))
+
+        then: "config is not rendered"
+            1 * gatewayService.getGatewayConfigEtag(_) >> Option.some(config.etag())
+            0 * gatewayService.getRenderedGatewayConfig(_)
+        and: "not modified is returned"
+            result.andExpect(status().isNotModified())
+            result.andExpect(header().string("ETag", "\"${config.etag()}\""))
+            result.andExpect(content().string(""))
+    }
+
+    def "get gateway config which hasn't been modified, when etag is not known yet"() {
+        when:
+            def result = mockMvc.perform(get("/gateway-config/some-common-name")
+                    .header("If-None-Match", "\"${config.etag()}\""))
+
+        then: "config is rendered"
+            1 * gatewayService.getGatewayConfigEtag(_) >> Option.none()
+            1 * gatewayService.getRenderedGatewayConfig(_) >> Try.success(config)
+        and: "not modified is returned"
+            result.andExpect(status().isNotModified())
+            result.andExpect(content().string(""))
+    }
+
+    def "get gateway config which has been modified"() {
+        when:
+            def result = mockMvc.perform(get("/gateway-config/some-common-name")
+                    .header("If-None-Match", "\"some-outdated-etag\""))
+
+        then: "config is rendered"
+            1 * gatewayService.getGatewayConfigEtag(_) >> Option.some(config.etag())
+            1 * gatewayService.getRenderedGatewayConfig(_) >> Try.success(config)
+        and: "whole config is returned"
+            result.andExpect(status().isOk())
+            result.andExpect(content().string("some-config"))
+            result.andExpect(header().string("ETag", "\"${config.etag()}\""))
+    }
+
+    def "get gateway config which has been rendered again since its etag was known"() {
+        when:
+            def result = mockMvc.perform(get("/gateway-config/some-common-name")
+                    .header("If-None-Match", "\"some-outdated-etag\""))
+
+        then: "config is rendered"
+            1 * gatewayService.getGatewayConfigEtag(_) >> Option.some("some-stale-etag")
+            1 * gatewayService.getRenderedGatewayConfig(_) >> Try.success(config)
+        and: "whole config is returned with its own etag"
+            result.andExpect(status().isOk())
+            result.andExpect(content().string("some-config"))
+            result.andExpect(header().string("ETag", "\"${config.etag()}\""))
+    }
+
+    def "get gateway config which hasn't been modified, when known etag is stale"() {
+        when:
+            def result = mockMvc.perform(get("/gateway-config/some-common-name")
+                    .header("If-None-Match", "\"${config.etag()}\""))
+
+        then: "config is rendered"
+            1 * gatewayService.getGatewayConfigEtag(_) >> Option.some("some-stale-etag")
+            1 * gatewayService.getRenderedGatewayConfig(_) >> Try.success(config)
+        and: "not modified is returned with etag of rendered config"
+            result.andExpect(status().isNotModified())
+            result.andExpect(content().string(""))
+            result.andExpect(header().string("ETag", "\"${config.etag()}\""))
+    }
+}
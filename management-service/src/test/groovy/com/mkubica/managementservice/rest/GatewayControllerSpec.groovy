@@ -1,31 +1,40 @@
 package com.mkubica.managementservice.rest
 
-import com.mkubica.managementservice.domain.dao.GatewayEntity
+import com.mkubica.managementservice.domain.dao.GatewayWithCredentials
+import com.mkubica.managementservice.domain.dto.GatewayJobModel
+import com.mkubica.managementservice.domain.dto.GatewayModel
+import com.mkubica.managementservice.domain.dto.GatewaySummaryModel
 import com.mkubica.managementservice.repository.GatewayRepository
+import com.mkubica.managementservice.service.GatewayJobService
 import com.mkubica.managementservice.service.GatewayService
+import com.mkubica.managementservice.service.IdempotencyStore
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry
+import io.vavr.control.Try
+import org.springframework.http.ResponseEntity
 import org.springframework.test.web.servlet.MockMvc
 import org.springframework.test.web.servlet.setup.MockMvcBuilders
 import spock.lang.Specification
 
+import java.time.Duration
+
 import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.*
 import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.*
 
 class GatewayControllerSpec extends Specification {
 
     private GatewayService gatewayService = Stub()
-    private GatewayRepository gatewayRepository = Stub()
+    private GatewayRepository gatewayRepository = Mock()
+    private GatewayService gatewayServiceMock = Mock()
+    private GatewayJobService gatewayJobService = Mock()
+    private IdempotencyStore<ResponseEntity<?>> idempotencyStore = new IdempotencyStore<>(
+            100, Duration.ofMinutes(1), Duration.ofSeconds(5), new SimpleMeterRegistry())
     private MockMvc mockMvc = MockMvcBuilders
-            .standaloneSetup(new GatewayController(gatewayService, gatewayRepository))
+            .standaloneSetup(new GatewayController(gatewayService, gatewayRepository, gatewayJobService, idempotencyStore))
             .build()
 
 
     def "get list of available gateways"() {
         given:
-            gatewayRepository.findAll() >> List.of(
-                    GatewayEntity.builder().withCommonName("some-common-name-1").withIpAddress("10.10.10.2").build(),
-                    GatewayEntity.builder().withCommonName("some-common-name-2").withIpAddress("10.10.10.4").build()
-            )
-        and:
             def expectedResponse = "[\n" +
                     "    {\n" +
                     "        \"commonName\": \"some-common-name-1\",\n" +
@@ -40,10 +49,163 @@ class GatewayControllerSpec extends Specification {
         when:
             def result = mockMvc.perform(get("/gateway"))
 
-        then:
+        then: "first page of summaries is queried, no entity is loaded"
+            1 * gatewayRepository.findSummariesAfter("", { it.pageSize == 100 }) >> List.of(
+                    new GatewaySummaryModel("some-common-name-1", "10.10.10.2"),
+                    new GatewaySummaryModel("some-common-name-2", "10.10.10.4")
+            )
+            0 * gatewayRepository.findAll()
+            0 * gatewayRepository.findAllWithCredentialsAfter(_, _)
+        and:
             result.andExpect(status().is2xxSuccessful())
             result.andExpect(content().contentType("application/json"))
             result.andExpect(content().json(expectedResponse))
+            result.andExpect(jsonPath('$[0].certificate').doesNotExist())
+        and: "there is no next page"
+            result.andExpect(header().doesNotExist("Link"))
+    }
+
+    def "get page of available gateways"() {
+        when:
+            def result = mockMvc.perform(get("/gateway").param("after", "some-common-name-1").param("limit", "2"))
+
+        then: "page following provided common name is queried"
+            1 * gatewayRepository.findSummariesAfter("some-common-name-1", { it.pageSize == 2 }) >> List.of(
+                    new GatewaySummaryModel("some-common-name-2", "10.10.10.4"),
+                    new GatewaySummaryModel("some-common-name-3", "10.10.10.6")
+            )
+        and: "link to the next page is returned, since page is full"
+            result.andExpect(status().is2xxSuccessful())
+            result.andExpect(jsonPath('$.length()').value(2))
+            result.andExpect(header().string("Link",
+                    "<http://localhost/gateway?after=some-common-name-3&limit=2>; rel=\"next\""))
+    }
+
+    def "get page of available gateways when query is encoded"() {
+        when:
+            def result = mockMvc.perform(get(new URI("/gateway?after=some%20common-name-1&limit=2&tag=some%2Ctag")))
+
+        then: "page following decoded common name is queried"
+            1 * gatewayRepository.findSummariesAfter("some common-name-1", { it.pageSize == 2 }) >> List.of(
+                    new GatewaySummaryModel("some common-name-2", "10.10.10.4"),
+                    new GatewaySummaryModel("some common-name-3", "10.10.10.6")
+            )
+        and: "link to the next page keeps query encoded exactly once"
+            result.andExpect(status().is2xxSuccessful())
+            result.andExpect(header().string("Link",
+                    "<http://localhost/gateway?tag=some%2Ctag&after=some%20common-name-3&limit=2>; rel=\"next\""))
+    }
+
+    def "get page of available gateways with their keys"() {
+        when:
+            def result = mockMvc.perform(get("/gateway").param("with-keys", "true"))
+
+        then: "gateways are loaded together with their credentials"
+            1 * gatewayRepository.findAllWithCredentialsAfter("", _) >> List.of(
+                    Stub(GatewayWithCredentials) {
+                        getCommonName() >> "some-common-name-1"
+                        getIpAddress() >> "10.10.10.2"
+                        getCertificate() >> "some-certificate".bytes
+                        getPrivateKey() >> "some-private-key".bytes
+                    }
+            )
+            0 * gatewayRepository.findSummariesAfter(_, _)
+        and: "keys are returned"
+            result.andExpect(status().is2xxSuccessful())
+            result.andExpect(jsonPath('$[0].commonName').value("some-common-name-1"))
+            result.andExpect(jsonPath('$[0].certificate').value("some-certificate"))
+            result.andExpect(jsonPath('$[0].privateKey').value("some-private-key"))
+    }
+
+    def "page size is limited"() {
+        when:
+            mockMvc.perform(get("/gateway").param("limit", limit))
+
+        then:
+            1 * gatewayRepository.findSummariesAfter("", { it.pageSize == pageSize }) >> List.of()
+
+        where:
+            limit   | pageSize
+            "0"     | 1
+            "5000"  | 1000
+    }
+
+    def "post gateway and wait until it's created"() {
+        given:
+            gatewayService.createGateway(_ as GatewayModel)
+                    >> Try.success(new GatewayModel("some-common-name", "10.8.0.2", "crt", "pk"))
+
+        when:
+            def result = mockMvc.perform(post("/gateway")
+                    .contentType("application/json")
+                    .content('{"commonName": "some-common-name"}'))
+
+        then: "no job is submitted"
+            0 * gatewayJobService.submit(_)
+        and: "created gateway is returned"
+            result.andExpect(status().isOk())
+            result.andExpect(jsonPath('$.ipAddress').value("10.8.0.2"))
+    }
+
+    def "post gateway asynchronously"() {
+        when:
+            def result = mockMvc.perform(post("/gateway")
+                    .header("Prefer", "respond-async")
+                    .contentType("application/json")
+                    .content('{"commonName": "some-common-name"}'))
+
+        then: "job is submitted instead of creating gateway"
+            1 * gatewayJobService.submit(new GatewayModel("some-common-name", null, null, null))
+                    >> Try.success(new GatewayJobModel("some-id", "some-common-name", GatewayJobModel.Status.PENDING, null, null))
+        and: "job is accepted, its location is returned"
+            result.andExpect(status().isAccepted())
+            result.andExpect(header().string("Location", "http://localhost/gateway/job/some-id"))
+            result.andExpect(jsonPath('$.id').value("some-id"))
+            result.andExpect(jsonPath('$.status').value("PENDING"))
+    }
+
+    def "retried post with the same idempotency key gets response of the first one"() {
+        given:
+            def mockMvc = MockMvcBuilders
+                    .standaloneSetup(new GatewayController(gatewayServiceMock, gatewayRepository, gatewayJobService, idempotencyStore))
+                    .build()
+            def request = {
+                post("/gateway")
+                        .header("Idempotency-Key", "some-key")
+                        .contentType("application/json")
+                        .content('{"commonName": "some-common-name"}')
+            }
+
+        when: "post is retried"
+            def first = mockMvc.perform(request())
+            def retried = mockMvc.perform(request())
+
+        then: "gateway is created once"
+            1 * gatewayServiceMock.createGateway(new GatewayModel("some-common-name", null, null, null))
+                    >> Try.success(new GatewayModel("some-common-name", "10.8.0.2", "crt", "pk"))
+        and: "both responses are the same"
+            first.andExpect(status().isOk())
+            retried.andExpect(status().isOk())
+            retried.andExpect(content().json(first.andReturn().response.contentAsString))
+    }
+
+    def "reject idempotency key reused with different request"() {
+        given:
+            gatewayService.createGateway(_ as GatewayModel)
+                    >> Try.success(new GatewayModel("some-common-name", "10.8.0.2", "crt", "pk"))
+            mockMvc.perform(post("/gateway")
+                    .header("Idempotency-Key", "some-key")
+                    .contentType("application/json")
+                    .content('{"commonName": "some-common-name"}'))
+
+        when:
+            def result = mockMvc.perform(post("/gateway")
+                    .header("Idempotency-Key", "some-key")
+                    .contentType("application/json")
+                    .content('{"commonName": "other-common-name"}'))
+
+        then:
+            result.andExpect(status().isUnprocessableEntity())
     }
 
     // TODO: more cases of using controller(s)
@@ -0,0 +1,59 @@
+package com.mkubica.managementservice.rest
+
+import com.mkubica.managementservice.service.GatewayExportService
+import io.vavr.control.Try
+import org.springframework.test.web.servlet.MockMvc
+import org.springframework.test.web.servlet.setup.MockMvcBuilders
+import spock.lang.Specification
+
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.*
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.*
+
+class GatewayExportControllerSpec extends Specification {
+
+    private GatewayExportService gatewayExportService = Mock()
+    private MockMvc mockMvc = MockMvcBuilders
+            .standaloneSetup(new GatewayExportController(gatewayExportService))
+            .build()
+
+    def "export gateways"() {
+        when:
+            def result = mockMvc.perform(get("/gateway-export"))
+
+        then: "gateways are written by export service"
+            1 * gatewayExportService.exportGateways(false, _) >> { boolean withKeys, OutputStream outputStream ->
+                outputStream.write('{"commonName":"cn-1"}\n'.bytes)
+                Try.success(1L)
+            }
+        and: "export is returned"
+            result.andExpect(status().isOk())
+            result.andExpect(content().contentType("application/x-ndjson"))
+            result.andExpect(content().string('{"commonName":"cn-1"}\n'))
+    }
+
+    def "export which fails before anything has been sent"() {
+        when:
+            def result = mockMvc.perform(get("/gateway-export"))
+
+        then: "stream of gateways fails before first row"
+            1 * gatewayExportService.exportGateways(false, _) >> Try.failure(new IllegalStateException("cursor failed"))
+        and: "error is returned instead of empty export"
+            result.andExpect(status().isInternalServerError())
+            result.andExpect(content().string(""))
+    }
+
+    def "export which fails once part of it has been sent"() {
+        when:
+            def result = mockMvc.perform(get("/gateway-export"))
+
+        then: "stream of gateways fails after first rows have been flushed"
+            1 * gatewayExportService.exportGateways(false, _) >> { boolean withKeys, OutputStream outputStream ->
+                outputStream.write('{"commonName":"cn-1"}\n'.bytes)
+                outputStream.flush()
+                Try.failure(new IllegalStateException("cursor failed"))
+            }
+        and: "response is cut short"
+            result.andExpect(status().isOk())
+            result.andExpect(content().string('{"commonName":"cn-1"}\n'))
+    }
+}
@@ -0,0 +1,96 @@
+package com.mkubica.managementservice.rest.admission
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry
+import org.springframework.mock.web.MockFilterChain
+import org.springframework.mock.web.MockHttpServletRequest
+import org.springframework.mock.web.MockHttpServletResponse
+import spock.lang.Specification
+
+import javax.servlet.FilterChain
+
+import java.time.Duration
+
+class AdmissionControlFilterSpec extends Specification {
+
+    private SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry()
+    private AdmissionLimiter provisioningLimiter = new AdmissionLimiter(
+            "provisioning", 1, 1, 0, Duration.ofSeconds(2), Duration.ofSeconds(1), meterRegistry)
+    private AdmissionLimiter readLimiter = new AdmissionLimiter(
+            "reads", 1, 1, 0, Duration.ofSeconds(2), Duration.ofSeconds(1), meterRegistry)
+    private AdmissionControlFilter filter = new AdmissionControlFilter(provisioningLimiter, readLimiter)
+
+    def "reject provisioning over the limit, while reads are still admitted"() {
+        given: "provisioning is at its limit"
+            def permit = provisioningLimiter.acquire().get()
+
+        when: "another gateway is being created"
+            def rejected = perform("POST", "/gateway")
+
+        then: "request is rejected with retry-after"
+            rejected.status == 429
+            rejected.getHeader("Retry-After") == "2"
+
+        when: "gateway reads its config"
+            def read = perform("GET", "/gateway-config/some-common-name")
+
+        then: "request is admitted"
+            read.status == 200
+
+        cleanup:
+            permit.release()
+    }
+
+    def "release permit once request completes"() {
+        when:
+            perform("DELETE", "/gateway/some-common-name")
+            perform("GET", "/gateway")
+
+        then:
+            provisioningLimiter.inFlight() == 0
+            readLimiter.inFlight() == 0
+    }
+
+    def "don't adapt read limit to latency of streaming export"() {
+        given: "read limiter which considers every request slow"
+            def reads = new AdmissionLimiter("reads", 1, 4, 0, Duration.ofSeconds(2), Duration.ZERO, meterRegistry)
+            def filter = new AdmissionControlFilter(provisioningLimiter, reads)
+            def chain = { request, response -> Thread.sleep(5) }
+
+        when: "gateways are exported"
+            filter.doFilter(request("GET", "/gateway-export"), new MockHttpServletResponse(), chain as FilterChain)
+
+        then:
+            reads.limit() == 4
+            reads.inFlight() == 0
+
+        when: "gateway reads its config"
+            filter.doFilter(request("GET", "/gateway-config/some-common-name"), new MockHttpServletResponse(),
+                    chain as FilterChain)
+
+        then:
+            reads.limit() == 3
+    }
+
+    def "don't limit actuator endpoints"() {
+        given:
+            def permit = readLimiter.acquire().get()
+
+        expect:
+            perform("GET", "/actuator/health").status == 200
+
+        cleanup:
+            permit.release()
+    }
+
+    private MockHttpServletResponse perform(String method, String path) {
+        def response = new MockHttpServletResponse()
+        filter.doFilter(request(method, path), response, new MockFilterChain())
+        response
+    }
+
+    private static MockHttpServletRequest request(String method, String path) {
+        def request = new MockHttpServletRequest(method, path)
+        request.setServletPath(path)
+        request
+    }
+}
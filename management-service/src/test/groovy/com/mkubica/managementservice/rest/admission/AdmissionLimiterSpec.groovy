@@ -0,0 +1,152 @@
+package com.mkubica.managementservice.rest.admission
+
+import com.mkubica.managementservice.exception.AdmissionQueueFullException
+import com.mkubica.managementservice.exception.AdmissionTimeoutException
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry
+import spock.lang.Specification
+import spock.util.concurrent.PollingConditions
+
+import java.time.Duration
+import java.util.concurrent.ExecutorService
+import java.util.concurrent.Executors
+import java.util.concurrent.TimeUnit
+
+class AdmissionLimiterSpec extends Specification {
+
+    private SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry()
+    private ExecutorService executor = Executors.newSingleThreadExecutor()
+
+    def cleanup() {
+        executor.shutdownNow()
+    }
+
+    def "reject requests over the limit when queue is full"() {
+        given:
+            def limiter = limiter(1, 2, 0, Duration.ofSeconds(1))
+
+        when: "as many requests as the limit are admitted"
+            def admitted = (1..2).collect { limiter.acquire() }
+
+        then:
+            admitted.every { it.isSuccess() }
+            limiter.inFlight() == 2
+
+        when: "another request arrives"
+            def rejected = limiter.acquire()
+
+        then: "it's rejected immediately"
+            rejected.isFailure()
+            rejected.getCause() instanceof AdmissionQueueFullException
+            meterRegistry.get("admission.rejected").tag("reason", "queue-full").counter().count() == 1
+    }
+
+    def "admit queued request once permit is released"() {
+        given:
+            def limiter = limiter(1, 1, 1, Duration.ofSeconds(5))
+            def permit = limiter.acquire().get()
+
+        when: "request over the limit waits in queue"
+            def queued = executor.submit({ limiter.acquire() })
+            new PollingConditions(timeout: 5).eventually { assert limiter.queued() == 1 }
+
+        and: "admitted request completes"
+            permit.release(Duration.ofMillis(10))
+
+        then: "queued request is admitted"
+            queued.get(5, TimeUnit.SECONDS).isSuccess()
+            limiter.inFlight() == 1
+            limiter.queued() == 0
+    }
+
+    def "reject queued request which wasn't admitted in time"() {
+        given:
+            def limiter = limiter(1, 1, 1, Duration.ofMillis(50))
+            limiter.acquire().get()
+
+        when:
+            def res = limiter.acquire()
+
+        then:
+            res.isFailure()
+            res.getCause() instanceof AdmissionTimeoutException
+            limiter.queued() == 0
+            limiter.retryAfter() == Duration.ofSeconds(1)
+            meterRegistry.get("admission.rejected").tag("reason", "timeout").counter().count() == 1
+    }
+
+    def "lower the limit when latency exceeds target, but not below min limit"() {
+        given:
+            def limiter = limiter(2, 10, 0, Duration.ofSeconds(1))
+
+        when: "requests complete slower than target latency"
+            (1..50).each { limiter.acquire().get().release(Duration.ofSeconds(1)) }
+
+        then:
+            limiter.limit() == 2
+            meterRegistry.get("admission.limit").tag("class", "test").gauge().value() == 2
+    }
+
+    def "lower the limit once for burst of slow requests"() {
+        given:
+            def limiter = limiter(2, 10, 0, Duration.ofSeconds(1))
+
+        when: "burst of requests admitted together completes slower than target latency"
+            def permits = (1..10).collect { limiter.acquire().get() }
+            permits.each { it.release(Duration.ofSeconds(1)) }
+
+        then: "limit is cut only once"
+            limiter.limit() == 9
+
+        when: "request admitted after the cut is slow as well"
+            limiter.acquire().get().release(Duration.ofSeconds(1))
+
+        then: "limit is cut again"
+            limiter.limit() == 8
+    }
+
+    def "don't adapt the limit to latency of unmeasured requests"() {
+        given:
+            def limiter = limiter(2, 10, 0, Duration.ofSeconds(1))
+
+        when:
+            (1..10).each { limiter.acquire().get().releaseUnmeasured() }
+
+        then:
+            limiter.limit() == 10
+            limiter.inFlight() == 0
+    }
+
+    def "raise the limit back when it's in use and latency is within target"() {
+        given:
+            def limiter = limiter(2, 10, 0, Duration.ofSeconds(1))
+            (1..50).each { limiter.acquire().get().release(Duration.ofSeconds(1)) }
+
+        when: "the whole limit is in use and requests complete fast"
+            (1..200).each {
+                def permits = (1..limiter.limit()).collect { limiter.acquire().get() }
+                permits.each { it.release(Duration.ofMillis(10)) }
+            }
+
+        then: "the limit grows up to max limit"
+            limiter.limit() == 10
+    }
+
+    def "don't raise the limit when it's not in use"() {
+        given:
+            def limiter = limiter(2, 10, 0, Duration.ofSeconds(1))
+            (1..50).each { limiter.acquire().get().release(Duration.ofSeconds(1)) }
+            def permits = (1..2).collect { limiter.acquire().get() }
+            permits.each { it.release(Duration.ofMillis(10)) }
+            def raised = limiter.limit()
+
+        when: "single request at a time completes fast"
+            (1..200).each { limiter.acquire().get().release(Duration.ofMillis(10)) }
+
+        then:
+            limiter.limit() == raised
+    }
+
+    private AdmissionLimiter limiter(int minLimit, int maxLimit, int queueCapacity, Duration maxQueueWait) {
+        new AdmissionLimiter("test", minLimit, maxLimit, queueCapacity, maxQueueWait, Duration.ofMillis(100), meterRegistry)
+    }
+}
@@ -0,0 +1,184 @@
+package com.mkubica.managementservice.service
+
+import com.mkubica.managementservice.domain.dto.CertificateBundleModel
+import com.mkubica.managementservice.domain.dto.GatewayModel
+import com.mkubica.managementservice.exception.IpAddressPoolFullyAllocatedException
+import com.mkubica.managementservice.repository.GatewayRepository
+import com.mkubica.managementservice.service.cert.AsyncClientCertificateRequester
+import com.mkubica.managementservice.service.ip.IpAssigner
+import io.vavr.collection.List as VavrList
+import io.vavr.control.Try
+import spock.lang.Specification
+import spock.lang.Timeout
+
+import java.util.concurrent.CompletableFuture
+import java.util.concurrent.TimeUnit
+import java.util.concurrent.atomic.AtomicInteger
+
+class GatewayBatchServiceSpec extends Specification {
+
+    private GatewayRepository gatewayRepository = Mock()
+    private AsyncClientCertificateRequester clientCertificateRequester = Stub()
+    private IpAssigner ipAssigner = Mock()
+    private GatewayEntityCache gatewayEntityCache = Mock()
+    private GatewayBatchService gatewayBatchService
+            = new GatewayBatchService(gatewayRepository, gatewayEntityCache, clientCertificateRequester, ipAssigner, 4)
+
+    def "create batch of gateways without problems"() {
+        given: "ClientCertificateRequester stub that returns valid bundles"
+            clientCertificateRequester.requestBundleAsync(_ as String)
+                    >> { String cn -> CompletableFuture.completedFuture(new CertificateBundleModel("crt-$cn", "pk-$cn")) }
+
+        when: "createGateways method is called"
+            def res = gatewayBatchService.createGateways(VavrList.of(
+                    withNameAndIp("cn-1", null),
+                    withNameAndIp("cn-2", "10.8.0.10"),
+                    withNameAndIp("cn-3", null)))
+
+        then: "common names are checked with single query"
+            1 * gatewayRepository.findExistingCommonNames(["cn-1", "cn-2", "cn-3"]) >> []
+        and: "ip addresses are assigned at once"
+            1 * ipAssigner.assignIps(VavrList.of(new io.vavr.Tuple2("cn-1", null), new io.vavr.Tuple2("cn-2", "10.8.0.10"), new io.vavr.Tuple2("cn-3", null)))
+                    >> VavrList.of(Try.success("10.8.0.2"), Try.success("10.8.0.10"), Try.success("10.8.0.4"))
+        and: "entities and their credentials are persisted at once"
+            1 * gatewayRepository.persistAll({ it.size() == 3 }, { it.size() == 3 }) >> { args -> args[0] }
+        and: "persisted gateways are evicted from entity cache"
+            1 * gatewayEntityCache.invalidateAll(VavrList.of("cn-1", "cn-2", "cn-3"))
+        and: "every gateway has been created"
+            res.size() == 3
+            res.every { it.created }
+            res.map { it.gateway } == VavrList.of(
+                    new GatewayModel("cn-1", "10.8.0.2", "crt-cn-1", "pk-cn-1"),
+                    new GatewayModel("cn-2", "10.8.0.10", "crt-cn-2", "pk-cn-2"),
+                    new GatewayModel("cn-3", "10.8.0.4", "crt-cn-3", "pk-cn-3"))
+    }
+
+    def "invalid items of the batch fail, remaining items are created"() {
+        given: "repository that contains one of requested common names"
+            gatewayRepository.findExistingCommonNames(_) >> ["existing"]
+        and: "IpAssigner stub that assigns ips to remaining items"
+            ipAssigner.assignIps(_) >> { args -> args[0].map { Try.success("10.8.0.2") } }
+        and: "ClientCertificateRequester stub that returns valid bundle"
+            clientCertificateRequester.requestBundleAsync(_ as String) >> CompletableFuture.completedFuture(new CertificateBundleModel("crt", "pk"))
+        and: "GatewayRepository that persists entities"
+            gatewayRepository.persistAll(_, _) >> { args -> args[0] }
+
+        when: "createGateways method is called"
+            def res = gatewayBatchService.createGateways(VavrList.of(
+                    withNameAndIp("existing", null),
+                    withNameAndIp(" ", null),
+                    withNameAndIp("cn-1", "blah"),
+                    withNameAndIp("cn-2", null),
+                    withNameAndIp("cn-2", null)))
+
+        then: "result is reported for each item"
+            res.map { it.created } == VavrList.of(false, false, false, true, false)
+            res[0].error.startsWith("CommonNameNotUniqueException")
+            res[1].error.startsWith("CommonNameBlankException")
+            res[2].error.startsWith("IpAddressStringInvalidException")
+            res[3].gateway.commonName == "cn-2"
+            res[4].error.startsWith("CommonNameNotUniqueException")
+    }
+
+    def "failed certificate request releases assigned ip"() {
+        given:
+            gatewayRepository.findExistingCommonNames(_) >> []
+            ipAssigner.assignIps(_) >> VavrList.of(Try.success("10.8.0.2"), Try.failure(new IpAddressPoolFullyAllocatedException()))
+            clientCertificateRequester.requestBundleAsync("cn-1") >> CompletableFuture.failedFuture(new IOException())
+
+        when: "createGateways method is called"
+            def res = gatewayBatchService.createGateways(VavrList.of(withNameAndIp("cn-1", null), withNameAndIp("cn-2", null)))
+
+        then: "ip assigned to item with failed certificate request is released"
+            1 * ipAssigner.releaseIp("cn-1", "10.8.0.2") >> Try.success("10.8.0.2")
+        and: "nothing is persisted"
+            0 * gatewayRepository.persistAll(_, _)
+        and: "both items fail"
+            res.map { it.created } == VavrList.of(false, false)
+            res[0].error == "IOException"
+            res[1].error.startsWith("IpAddressPoolFullyAllocatedException")
+    }
+
+    def "failed persistence of every item rolls back whole batch"() {
+        given:
+            gatewayRepository.findExistingCommonNames(_) >> []
+            ipAssigner.assignIps(_) >> VavrList.of(Try.success("10.8.0.2"), Try.success("10.8.0.4"))
+            clientCertificateRequester.requestBundleAsync(_ as String) >> CompletableFuture.completedFuture(new CertificateBundleModel("crt", "pk"))
+            gatewayRepository.persistAll(_, _) >> { throw new RuntimeException("db is down") }
+            gatewayEntityCache.save(_, _) >> { throw new RuntimeException("db is down") }
+
+        when: "createGateways method is called"
+            def res = gatewayBatchService.createGateways(VavrList.of(withNameAndIp("cn-1", null), withNameAndIp("cn-2", null)))
+
+        then: "ips of all items are released"
+            1 * ipAssigner.releaseIp("cn-1", "10.8.0.2") >> Try.success("10.8.0.2")
+            1 * ipAssigner.releaseIp("cn-2", "10.8.0.4") >> Try.success("10.8.0.4")
+        and: "all items fail"
+            res.map { it.error } == VavrList.of("RuntimeException: db is down", "RuntimeException: db is down")
+    }
+
+    def "failed batch insert is retried item by item, only failing items are rolled back"() {
+        given:
+            gatewayRepository.findExistingCommonNames(_) >> []
+            ipAssigner.assignIps(_) >> VavrList.of(Try.success("10.8.0.2"), Try.success("10.8.0.4"))
+            clientCertificateRequester.requestBundleAsync(_ as String) >> CompletableFuture.completedFuture(new CertificateBundleModel("crt", "pk"))
+        and: "batch insert which fails, because one of common names has been taken meanwhile"
+            gatewayRepository.persistAll(_, _) >> { throw new RuntimeException("duplicate key") }
+
+        when: "createGateways method is called"
+            def res = gatewayBatchService.createGateways(VavrList.of(withNameAndIp("cn-1", null), withNameAndIp("cn-2", null)))
+
+        then: "items are persisted one by one"
+            1 * gatewayEntityCache.save({ it.commonName == "cn-1" }, _) >> { throw new RuntimeException("duplicate key") }
+            1 * gatewayEntityCache.save({ it.commonName == "cn-2" }, _) >> { args -> args[0] }
+        and: "only ip of failing item is released"
+            1 * ipAssigner.releaseIp("cn-1", "10.8.0.2") >> Try.success("10.8.0.2")
+            0 * ipAssigner.releaseIp("cn-2", _)
+        and: "only failing item fails"
+            res.map { it.error } == VavrList.of("RuntimeException: duplicate key", null)
+            res.map { it.created } == VavrList.of(false, true)
+    }
+
+    def "number of certificate requests in flight is bounded"() {
+        given: "ClientCertificateRequester stub that completes requests asynchronously"
+            def inFlight = new AtomicInteger()
+            def maxInFlight = new AtomicInteger()
+            clientCertificateRequester.requestBundleAsync(_ as String) >> {
+                maxInFlight.accumulateAndGet(inFlight.incrementAndGet(), { a, b -> Math.max(a, b) })
+                CompletableFuture.supplyAsync({
+                    inFlight.decrementAndGet()
+                    new CertificateBundleModel("crt", "pk")
+                }, CompletableFuture.delayedExecutor(10, TimeUnit.MILLISECONDS))
+            }
+            gatewayRepository.findExistingCommonNames(_) >> []
+            ipAssigner.assignIps(_) >> { args -> args[0].map { Try.success("10.8.0.2") } }
+            gatewayRepository.persistAll(_, _) >> { args -> args[0] }
+
+        when: "batch larger than the bound is created"
+            def res = gatewayBatchService.createGateways(VavrList.range(0, 10).map { withNameAndIp("cn-$it", null) })
+
+        then: "every gateway has been created, but no more than 4 requests have been in flight at once"
+            res.every { it.created }
+            maxInFlight.get() <= 4
+    }
+
+    @Timeout(5)
+    def "certificate request failing before it's sent doesn't hold its permit"() {
+        given: "ClientCertificateRequester stub that throws instead of returning future"
+            clientCertificateRequester.requestBundleAsync(_ as String) >> { throw new IllegalStateException("bulkhead is full") }
+            gatewayRepository.findExistingCommonNames(_) >> []
+            ipAssigner.assignIps(_) >> { args -> args[0].map { Try.success("10.8.0.2") } }
+
+        when: "batch larger than the bound is created"
+            def res = gatewayBatchService.createGateways(VavrList.range(0, 10).map { withNameAndIp("cn-$it", null) })
+
+        then: "every item fails without blocking the batch and its ip is released"
+            10 * ipAssigner.releaseIp(_, "10.8.0.2") >> Try.success("10.8.0.2")
+            res.size() == 10
+            res.every { it.error == "IllegalStateException: bulkhead is full" }
+    }
+
+    static GatewayModel withNameAndIp(String commonName, String ip) {
+        return GatewayModel.builder().withCommonName(commonName).withIpAddress(ip).build()
+    }
+}
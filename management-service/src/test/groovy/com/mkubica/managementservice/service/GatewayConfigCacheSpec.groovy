@@ -0,0 +1,102 @@
+package com.mkubica.managementservice.service
+
+import com.mkubica.managementservice.domain.dto.RenderedGatewayConfig
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry
+import io.vavr.control.Try
+import spock.lang.Specification
+
+import java.time.Duration
+
+class GatewayConfigCacheSpec extends Specification {
+
+    private SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry()
+    private GatewayConfigCache gatewayConfigCache = new GatewayConfigCache(2, 100, Duration.ofMinutes(1), meterRegistry)
+
+    def "render config only on cache miss"() {
+        given: "renderer which counts its invocations"
+            def renders = 0
+            def renderer = { String commonName -> renders++; Try.success(rendered(commonName)) }
+
+        when: "getting config of the same common name twice"
+            def first = gatewayConfigCache.get("some-common-name", renderer)
+            def second = gatewayConfigCache.get("some-common-name", renderer)
+
+        then: "config is rendered once"
+            renders == 1
+            new String(first.get().toByteArray()) == "some-common-name"
+            second.get() == first.get()
+        and: "hits and misses are published"
+            meterRegistry.get("cache.gets").tag("cache", GatewayConfigCache.CACHE_NAME).tag("result", "hit")
+                    .functionCounter().count() == 1
+            meterRegistry.get("cache.gets").tag("cache", GatewayConfigCache.CACHE_NAME).tag("result", "miss")
+                    .functionCounter().count() == 1
+    }
+
+    def "failure of renderer is not cached"() {
+        when: "renderer fails"
+            def res = gatewayConfigCache.get("some-common-name", { Try.failure(new IOException()) })
+
+        then: "failure is reported"
+            res.isFailure()
+            res.getCause() instanceof IOException
+        and: "config is rendered again on next request"
+            gatewayConfigCache.get("some-common-name", { Try.success(rendered("config")) }).isSuccess()
+    }
+
+    def "invalidate cached config"() {
+        given: "configs of couple of common names have been cached"
+            gatewayConfigCache.get("some-common-name-1", { Try.success(rendered("config-1")) })
+            gatewayConfigCache.get("some-common-name-2", { Try.success(rendered("config-2")) })
+
+        when: "invalidating one of them"
+            gatewayConfigCache.invalidate("some-common-name-1")
+
+        then: "only invalidated config is rendered again"
+            getOrRender("some-common-name-1", "new-config-1") == "new-config-1"
+            getOrRender("some-common-name-2", "new-config-2") == "config-2"
+
+        when: "invalidating all of them"
+            gatewayConfigCache.invalidateAll()
+
+        then: "every config is rendered again"
+            getOrRender("some-common-name-2", "new-config-2") == "new-config-2"
+    }
+
+    def "keep etag of rendered config"() {
+        given: "config of certain common name has been cached"
+            def config = gatewayConfigCache.get("some-common-name", { Try.success(rendered("config")) }).get()
+
+        expect: "its etag is known"
+            gatewayConfigCache.getEtag("some-common-name").get() == config.etag()
+            gatewayConfigCache.getEtag("some-other-common-name").isEmpty()
+
+        when: "configs of more common names are cached, so that the first one is evicted"
+            (1..10).each { gatewayConfigCache.get("some-common-name-" + it, { Try.success(rendered("config")) }) }
+            gatewayConfigCache.renderedConfigs.cleanUp()
+
+        then: "etag is still known"
+            gatewayConfigCache.renderedConfigs.estimatedSize() <= 2
+            gatewayConfigCache.getEtag("some-common-name").isDefined()
+
+        when: "config is invalidated"
+            gatewayConfigCache.invalidate("some-common-name")
+
+        then: "its etag is not known anymore"
+            gatewayConfigCache.getEtag("some-common-name").isEmpty()
+    }
+
+    def "etag depends on every segment of config"() {
+        expect:
+            RenderedGatewayConfig.of("a".bytes, "b".bytes).etag() == RenderedGatewayConfig.of("a".bytes, "b".bytes).etag()
+            RenderedGatewayConfig.of("a".bytes, "b".bytes).etag() != RenderedGatewayConfig.of("a".bytes, "c".bytes).etag()
+            RenderedGatewayConfig.of("a".bytes, "b".bytes).etag() ==~ /[0-9a-f]{64}/
+    }
+
+    private String getOrRender(String commonName, String config) {
+        return new String(gatewayConfigCache.get(commonName, { Try.success(rendered(config)) }).get().toByteArray())
+    }
+
+    static RenderedGatewayConfig rendered(String config) {
+        return RenderedGatewayConfig.of(config.bytes)
+    }
+}
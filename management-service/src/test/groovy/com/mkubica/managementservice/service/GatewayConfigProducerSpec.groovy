@@ -1,6 +1,7 @@
 package com.mkubica.managementservice.service
 
-import com.mkubica.managementservice.domain.dao.GatewayEntity
+import com.mkubica.managementservice.domain.dao.GatewayCredentialsEntity
+import com.mkubica.managementservice.domain.dto.GatewayModel
 import com.mkubica.managementservice.provider.TemplateProvider
 import com.mkubica.managementservice.provider.cert.CertificateProvider
 import io.vavr.control.Try
@@ -12,25 +13,25 @@ class GatewayConfigProducerSpec extends Specification {
     private CertificateProvider certificateProvider = Stub()
     private GatewayConfigProducer gatewayConfigProducer
             = new GatewayConfigProducer("localhost", "443", templateProvider, certificateProvider)
-    private static GatewayEntity gatewayEntity
+    private static GatewayCredentialsEntity gatewayCredentials
 
     def setupSpec() {
-        gatewayEntity = GatewayEntity.builder()
+        gatewayCredentials = GatewayCredentialsEntity.from(GatewayModel.builder()
                 .withCommonName("some-common-name")
                 .withIpAddress("10.8.0.5 10.8.0.6")
                 .withPrivateKey("some-private-key")
                 .withCertificate("some-certificate")
-                .build()
+                .build())
     }
 
-    def "produce GatewayConfigModel from GatewayEntity"() {
+    def "produce GatewayConfigModel from GatewayCredentialsEntity"() {
         given:
             templateProvider.obtainTemplate("static/base.conf") >> Try.success(CONFIG_BASE)
             certificateProvider.obtainCACert() >> Try.success("some-ca-cert")
             certificateProvider.obtainTAKey() >> Try.success("some-ta-key")
 
         when:
-            def res = gatewayConfigProducer.produceFrom(gatewayEntity)
+            def res = gatewayConfigProducer.produceFrom(gatewayCredentials)
 
         then:
             res.isSuccess()
@@ -46,38 +47,85 @@ class GatewayConfigProducerSpec extends Specification {
             }
     }
 
-    def "produce GatewayConfigModel from GatewayEntity, fail to obtain config template"() {
+    def "produce GatewayConfigModel from GatewayCredentialsEntity, fail to obtain config template"() {
         given:
             templateProvider.obtainTemplate("static/base.conf") >> Try.failure(new NoSuchElementException())
 
         when:
-            def res = gatewayConfigProducer.produceFrom(gatewayEntity)
+            def res = gatewayConfigProducer.produceFrom(gatewayCredentials)
 
         then:
             res.isFailure()
             res.getCause() instanceof NoSuchElementException
     }
 
-    def "produce GatewayConfigModel from GatewayEntity, fail to obtain ta key"() {
+    def "produce GatewayConfigModel from GatewayCredentialsEntity, fail to obtain ta key"() {
         given:
             templateProvider.obtainTemplate("static/base.conf") >> Try.success(CONFIG_BASE)
             certificateProvider.obtainTAKey() >> Try.failure(new IOException())
 
         when:
-            def res = gatewayConfigProducer.produceFrom(gatewayEntity)
+            def res = gatewayConfigProducer.produceFrom(gatewayCredentials)
 
         then:
             res.isFailure()
             res.getCause() instanceof IOException
     }
 
-    def "produce GatewayConfigModel from GatewayEntity, fail to obtain ca cert"() {
+    def "produce GatewayConfigModel from GatewayCredentialsEntity, fail to obtain ca cert"() {
         given:
             templateProvider.obtainTemplate("static/base.conf") >> Try.success(CONFIG_BASE)
             certificateProvider.obtainCACert() >> Try.failure(new IOException())
 
         when:
-            def res = gatewayConfigProducer.produceFrom(gatewayEntity)
+            def res = gatewayConfigProducer.produceFrom(gatewayCredentials)
+
+        then:
+            res.isFailure()
+            res.getCause() instanceof IOException
+    }
+
+    def "render config from GatewayCredentialsEntity, same as produced GatewayConfigModel"() {
+        given:
+            templateProvider.obtainTemplate("static/base.conf") >> Try.success(CONFIG_BASE)
+            certificateProvider.obtainCACert() >> Try.success("some-ca-cert\n")
+            certificateProvider.obtainTAKey() >> Try.success("some-ta-key\n")
+            certificateProvider.obtainCACertBytes() >> Try.success("some-ca-cert\n".bytes)
+            certificateProvider.obtainTAKeyBytes() >> Try.success("some-ta-key\n".bytes)
+
+        when:
+            def res = gatewayConfigProducer.renderFrom(gatewayCredentials)
+
+        then: "rendered config is byte to byte equal to produced one"
+            res.isSuccess()
+            def expected = gatewayConfigProducer.produceFrom(gatewayCredentials).get().makeString().bytes
+            res.get().toByteArray() == expected
+            res.get().contentLength() == expected.length
+    }
+
+    def "render config from GatewayCredentialsEntity, template is read only once"() {
+        given:
+            def templateProviderMock = Mock(TemplateProvider)
+            def producer = new GatewayConfigProducer("localhost", "443", templateProviderMock, certificateProvider)
+            certificateProvider.obtainCACertBytes() >> Try.success("some-ca-cert\n".bytes)
+            certificateProvider.obtainTAKeyBytes() >> Try.success("some-ta-key\n".bytes)
+
+        when: "rendering couple of configs"
+            def first = producer.renderFrom(gatewayCredentials)
+            def second = producer.renderFrom(gatewayCredentials)
+
+        then:
+            1 * templateProviderMock.obtainTemplate("static/base.conf") >> Try.success(CONFIG_BASE)
+            first.get().toByteArray() == second.get().toByteArray()
+    }
+
+    def "render config from GatewayCredentialsEntity, fail to obtain ca cert"() {
+        given:
+            templateProvider.obtainTemplate("static/base.conf") >> Try.success(CONFIG_BASE)
+            certificateProvider.obtainCACertBytes() >> Try.failure(new IOException())
+
+        when:
+            def res = gatewayConfigProducer.renderFrom(gatewayCredentials)
 
         then:
             res.isFailure()
@@ -0,0 +1,128 @@
+package com.mkubica.managementservice.service
+
+import com.mkubica.managementservice.domain.dao.GatewayCredentialsEntity
+import com.mkubica.managementservice.domain.dao.GatewayEntity
+import com.mkubica.managementservice.repository.GatewayCredentialsRepository
+import com.mkubica.managementservice.repository.GatewayRepository
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry
+import io.vavr.control.Option
+import spock.lang.Specification
+
+import java.time.Duration
+
+class GatewayEntityCacheSpec extends Specification {
+
+    private GatewayRepository gatewayRepository = Mock()
+    private GatewayCredentialsRepository gatewayCredentialsRepository = Mock()
+    private SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry()
+    private GatewayEntity entity = new GatewayEntity("some-common-name", "10.8.0.2")
+    private GatewayCredentialsEntity credentials = GatewayCredentialsEntity.builder()
+            .withCommonName("some-common-name")
+            .withCertificate("crt".bytes)
+            .withPrivateKey("pk".bytes)
+            .build()
+
+    def "look up gateway only once"() {
+        given:
+            def cache = cache(true)
+
+        when: "getting gateway of the same common name twice"
+            def first = cache.getGatewayEntityByCommonName("some-common-name")
+            def second = cache.getGatewayEntityByCommonName("some-common-name")
+
+        then: "repository is queried once"
+            1 * gatewayRepository.getGatewayEntityByCommonName("some-common-name") >> Option.of(entity)
+        and: "gateway is returned"
+            first.get().is(entity)
+            second.get().is(entity)
+        and: "hits and misses are published"
+            meterRegistry.get("cache.gets").tag("cache", GatewayEntityCache.CACHE_NAME).tag("result", "hit")
+                    .functionCounter().count() == 1
+    }
+
+    def "look up not existing gateway only once"() {
+        given:
+            def cache = cache(true)
+
+        when: "getting not existing gateway twice"
+            def first = cache.getGatewayEntityByCommonName("some-common-name")
+            def second = cache.getGatewayEntityByCommonName("some-common-name")
+
+        then: "repository is queried once"
+            1 * gatewayRepository.getGatewayEntityByCommonName("some-common-name") >> Option.none()
+        and: "gateway is not found"
+            first.isEmpty()
+            second.isEmpty()
+    }
+
+    def "evict gateway on save and delete"() {
+        given: "not existing gateway has been cached"
+            def cache = cache(true)
+            gatewayRepository.getGatewayEntityByCommonName("some-common-name") >>> [Option.none(), Option.of(entity), Option.none()]
+            cache.getGatewayEntityByCommonName("some-common-name")
+
+        when: "gateway is saved together with its credentials"
+            cache.save(entity, credentials)
+
+        then: "it is found"
+            1 * gatewayRepository.persist(entity, credentials) >> entity
+            cache.getGatewayEntityByCommonName("some-common-name").isDefined()
+
+        when: "gateway is deleted"
+            cache.delete(entity)
+
+        then: "it is not found anymore"
+            1 * gatewayRepository.delete(entity)
+            cache.getGatewayEntityByCommonName("some-common-name").isEmpty()
+    }
+
+    def "look up credentials only once"() {
+        given: "cache which holds private keys"
+            def cache = cache(true)
+
+        when: "getting credentials of the same gateway twice"
+            def first = cache.getGatewayCredentialsByCommonName("some-common-name")
+            def second = cache.getGatewayCredentialsByCommonName("some-common-name")
+
+        then: "credentials repository is queried once, gateway itself is not loaded"
+            1 * gatewayCredentialsRepository.getGatewayCredentialsEntityByCommonName("some-common-name") >> Option.of(credentials)
+            0 * gatewayRepository.getGatewayEntityByCommonName(_)
+        and: "credentials are returned"
+            first.get().is(credentials)
+            second.get().is(credentials)
+            meterRegistry.get("cache.gets").tag("cache", GatewayEntityCache.CREDENTIALS_CACHE_NAME).tag("result", "hit")
+                    .functionCounter().count() == 1
+    }
+
+    def "don't cache credentials, when private keys are not allowed to be cached"() {
+        given: "cache which doesn't hold private keys"
+            def cache = cache(false)
+
+        when: "getting credentials of the same gateway twice"
+            cache.getGatewayCredentialsByCommonName("some-common-name")
+            def res = cache.getGatewayCredentialsByCommonName("some-common-name")
+
+        then: "credentials repository is queried each time"
+            2 * gatewayCredentialsRepository.getGatewayCredentialsEntityByCommonName("some-common-name") >> Option.of(credentials)
+            res.get().privateKeyText() == "pk"
+    }
+
+    def "serve credentials of not existing gateway out of cache, even if private keys are not cached"() {
+        given: "cache which doesn't hold private keys"
+            def cache = cache(false)
+
+        when: "getting gateway and then credentials of not existing gateway"
+            cache.getGatewayEntityByCommonName("some-common-name")
+            def res = cache.getGatewayCredentialsByCommonName("some-common-name")
+
+        then: "gateway is queried once, credentials are not queried at all"
+            1 * gatewayRepository.getGatewayEntityByCommonName("some-common-name") >> Option.none()
+            0 * gatewayCredentialsRepository.getGatewayCredentialsEntityByCommonName(_)
+            res.isEmpty()
+    }
+
+    private GatewayEntityCache cache(boolean cachePrivateKeys) {
+        return new GatewayEntityCache(gatewayRepository, gatewayCredentialsRepository,
+                100, Duration.ofMinutes(1), cachePrivateKeys, meterRegistry)
+    }
+}
@@ -0,0 +1,114 @@
+package com.mkubica.managementservice.service
+
+import com.fasterxml.jackson.databind.ObjectMapper
+import com.mkubica.managementservice.domain.dao.GatewayWithCredentials
+import com.mkubica.managementservice.domain.dto.GatewaySummaryModel
+import com.mkubica.managementservice.repository.GatewayRepository
+import org.springframework.transaction.PlatformTransactionManager
+import org.springframework.transaction.TransactionStatus
+import spock.lang.Specification
+
+import java.util.stream.Stream
+
+class GatewayExportServiceSpec extends Specification {
+
+    private GatewayRepository gatewayRepository = Mock()
+    private PlatformTransactionManager transactionManager = Mock()
+    private GatewayExportService gatewayExportService
+            = new GatewayExportService(gatewayRepository, transactionManager, new ObjectMapper())
+
+    def "export gateways without keys"() {
+        given:
+            def outputStream = new ByteArrayOutputStream()
+            def closed = false
+
+        when: "exporting gateways"
+            def res = gatewayExportService.exportGateways(false, outputStream)
+
+        then: "summaries are streamed within transaction"
+            1 * transactionManager.getTransaction(_) >> Stub(TransactionStatus)
+            1 * gatewayRepository.streamAllSummaries() >> Stream.of(
+                    new GatewaySummaryModel("cn-1", "10.8.0.2"),
+                    new GatewaySummaryModel("cn-2", "10.8.0.4")).onClose { closed = true }
+            0 * gatewayRepository.streamAllWithCredentials()
+            1 * transactionManager.commit(_)
+        and: "every gateway is written in separate line"
+            res.get() == 2
+            outputStream.toString() ==
+                    '{"commonName":"cn-1","ipAddress":"10.8.0.2"}\n' +
+                    '{"commonName":"cn-2","ipAddress":"10.8.0.4"}\n'
+        and: "stream is closed"
+            closed
+    }
+
+    def "export gateways with keys"() {
+        given:
+            def outputStream = new ByteArrayOutputStream()
+
+        when: "exporting gateways with keys"
+            def res = gatewayExportService.exportGateways(true, outputStream)
+
+        then: "gateways are streamed together with their credentials"
+            1 * transactionManager.getTransaction(_) >> Stub(TransactionStatus)
+            1 * gatewayRepository.streamAllWithCredentials() >> Stream.of(Stub(GatewayWithCredentials) {
+                getCommonName() >> "cn-1"
+                getIpAddress() >> "10.8.0.2"
+                getCertificate() >> "crt".bytes
+                getPrivateKey() >> "pk".bytes
+            })
+            0 * gatewayRepository.streamAllSummaries()
+        and: "certificate and private key are written"
+            res.get() == 1
+            outputStream.toString() ==
+                    '{"commonName":"cn-1","ipAddress":"10.8.0.2","certificate":"crt","privateKey":"pk"}\n'
+    }
+
+    def "export no gateways"() {
+        given:
+            def outputStream = new ByteArrayOutputStream()
+            transactionManager.getTransaction(_) >> Stub(TransactionStatus)
+            gatewayRepository.streamAllSummaries() >> Stream.empty()
+
+        when: "exporting gateways when there are none"
+            def res = gatewayExportService.exportGateways(false, outputStream)
+
+        then: "nothing is written"
+            res.get() == 0
+            outputStream.size() == 0
+    }
+
+    def "export which fails before first gateway doesn't flush output stream"() {
+        given:
+            def outputStream = Mock(OutputStream)
+            transactionManager.getTransaction(_) >> Stub(TransactionStatus)
+            gatewayRepository.streamAllSummaries() >> Stream.generate { throw new IllegalStateException("cursor failed") }
+
+        when: "exporting gateways"
+            def res = gatewayExportService.exportGateways(false, outputStream)
+
+        then: "failure is reported"
+            res.isFailure()
+            res.getCause() instanceof IllegalStateException
+        and: "nothing is written nor flushed"
+            0 * outputStream.write(*_)
+            0 * outputStream.flush()
+    }
+
+    def "export gateways to broken stream"() {
+        given: "output stream which fails"
+            def outputStream = Stub(OutputStream) {
+                write(*_) >> { throw new IOException() }
+            }
+
+        when: "exporting gateways"
+            def res = gatewayExportService.exportGateways(false, outputStream)
+
+        then: "transaction is rolled back"
+            1 * transactionManager.getTransaction(_) >> Stub(TransactionStatus)
+            1 * gatewayRepository.streamAllSummaries() >> Stream.of(new GatewaySummaryModel("cn-1", "10.8.0.2"))
+            1 * transactionManager.rollback(_)
+        and: "failure is reported"
+            res.isFailure()
+            res.getCause() instanceof UncheckedIOException
+    }
+}
@@ -0,0 +1,194 @@
+package com.mkubica.managementservice.service
+
+import com.mkubica.managementservice.domain.dto.GatewayJobModel
+import com.mkubica.managementservice.domain.dto.GatewayModel
+import com.mkubica.managementservice.exception.CommonNameNotUniqueException
+import com.mkubica.managementservice.exception.GatewayJobNotFoundException
+import com.mkubica.managementservice.exception.GatewayJobQueueFullException
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry
+import io.vavr.control.Try
+import spock.lang.Specification
+import spock.util.concurrent.PollingConditions
+
+import java.time.Duration
+import java.util.concurrent.CountDownLatch
+import java.util.concurrent.TimeUnit
+
+class GatewayJobServiceSpec extends Specification {
+
+    private static final GatewayModel GATEWAY = new GatewayModel("some-common-name", "10.8.0.2", "crt", "pk")
+
+    private SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry()
+    private CountDownLatch released = new CountDownLatch(0)
+    private GatewayService gatewayService = Stub()
+    private GatewayJobService gatewayJobService = new GatewayJobService(
+            gatewayService, 1, 1, 100, Duration.ofMinutes(1), Duration.ofSeconds(5), meterRegistry)
+
+    def setup() {
+        gatewayService.createGateway(_ as GatewayModel) >> {
+            released.await(5, TimeUnit.SECONDS)
+            Try.success(GATEWAY)
+        }
+    }
+
+    def cleanup() {
+        released.countDown()
+        gatewayJobService.shutdown()
+    }
+
+    def "provision gateway in background"() {
+        when: "job is submitted"
+            def job = gatewayJobService.submit(withName("some-common-name")).get()
+
+        then: "it's accepted with id"
+            job.id != null
+            job.commonName == "some-common-name"
+            job.status in [GatewayJobModel.Status.PENDING, GatewayJobModel.Status.RUNNING]
+
+        when: "client waits for the job"
+            def res = gatewayJobService.await(job.id, Duration.ofSeconds(5)).get().get(5, TimeUnit.SECONDS)
+
+        then: "created gateway is returned"
+            res.status == GatewayJobModel.Status.SUCCEEDED
+            res.gateway == GATEWAY
+            res.error == null
+    }
+
+    def "report failure of provisioning"() {
+        given:
+            def service = Stub(GatewayService) {
+                createGateway(_ as GatewayModel) >> Try.failure(new CommonNameNotUniqueException("Gateway already exist"))
+            }
+            def jobService = new GatewayJobService(service, 1, 1, 100, Duration.ofMinutes(1), Duration.ofSeconds(5), new SimpleMeterRegistry())
+
+        when:
+            def job = jobService.submit(withName("some-common-name")).get()
+            def res = jobService.await(job.id, Duration.ofSeconds(5)).get().get(5, TimeUnit.SECONDS)
+
+        then:
+            res.status == GatewayJobModel.Status.FAILED
+            res.gateway == null
+            res.error == "CommonNameNotUniqueException: Gateway already exist"
+
+        cleanup:
+            jobService.shutdown()
+    }
+
+    def "long-poll returns current state of the job once wait elapses"() {
+        given: "job which is held"
+            released = new CountDownLatch(1)
+            def job = gatewayJobService.submit(withName("some-common-name")).get()
+            new PollingConditions(timeout: 5).eventually {
+                assert gatewayJobService.await(job.id, Duration.ZERO).get().join().status == GatewayJobModel.Status.RUNNING
+            }
+
+        when:
+            def res = gatewayJobService.await(job.id, Duration.ofMillis(50)).get().get(5, TimeUnit.SECONDS)
+
+        then:
+            res.status == GatewayJobModel.Status.RUNNING
+    }
+
+    def "reject job when queue of jobs is full"() {
+        given: "the only worker is busy and the queue is full"
+            released = new CountDownLatch(1)
+            def running = gatewayJobService.submit(withName("cn-1")).get()
+            new PollingConditions(timeout: 5).eventually {
+                assert gatewayJobService.await(running.id, Duration.ZERO).get().join().status == GatewayJobModel.Status.RUNNING
+            }
+            gatewayJobService.submit(withName("cn-2")).get()
+
+        when:
+            def res = gatewayJobService.submit(withName("cn-3"))
+
+        then:
+            res.isFailure()
+            res.getCause() instanceof GatewayJobQueueFullException
+            meterRegistry.get("gateway.jobs.rejected").counter().count() == 1
+    }
+
+    def "record time jobs spend in queue and time of running them"() {
+        when:
+            def job = gatewayJobService.submit(withName("some-common-name")).get()
+            gatewayJobService.await(job.id, Duration.ofSeconds(5)).get().get(5, TimeUnit.SECONDS)
+
+        then:
+            new PollingConditions(timeout: 5).eventually {
+                assert meterRegistry.get("executor").tag("name", GatewayJobService.NAME).timer().count() == 1
+                assert meterRegistry.get("executor.idle").tag("name", GatewayJobService.NAME).timer().count() == 1
+            }
+    }
+
+    def "hand out private key with the first read of finished job only"() {
+        given:
+            def job = gatewayJobService.submit(withName("some-common-name")).get()
+
+        when: "finished job is read twice"
+            def first = gatewayJobService.await(job.id, Duration.ofSeconds(5)).get().get(5, TimeUnit.SECONDS)
+            def second = gatewayJobService.await(job.id, Duration.ZERO).get().join()
+
+        then:
+            first.gateway.privateKey == "pk"
+            second.status == GatewayJobModel.Status.SUCCEEDED
+            second.gateway.certificate == "crt"
+            second.gateway.privateKey == null
+    }
+
+    def "keep job which runs longer than retention"() {
+        given: "job service retaining finished jobs for a moment only"
+            def jobService = new GatewayJobService(
+                    gatewayService, 1, 1, 100, Duration.ofMillis(50), Duration.ofSeconds(5), new SimpleMeterRegistry())
+        and: "job which is held"
+            released = new CountDownLatch(1)
+            def job = jobService.submit(withName("some-common-name")).get()
+
+        when: "retention elapses while the job is running"
+            Thread.sleep(200)
+            def running = jobService.await(job.id, Duration.ZERO)
+        and: "the job finishes"
+            released.countDown()
+            def finished = jobService.await(job.id, Duration.ofSeconds(5)).get().get(5, TimeUnit.SECONDS)
+
+        then: "job is still there and its result can be read"
+            running.isSuccess()
+            finished.status == GatewayJobModel.Status.SUCCEEDED
+        and: "it expires once retention counted from its completion elapses"
+            new PollingConditions(timeout: 5).eventually {
+                assert jobService.await(job.id, Duration.ZERO).getCause() instanceof GatewayJobNotFoundException
+            }
+
+        cleanup:
+            jobService.shutdown()
+    }
+
+    def "retain at most maximum size of finished jobs"() {
+        given:
+            def jobService = new GatewayJobService(
+                    gatewayService, 1, 10, 1, Duration.ofMinutes(1), Duration.ofSeconds(5), new SimpleMeterRegistry())
+
+        when: "two jobs finish"
+            def jobs = ["cn-1", "cn-2"].collect { jobService.submit(withName(it)).get() }
+            jobs.each { jobService.await(it.id, Duration.ofSeconds(5)).get().get(5, TimeUnit.SECONDS) }
+
+        then: "only one of them is retained"
+            new PollingConditions(timeout: 5).eventually {
+                assert jobs.count { jobService.await(it.id, Duration.ZERO).isSuccess() } == 1
+            }
+
+        cleanup:
+            jobService.shutdown()
+    }
+
+    def "fail to get job which doesn't exist"() {
+        when:
+            def res = gatewayJobService.await("some-id", Duration.ZERO)
+
+        then:
+            res.isFailure()
+            res.getCause() instanceof GatewayJobNotFoundException
+    }
+
+    private static GatewayModel withName(String commonName) {
+        return GatewayModel.builder().withCommonName(commonName).build()
+    }
+}
@@ -1,29 +1,39 @@
 package com.mkubica.managementservice.service
 
+import com.mkubica.managementservice.domain.dao.GatewayCredentialsEntity
 import com.mkubica.managementservice.domain.dao.GatewayEntity
 import com.mkubica.managementservice.domain.dto.CertificateBundleModel
 import com.mkubica.managementservice.domain.dto.GatewayConfigModel
 import com.mkubica.managementservice.domain.dto.GatewayModel
+import com.mkubica.managementservice.domain.dto.RenderedGatewayConfig
 import com.mkubica.managementservice.exception.CommonNameBlankException
 import com.mkubica.managementservice.exception.CommonNameNotUniqueException
 import com.mkubica.managementservice.exception.IpAddressNotUniqueException
 import com.mkubica.managementservice.exception.IpAddressStringInvalidException
 import com.mkubica.managementservice.exception.IpAllocationException
+import com.mkubica.managementservice.repository.GatewayCredentialsRepository
 import com.mkubica.managementservice.repository.GatewayRepository
-import com.mkubica.managementservice.service.cert.ClientCertificateRequester
+import com.mkubica.managementservice.service.cert.AsyncClientCertificateRequester
 import com.mkubica.managementservice.service.ip.IpAssigner
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry
 import io.vavr.control.Option
 import io.vavr.control.Try
 import spock.lang.Specification
 
+import java.time.Duration
+import java.util.concurrent.CompletableFuture
+
 class GatewayServiceSpec extends Specification {
 
     private GatewayConfigProducer gatewayConfigProducer = Stub()
     private GatewayRepository gatewayRepository = Stub()
-    private ClientCertificateRequester clientCertificateRequester = Stub()
-    private IpAssigner ipAssigner = Stub()
-    private GatewayService gatewayService
-            = new GatewayService(gatewayConfigProducer, gatewayRepository, clientCertificateRequester, ipAssigner)
+    private GatewayCredentialsRepository gatewayCredentialsRepository = Stub()
+    private AsyncClientCertificateRequester clientCertificateRequester = Mock()
+    private IpAssigner ipAssigner = Mock()
+    private GatewayConfigCache gatewayConfigCache = new GatewayConfigCache(100, 100, Duration.ofMinutes(1), new SimpleMeterRegistry())
+    private GatewayEntityCache gatewayEntityCache = cached(gatewayRepository, gatewayCredentialsRepository)
+    private GatewayService gatewayService = new GatewayService(
+            gatewayConfigProducer, gatewayEntityCache, clientCertificateRequester, ipAssigner, gatewayConfigCache)
 
     def "get gateway that exist"() {
         given: "GatewayRepository stub that returns certain entity"
@@ -31,9 +41,10 @@ class GatewayServiceSpec extends Specification {
                     >> Option.of(GatewayEntity.builder()
                         .withCommonName("some-common-name")
                         .withIpAddress("10.8.0.4")
-                        .withPrivateKey("some-private-key")
-                        .withCertificate("some-certificate")
                         .build())
+        and: "GatewayCredentialsRepository stub that returns its credentials"
+            gatewayCredentialsRepository.getGatewayCredentialsEntityByCommonName("some-common-name")
+                    >> Option.of(credentials("some-certificate", "some-private-key"))
 
         when: "getGateway method is called"
             def res = gatewayService.getGateway(withName("some-common-name"))
@@ -66,13 +77,13 @@ class GatewayServiceSpec extends Specification {
             gatewayRepository.getGatewayEntityByCommonName(_ as String) >> Option.none()
             gatewayRepository.getGatewayEntityByIpAddress(_ as String) >> Option.none()
         and: "IpAssigner stub that successfully allocates ip"
-            ipAssigner.assignIp(_ as String, ip) >> Try.success("10.8.0.2")
+            ipAssigner.assignIpAsync(_ as String, ip) >> Try.success(CompletableFuture.completedFuture("10.8.0.2"))
         and: "ClientCertificateRequester stub that returns valid bundle"
-            clientCertificateRequester.requestBundle(_ as String)
-                    >> Try.success(new CertificateBundleModel("crt", "pk"))
-        and: "GatewayRepository stub that returns certain GatewayEntity on save"
-            gatewayRepository.save(_ as GatewayEntity)
-                    >> new GatewayEntity("cn", "crt", "pk", "10.8.0.2")
+            clientCertificateRequester.requestBundleAsync(_ as String)
+                    >> CompletableFuture.completedFuture(new CertificateBundleModel("crt", "pk"))
+        and: "GatewayRepository stub that persists entity together with credentials"
+            gatewayRepository.persist(_ as GatewayEntity, _ as GatewayCredentialsEntity)
+                    >> new GatewayEntity("some-common-name", "10.8.0.2")
 
         when: "createGateway method is called"
             def res = gatewayService.createGateway(withNameAndIp("some-common-name", ip))
@@ -81,7 +92,7 @@ class GatewayServiceSpec extends Specification {
             res.isSuccess()
             def model = res.get()
             verifyAll(model) {
-                commonName == "cn"
+                commonName == "some-common-name"
                 ipAddress == "10.8.0.2"
                 privateKey == "pk"
                 certificate == "crt"
@@ -90,6 +101,47 @@ class GatewayServiceSpec extends Specification {
         where: ip << ["10.8.0.2", null]
     }
 
+    def "request certificate while client config is being made durable"() {
+        given: "GatewayRepository stub that doesn't contain entity with requested cn"
+            gatewayRepository.getGatewayEntityByCommonName(_ as String) >> Option.none()
+        and: "ip which is assigned only once certificate is requested"
+            def ip = new CompletableFuture<String>()
+
+        when: "createGateway method is called"
+            def res = gatewayService.createGateway(withNameAndIp("some-common-name", null))
+
+        then: "ip is reserved first"
+            1 * ipAssigner.assignIpAsync("some-common-name", null) >> Try.success(ip)
+        then: "certificate is requested while ip assignment is in flight"
+            1 * clientCertificateRequester.requestBundleAsync("some-common-name") >> {
+                assert !ip.isDone()
+                ip.complete("10.8.0.2")
+                CompletableFuture.completedFuture(new CertificateBundleModel("crt", "pk"))
+            }
+        and: "gateway is created"
+            res.get() == new GatewayModel("some-common-name", "10.8.0.2", "crt", "pk")
+    }
+
+    def "release ip and revoke certificate when gateway can't be persisted"() {
+        given: "ip and certificate are obtained"
+            gatewayRepository.getGatewayEntityByCommonName(_ as String) >> Option.none()
+            ipAssigner.assignIpAsync("some-common-name", null) >> Try.success(CompletableFuture.completedFuture("10.8.0.2"))
+            clientCertificateRequester.requestBundleAsync("some-common-name")
+                    >> CompletableFuture.completedFuture(new CertificateBundleModel("crt", "pk"))
+        and: "GatewayRepository stub that fails to persist entity"
+            gatewayRepository.persist(_ as GatewayEntity, _ as GatewayCredentialsEntity) >> { throw new IllegalStateException() }
+
+        when: "createGateway method is called"
+            def res = gatewayService.createGateway(withNameAndIp("some-common-name", null))
+
+        then: "result is invalid"
+            res.isFailure()
+            res.getCause() instanceof IllegalStateException
+        and: "ip is released and certificate is revoked"
+            1 * ipAssigner.releaseIp("some-common-name", "10.8.0.2") >> Try.success("10.8.0.2")
+            1 * clientCertificateRequester.revokeBundle("some-common-name", "crt") >> Try.success(null)
+    }
+
     def "try to create gateway with blank or null common name"() {
         given: "GatewayRepository stub that doesn't contain entity with requested cn"
             gatewayRepository.getGatewayEntityByCommonName(cn) >> Option.none()
@@ -121,7 +173,7 @@ class GatewayServiceSpec extends Specification {
     def "try to create gateway with already allocated common name"() {
         given: "GatewayRepository stub that contains entity with requested cn"
             gatewayRepository.getGatewayEntityByCommonName(_ as String)
-                    >> Option.of(new GatewayEntity(_ as String, _ as String, _ as String, _ as String))
+                    >> Option.of(new GatewayEntity(_ as String, _ as String))
 
         when: "createGateway method is called"
             def res = gatewayService.createGateway(GatewayModel.builder().build())
@@ -132,23 +184,30 @@ class GatewayServiceSpec extends Specification {
     }
 
     def "try to create gateway with already allocated ip address"() {
-        given: "IpAssigner that returns IpAddressNotUniqueException"
+        given: "IpAssigner that rejects ip with IpAddressNotUniqueException"
             gatewayRepository.getGatewayEntityByCommonName(_ as String) >> Option.none()
-            ipAssigner.assignIp(_ as String, "10.8.0.2") >> Try.failure(new IpAddressNotUniqueException())
+            ipAssigner.assignIpAsync(_ as String, "10.8.0.2") >> Try.failure(new IpAddressNotUniqueException())
 
         when: "createGateway method is called"
-            def res = gatewayService.createGateway(withNameAndIp(_ as String, "10.8.0.2"))
+            def res = gatewayService.createGateway(withNameAndIp("some-common-name", "10.8.0.2"))
 
         then: "result is invalid because of IpAddressNotUniqueException"
             res.isFailure()
             res.getCause() instanceof IpAddressNotUniqueException
+        and: "certificate is not requested, so there is nothing to revoke"
+            0 * clientCertificateRequester.requestBundleAsync(_)
+            0 * clientCertificateRequester.revokeBundle(_, _)
     }
 
     def "try to create gateway but ip allocation fails"() {
         given: "GatewayRepository stub that doesn't contain entity with requested common name"
             gatewayRepository.getGatewayEntityByCommonName(_ as String) >> Option.none()
-        and: "IpAssigner stub that fails to assign ip"
-            ipAssigner.assignIp(_ as String, "10.8.0.2") >> Try.failure(new IpAllocationException())
+        and: "IpAssigner stub that reserves ip, but fails to assign it"
+            ipAssigner.assignIpAsync(_ as String, "10.8.0.2")
+                    >> Try.success(CompletableFuture.failedFuture(new IpAllocationException()))
+        and: "ClientCertificateRequester stub that returns valid bundle"
+            clientCertificateRequester.requestBundleAsync(_ as String)
+                    >> CompletableFuture.completedFuture(new CertificateBundleModel("crt", "pk"))
 
         when: "createGateway method is called"
             def res = gatewayService.createGateway(withNameAndIp(_ as String, "10.8.0.2"))
@@ -156,6 +215,9 @@ class GatewayServiceSpec extends Specification {
         then: "result is invalid because of IpAllocationException"
             res.isFailure()
             res.getCause() instanceof IpAllocationException
+        and: "certificate is revoked, ip is not released"
+            1 * clientCertificateRequester.revokeBundle(_, "crt") >> Try.success(null)
+            0 * ipAssigner.releaseIp(_, _)
     }
 
     // TODO: IO exception might be not relevan in future versions of certificate requester
@@ -163,30 +225,28 @@ class GatewayServiceSpec extends Specification {
         given: "GatewayRepository stub that doesn't contain entity with requested common name"
             gatewayRepository.getGatewayEntityByCommonName(_ as String) >> Option.none()
         and: "IpAssigner stub that successfully allocates ip"
-            ipAssigner.assignIp(_ as String, _ as String) >> Try.success(_ as String)
+            ipAssigner.assignIpAsync(_ as String, _ as String) >> Try.success(CompletableFuture.completedFuture("10.8.0.4"))
         and: "ClientCertificateRequester stub that fails to generate cert"
-            clientCertificateRequester.requestBundle(_ as String) >> Try.failure(new IOException())
+            clientCertificateRequester.requestBundleAsync(_ as String) >> CompletableFuture.failedFuture(new IOException())
 
         when: "createGateway method is called"
-            def res = gatewayService.createGateway(withNameAndIp(_ as String, "10.8.0.4"))
+            def res = gatewayService.createGateway(withNameAndIp("some-common-name", "10.8.0.4"))
 
         then: "result is invalid because of IOException"
             res.isFailure()
             res.getCause() instanceof IOException
+        and: "assigned ip is released"
+            1 * ipAssigner.releaseIp("some-common-name", "10.8.0.4") >> Try.success("10.8.0.4")
+            0 * clientCertificateRequester.revokeBundle(_, _)
     }
 
     def "get gateway config"() {
-        given: "certain entity"
-            def entity = GatewayEntity.builder()
-                .withCommonName("some-common-name")
-                .withIpAddress("10.8.0.4")
-                .withPrivateKey("some-private-key")
-                .withCertificate("some-certificate")
-                .build()
-        and: "GatewayRepository stub that returns certain entity"
-            gatewayRepository.getGatewayEntityByCommonName("some-common-name") >> Option.of(entity)
+        given: "credentials of certain gateway"
+            def credentials = credentials("some-certificate", "some-private-key")
+        and: "GatewayCredentialsRepository stub that returns these credentials"
+            gatewayCredentialsRepository.getGatewayCredentialsEntityByCommonName("some-common-name") >> Option.of(credentials)
         and: "GatewayConfigProducer stub that returns config"
-            gatewayConfigProducer.produceFrom(entity) >> Try.success(GatewayConfigModel.builder().build())
+            gatewayConfigProducer.produceFrom(credentials) >> Try.success(GatewayConfigModel.builder().build())
 
         when: "getGatewayConfig method is called"
             def res = gatewayService.getGatewayConfig(withName("some-common-name"))
@@ -196,8 +256,8 @@ class GatewayServiceSpec extends Specification {
     }
 
     def "try to get gateway config, but entity with provided cn doesnt exist"() {
-        given: "GatewayRepository stub that doesn't return certain entity"
-            gatewayRepository.getGatewayEntityByCommonName(_ as String) >> Option.none()
+        given: "GatewayCredentialsRepository stub that doesn't return credentials"
+            gatewayCredentialsRepository.getGatewayCredentialsEntityByCommonName(_ as String) >> Option.none()
 
         when: "getGatewayConfig method is called"
             def res = gatewayService.getGatewayConfig(withName(_ as String))
@@ -208,11 +268,11 @@ class GatewayServiceSpec extends Specification {
     }
 
     def "try to get gateway config, but GatewayConfigProducer fails to produce config"() {
-        given: "GatewayRepository stub that returns certain entity"
-            gatewayRepository.getGatewayEntityByCommonName("some-common-name")
-                    >> Option.of(GatewayEntity.builder().build())
+        given: "GatewayCredentialsRepository stub that returns certain credentials"
+            gatewayCredentialsRepository.getGatewayCredentialsEntityByCommonName("some-common-name")
+                    >> Option.of(GatewayCredentialsEntity.builder().build())
         and: "GatewayConfigProducer stub fails to produce config"
-            gatewayConfigProducer.produceFrom(_ as GatewayEntity) >> Try.failure(new IOException())
+            gatewayConfigProducer.produceFrom(_ as GatewayCredentialsEntity) >> Try.failure(new IOException())
 
         when: "getGatewayConfig method is called"
             def res = gatewayService.getGatewayConfig(withName("some-common-name"))
@@ -222,6 +282,82 @@ class GatewayServiceSpec extends Specification {
             res.getCause() instanceof IOException
     }
 
+    def "get rendered gateway config out of cache"() {
+        given: "GatewayCredentialsRepository mock that returns certain credentials"
+            def repository = Mock(GatewayCredentialsRepository)
+            def service = new GatewayService(gatewayConfigProducer, cached(gatewayRepository, repository),
+                    clientCertificateRequester, ipAssigner, gatewayConfigCache)
+            def credentials = credentials("some-certificate", "some-private-key")
+        and: "GatewayConfigProducer stub that returns config"
+            gatewayConfigProducer.renderFrom(credentials) >> Try.success(renderedConfig())
+
+        when: "getRenderedGatewayConfig method is called twice"
+            def first = service.getRenderedGatewayConfig(withName("some-common-name"))
+            def second = service.getRenderedGatewayConfig(withName("some-common-name"))
+
+        then: "credentials are looked up only once"
+            1 * repository.getGatewayCredentialsEntityByCommonName("some-common-name") >> Option.of(credentials)
+        and: "both results carry the same rendered config"
+            first.isSuccess()
+            first.get().toByteArray() == renderedConfig().toByteArray()
+            second.get().is(first.get())
+    }
+
+    def "try to get rendered gateway config, but entity with provided cn doesnt exist"() {
+        given: "GatewayCredentialsRepository stub that doesn't return credentials at first, but does afterwards"
+            gatewayCredentialsRepository.getGatewayCredentialsEntityByCommonName("some-common-name")
+                    >>> [Option.none(), Option.of(GatewayCredentialsEntity.builder().build())]
+            gatewayConfigProducer.renderFrom(_ as GatewayCredentialsEntity) >> Try.success(renderedConfig())
+
+        when: "getRenderedGatewayConfig method is called twice, entity appears in between bypassing entity cache"
+            def first = gatewayService.getRenderedGatewayConfig(withName("some-common-name"))
+            gatewayEntityCache.invalidate("some-common-name")
+            def second = gatewayService.getRenderedGatewayConfig(withName("some-common-name"))
+
+        then: "failure is not cached"
+            first.isFailure()
+            first.getCause() instanceof NoSuchElementException
+            second.isSuccess()
+    }
+
+    def "get etag of gateway config only once it has been rendered"() {
+        given: "GatewayCredentialsRepository stub that returns certain credentials"
+            gatewayCredentialsRepository.getGatewayCredentialsEntityByCommonName("some-common-name")
+                    >> Option.of(credentials("some-certificate", "some-private-key"))
+            gatewayConfigProducer.renderFrom(_ as GatewayCredentialsEntity) >> Try.success(renderedConfig())
+
+        expect: "etag is not known before config is rendered"
+            gatewayService.getGatewayConfigEtag(withName("some-common-name")).isEmpty()
+
+        when: "config is rendered"
+            gatewayService.getRenderedGatewayConfig(withName("some-common-name")).get()
+
+        then: "etag of rendered config is known"
+            gatewayService.getGatewayConfigEtag(withName("some-common-name")).get() == renderedConfig().etag()
+    }
+
+    def "delete gateway invalidates its cached config"() {
+        given: "GatewayRepository stub that contains entity with requested cn"
+            def entity = GatewayEntity.builder().withCommonName("some-common-name").withIpAddress("10.8.0.4").build()
+            gatewayRepository.getGatewayEntityByCommonName("some-common-name") >> Option.of(entity)
+            gatewayCredentialsRepository.getGatewayCredentialsEntityByCommonName("some-common-name")
+                    >>> [Option.of(credentials("some-certificate", "some-private-key")), Option.none()]
+            gatewayConfigProducer.renderFrom(_ as GatewayCredentialsEntity) >> Try.success(renderedConfig())
+            ipAssigner.revokeIp("some-common-name") >> Try.success("10.8.0.4")
+            clientCertificateRequester.revokeBundle("some-common-name", _) >> Try.success(null)
+        and: "config of this gateway has been cached"
+            gatewayService.getRenderedGatewayConfig(withName("some-common-name")).get()
+
+        when: "deleteGateway method is called"
+            gatewayService.deleteGateway(withName("some-common-name")).get()
+        and: "config is requested again"
+            def res = gatewayService.getRenderedGatewayConfig(withName("some-common-name"))
+
+        then: "config is not served out of cache"
+            res.isFailure()
+            res.getCause() instanceof NoSuchElementException
+    }
+
     def "delete gateway"() {
         given: "GatewayRepository stub that contains entity with requested cn"
             gatewayRepository.getGatewayEntityByCommonName("some-common-name")
@@ -230,17 +366,20 @@ class GatewayServiceSpec extends Specification {
                         .withIpAddress("10.8.0.4")
                         .build()
                     )
+        and: "GatewayCredentialsRepository stub that returns its credentials"
+            gatewayCredentialsRepository.getGatewayCredentialsEntityByCommonName("some-common-name")
+                    >> Option.of(credentials("some-certificate", "some-private-key"))
         and: "IpAssigner that successfully revokes ip"
             ipAssigner.revokeIp("some-common-name") >> Try.success("10.8.0.4")
         and: "ClientCertificateRequester that successfully revokes bundle"
-            clientCertificateRequester.revokeBundle("some-common-name") >> Try.success(null)
+            clientCertificateRequester.revokeBundle("some-common-name", _) >> Try.success(null)
 
         when: "deleteGateway method is called"
             def res = gatewayService.deleteGateway(withName("some-common-name"))
 
-        then: "result is valid"
+        then: "result is valid, deleted gateway is returned together with its credentials"
             res.isSuccess()
-            res.get() == withNameAndIp("some-common-name", "10.8.0.4")
+            res.get() == new GatewayModel("some-common-name", "10.8.0.4", "some-certificate", "some-private-key")
     }
 
     def "try to delete gateway but gateway with provided common name doesn't exist"() {
@@ -263,6 +402,9 @@ class GatewayServiceSpec extends Specification {
                         .withIpAddress("10.8.0.4")
                         .build()
                 )
+            gatewayCredentialsRepository.getGatewayCredentialsEntityByCommonName("some-common-name") >> Option.none()
+        and: "ClientCertificateRequester that successfully revokes bundle"
+            clientCertificateRequester.revokeBundle("some-common-name", _) >> Try.success(null)
         and: "IpAssigner that fails to revoke ip"
             ipAssigner.revokeIp("some-common-name") >> Try.failure(new FileNotFoundException())
 
@@ -275,25 +417,43 @@ class GatewayServiceSpec extends Specification {
     }
 
     def "try to delete gateway but ClientCertificateRequester fails to revoke bundle"() {
-        given: "GatewayRepository stub that contains entity with requested cn"
-            gatewayRepository.getGatewayEntityByCommonName("some-common-name")
+        given: "GatewayRepository that contains entity with requested cn"
+            def repository = Mock(GatewayRepository)
+            repository.getGatewayEntityByCommonName("some-common-name")
                     >> Option.of(GatewayEntity.builder()
                         .withCommonName("some-common-name")
                         .withIpAddress("10.8.0.4")
                         .build()
                 )
-        and: "IpAssigner revokes ip"
-            ipAssigner.revokeIp("some-common-name") >> Try.success("10.8.0.4")
+            gatewayCredentialsRepository.getGatewayCredentialsEntityByCommonName("some-common-name") >> Option.none()
+            def service = new GatewayService(gatewayConfigProducer, cached(repository, gatewayCredentialsRepository),
+                    clientCertificateRequester, ipAssigner, gatewayConfigCache)
         and: "ClientCertificateRequester fails to revoke bundle"
-            // NOTE: now it's just runtime exception since there is no implementation
-            clientCertificateRequester.revokeBundle("some-common-name") >> Try.failure(new RuntimeException())
+            clientCertificateRequester.revokeBundle("some-common-name", _) >> Try.failure(new RuntimeException())
 
         when: "deleteGateway method is called"
-            def res = gatewayService.deleteGateway(withName("some-common-name"))
+            def res = service.deleteGateway(withName("some-common-name"))
 
         then: "result is invalid"
             res.isFailure()
             res.getCause() instanceof RuntimeException
+        and: "ip stays assigned and gateway is not deleted"
+            0 * ipAssigner.revokeIp(_)
+            0 * ipAssigner.releaseIp(_, _)
+            0 * repository.delete(_)
+    }
+
+    static GatewayEntityCache cached(GatewayRepository repository, GatewayCredentialsRepository credentialsRepository) {
+        return new GatewayEntityCache(
+                repository, credentialsRepository, 100, Duration.ofMinutes(1), true, new SimpleMeterRegistry())
+    }
+
+    static GatewayCredentialsEntity credentials(String certificate, String privateKey) {
+        return GatewayCredentialsEntity.from(new GatewayModel("some-common-name", null, certificate, privateKey))
+    }
+
+    static RenderedGatewayConfig renderedConfig() {
+        return RenderedGatewayConfig.of("some-template".bytes, "some-certificate".bytes, "some-private-key".bytes)
     }
 
     static GatewayModel withName(String commonName) {
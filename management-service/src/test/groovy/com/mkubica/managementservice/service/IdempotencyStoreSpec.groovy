@@ -0,0 +1,131 @@
+package com.mkubica.managementservice.service
+
+import com.mkubica.managementservice.exception.IdempotencyKeyInProgressException
+import com.mkubica.managementservice.exception.IdempotencyKeyReusedException
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry
+import io.vavr.control.Try
+import spock.lang.Specification
+
+import java.time.Duration
+import java.util.concurrent.CountDownLatch
+import java.util.concurrent.Executors
+import java.util.concurrent.TimeUnit
+import java.util.concurrent.atomic.AtomicInteger
+
+class IdempotencyStoreSpec extends Specification {
+
+    private SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry()
+    private IdempotencyStore<String> idempotencyStore = new IdempotencyStore<>(
+            100, Duration.ofMinutes(1), Duration.ofSeconds(5), meterRegistry)
+    private AtomicInteger executions = new AtomicInteger()
+
+    def "execute operation once for retried request"() {
+        when:
+            def first = idempotencyStore.execute("some-key", "some-request", { operation() })
+            def retried = idempotencyStore.execute("some-key", "some-request", { operation() })
+
+        then:
+            first.get() == "result-1"
+            retried.get() == "result-1"
+            executions.get() == 1
+        and: "duplicate is recorded as hit"
+            meterRegistry.get("cache.gets").tag("cache", IdempotencyStore.CACHE_NAME).tag("result", "hit")
+                    .functionCounter().count() == 1
+    }
+
+    def "execute operation for every key"() {
+        when:
+            def first = idempotencyStore.execute("some-key", "some-request", { operation() })
+            def second = idempotencyStore.execute("other-key", "some-request", { operation() })
+
+        then:
+            first.get() == "result-1"
+            second.get() == "result-2"
+    }
+
+    def "concurrent duplicates wait for the first request and get its result"() {
+        given: "the first request which is held"
+            def released = new CountDownLatch(1)
+            def started = new CountDownLatch(1)
+            def executor = Executors.newFixedThreadPool(4)
+            def first = executor.submit({
+                idempotencyStore.execute("some-key", "some-request", {
+                    started.countDown()
+                    released.await(5, TimeUnit.SECONDS)
+                    operation()
+                })
+            })
+            started.await(5, TimeUnit.SECONDS)
+
+        when: "duplicates arrive meanwhile"
+            def duplicates = (1..3).collect {
+                executor.submit({ idempotencyStore.execute("some-key", "some-request", { operation() }) })
+            }
+            sleep(50)
+        and: "the first request completes"
+            released.countDown()
+
+        then: "all of them get the same result, operation is executed once"
+            first.get(5, TimeUnit.SECONDS).get() == "result-1"
+            duplicates.every { it.get(5, TimeUnit.SECONDS).get() == "result-1" }
+            executions.get() == 1
+
+        cleanup:
+            executor.shutdownNow()
+    }
+
+    def "failure is not retained, so request may be retried with the same key"() {
+        when:
+            def first = idempotencyStore.execute("some-key", "some-request", { Try.failure(new IOException()) })
+            def retried = idempotencyStore.execute("some-key", "some-request", { operation() })
+
+        then:
+            first.isFailure()
+            first.getCause() instanceof IOException
+            retried.get() == "result-1"
+    }
+
+    def "reject key reused with different request"() {
+        given:
+            idempotencyStore.execute("some-key", "some-request", { operation() })
+
+        when:
+            def res = idempotencyStore.execute("some-key", "other-request", { operation() })
+
+        then:
+            res.isFailure()
+            res.getCause() instanceof IdempotencyKeyReusedException
+            executions.get() == 1
+    }
+
+    def "duplicate fails when the first request doesn't complete within max wait"() {
+        given:
+            def store = new IdempotencyStore<String>(100, Duration.ofMinutes(1), Duration.ofMillis(10), new SimpleMeterRegistry())
+            def released = new CountDownLatch(1)
+            def started = new CountDownLatch(1)
+            def executor = Executors.newSingleThreadExecutor()
+            executor.submit({
+                store.execute("some-key", "some-request", {
+                    started.countDown()
+                    released.await(5, TimeUnit.SECONDS)
+                    operation()
+                })
+            })
+            started.await(5, TimeUnit.SECONDS)
+
+        when:
+            def res = store.execute("some-key", "some-request", { operation() })
+
+        then:
+            res.isFailure()
+            res.getCause() instanceof IdempotencyKeyInProgressException
+
+        cleanup:
+            released.countDown()
+            executor.shutdownNow()
+    }
+
+    private Try<String> operation() {
+        return Try.success("result-" + executions.incrementAndGet())
+    }
+}
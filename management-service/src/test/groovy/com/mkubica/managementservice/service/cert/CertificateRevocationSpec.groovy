@@ -0,0 +1,139 @@
+package com.mkubica.managementservice.service.cert
+
+import com.mkubica.managementservice.util.Pem
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry
+import io.vavr.control.Try
+import org.bouncycastle.asn1.x500.X500Name
+import org.bouncycastle.cert.jcajce.JcaX509v3CertificateBuilder
+import org.bouncycastle.operator.jcajce.JcaContentSignerBuilder
+import spock.lang.Specification
+import spock.lang.TempDir
+import spock.util.concurrent.PollingConditions
+
+import java.nio.file.Files
+import java.nio.file.Path
+import java.security.KeyPairGenerator
+import java.time.Duration
+import java.util.concurrent.atomic.AtomicInteger
+
+class CertificateRevocationSpec extends Specification {
+
+    @TempDir
+    private Path directory
+
+    private SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry()
+    private AtomicInteger generated = new AtomicInteger()
+    private boolean failing = false
+    private CertificateRevoker revoker = Mock()
+    private CertificateRevocation certificateRevocation
+
+    def setup() {
+        revoker.generateCrl() >> { failing ? Try.failure(new IOException()) : Try.success("crl-" + generated.incrementAndGet()) }
+        revoker.revoke(_, _) >> Try.success(null)
+        // NOTE: scheduled publications are far apart, so only the initial one is published in background
+        certificateRevocation = new CertificateRevocation(revoker, crlPath().toString(), Duration.ofHours(1),
+                Duration.ofDays(7), meterRegistry)
+        new PollingConditions(timeout: 5).eventually {
+            assert meterRegistry.get("certificate.revocation.publication").timer().count() == 1
+        }
+    }
+
+    def cleanup() {
+        certificateRevocation.shutdown()
+    }
+
+    def "publish revocation list at startup"() {
+        expect:
+            Files.readString(crlPath()) == "crl-1"
+        and: "no temporary file is left behind"
+            Files.list(directory).count() == 1
+    }
+
+    def "coalesce revocations into single publication"() {
+        when: "many certificates are revoked"
+            (1..100).each { assert certificateRevocation.revoke("cn-$it", certificate()).isSuccess() }
+        and: "publication takes place"
+            certificateRevocation.publishIfStale()
+            certificateRevocation.publishIfStale()
+
+        then: "every certificate is revoked"
+            meterRegistry.get("certificate.revocation.revoked").counter().count() == 100
+        and: "revocation list is generated and published once"
+            generated.get() == 2
+            Files.readString(crlPath()) == "crl-2"
+    }
+
+    def "don't publish revocation list when nothing was revoked"() {
+        when:
+            certificateRevocation.publishIfStale()
+
+        then:
+            generated.get() == 1
+    }
+
+    def "republish revocation list before it expires"() {
+        given: "revocation list which is valid for a moment"
+            certificateRevocation.shutdown()
+            certificateRevocation = new CertificateRevocation(revoker, crlPath().toString(), Duration.ofHours(1),
+                    Duration.ofMillis(2), meterRegistry)
+            new PollingConditions(timeout: 5).eventually { assert generated.get() == 2 }
+            sleep(10)
+
+        when:
+            certificateRevocation.publishIfStale()
+
+        then:
+            generated.get() == 3
+            Files.readString(crlPath()) == "crl-3"
+    }
+
+    def "retry failed publication"() {
+        given:
+            certificateRevocation.revoke("some-common-name", certificate())
+            failing = true
+
+        when: "publication fails"
+            certificateRevocation.publishIfStale()
+
+        then: "published list is kept"
+            Files.readString(crlPath()) == "crl-1"
+            meterRegistry.get("certificate.revocation.publication.failed").counter().count() == 1
+
+        when: "next publication succeeds"
+            failing = false
+            certificateRevocation.publishIfStale()
+
+        then:
+            Files.readString(crlPath()) == "crl-2"
+    }
+
+    def "gateway without certificate has nothing to revoke"() {
+        when:
+            def res = certificateRevocation.revoke("some-common-name", null)
+
+        then:
+            res.isSuccess()
+            0 * revoker.revoke(_, _)
+    }
+
+    def "fail to revoke corrupted certificate"() {
+        when:
+            def res = certificateRevocation.revoke("some-common-name", "some-certificate")
+
+        then:
+            res.isFailure()
+            0 * revoker.revoke(_, _)
+    }
+
+    private Path crlPath() {
+        return directory.resolve("crl.pem")
+    }
+
+    private static String certificate() {
+        def keyPair = KeyPairGenerator.getInstance("EC").generateKeyPair()
+        def now = new Date()
+        return Pem.encode(new JcaX509v3CertificateBuilder(new X500Name("CN=some-ca"), BigInteger.ONE,
+                now - 1, now + 1, new X500Name("CN=some-common-name"), keyPair.public)
+                .build(new JcaContentSignerBuilder("SHA256withECDSA").build(keyPair.private)))
+    }
+}
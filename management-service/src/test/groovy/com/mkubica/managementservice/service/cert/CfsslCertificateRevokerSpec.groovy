@@ -0,0 +1,93 @@
+package com.mkubica.managementservice.service.cert
+
+import com.mkubica.managementservice.util.HttpUtil
+import com.mkubica.managementservice.util.Pem
+import io.vavr.control.Try
+import org.bouncycastle.asn1.x500.X500Name
+import org.bouncycastle.asn1.x509.Extension
+import org.bouncycastle.cert.jcajce.JcaX509ExtensionUtils
+import org.bouncycastle.cert.jcajce.JcaX509v3CertificateBuilder
+import org.bouncycastle.operator.jcajce.JcaContentSignerBuilder
+import org.bouncycastle.util.encoders.Hex
+import org.json.JSONObject
+import spock.lang.Specification
+
+import java.security.KeyPairGenerator
+import java.time.Duration
+
+class CfsslCertificateRevokerSpec extends Specification {
+
+    private def caKeyPair = KeyPairGenerator.getInstance("EC").generateKeyPair()
+    private HttpUtil httpUtil = Mock()
+    private CfsslCertificateRevoker revoker
+            = new CfsslCertificateRevoker("http://ca/revoke", "http://ca/crl", Duration.ofDays(7), httpUtil)
+
+    def "revoke certificate identified the way cfssl stores it"() {
+        given:
+            def certificate = certificate(true)
+            String body = null
+
+        when:
+            def res = revoker.revoke("some-common-name", certificate)
+
+        then:
+            1 * httpUtil.post("http://ca/revoke", _ as String) >> { endpoint, String request ->
+                body = request
+                Try.success('{"success":true,"result":{}}')
+            }
+            res.isSuccess()
+        and: "serial number is decimal, authority key identifier is hex"
+            def request = new JSONObject(body)
+            request.getString("serial") == "123456789"
+            request.getString("authority_key_id")
+                    == Hex.toHexString(new JcaX509ExtensionUtils().createAuthorityKeyIdentifier(caKeyPair.public).keyIdentifier)
+            request.getString("reason") == "cessationOfOperation"
+    }
+
+    def "fail to revoke certificate without authority key identifier"() {
+        when:
+            def res = revoker.revoke("some-common-name", certificate(false))
+
+        then:
+            0 * httpUtil.post(_, _)
+            res.isFailure()
+            res.getCause() instanceof IllegalArgumentException
+    }
+
+    def "fail to revoke certificate unknown to cfssl"() {
+        given:
+            httpUtil.post(_, _) >> Try.failure(new IOException())
+
+        when:
+            def res = revoker.revoke("some-common-name", certificate(true))
+
+        then:
+            res.isFailure()
+            res.getCause() instanceof IOException
+    }
+
+    def "generate revocation list with requested validity"() {
+        given:
+            def der = [1, 2, 3] as byte[]
+
+        when:
+            def res = revoker.generateCrl()
+
+        then:
+            1 * httpUtil.get("http://ca/crl?expiry=168h")
+                    >> Try.success('{"success":true,"result":"' + Base64.encoder.encodeToString(der) + '"}')
+            res.get() == Pem.restore(der, "X509 CRL")
+    }
+
+    private def certificate(boolean withAuthorityKeyIdentifier) {
+        def keyPair = KeyPairGenerator.getInstance("EC").generateKeyPair()
+        def now = new Date()
+        def builder = new JcaX509v3CertificateBuilder(new X500Name("CN=some-ca"), BigInteger.valueOf(123456789),
+                now - 1, now + 1, new X500Name("CN=some-common-name"), keyPair.public)
+        if (withAuthorityKeyIdentifier) {
+            builder.addExtension(Extension.authorityKeyIdentifier, false,
+                    new JcaX509ExtensionUtils().createAuthorityKeyIdentifier(caKeyPair.public))
+        }
+        return builder.build(new JcaContentSignerBuilder("SHA256withECDSA").build(caKeyPair.private))
+    }
+}
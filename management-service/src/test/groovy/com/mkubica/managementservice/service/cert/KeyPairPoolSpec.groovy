@@ -0,0 +1,81 @@
+package com.mkubica.managementservice.service.cert
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry
+import spock.lang.Specification
+
+import java.security.NoSuchAlgorithmException
+import java.time.Duration
+
+class KeyPairPoolSpec extends Specification {
+
+    private SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry()
+
+    def "pool is refilled in background in batches, until it's full"() {
+        given: "pool which is refilled rarely"
+            def pool = new KeyPairPool("EC", 256, 5, 2, Duration.ofHours(1), meterRegistry)
+        and: "first batch is generated right away"
+            waitUntil { pool.available() == 2 }
+
+        when: "pool is refilled twice"
+            pool.refill()
+            pool.refill()
+
+        then: "it doesn't exceed its size"
+            pool.available() == 5
+            meterRegistry.get("key.pair.pool.available").gauge().value() == 5
+            meterRegistry.get("key.pair.pool.capacity").gauge().value() == 5
+
+        cleanup:
+            pool.shutdown()
+    }
+
+    def "take pre-generated key pair"() {
+        given:
+            def pool = new KeyPairPool("EC", 256, 2, 2, Duration.ofHours(1), meterRegistry)
+            waitUntil { pool.available() == 2 }
+
+        when:
+            def first = pool.take()
+            def second = pool.take()
+
+        then: "key pairs come out of the pool"
+            first.get().private.algorithm == "EC"
+            !first.get().is(second.get())
+            pool.available() == 0
+            meterRegistry.get("key.pair.pool.misses").counter().count() == 0
+
+        cleanup:
+            pool.shutdown()
+    }
+
+    def "generate key pair on demand when pool is drained"() {
+        given: "pool which is never refilled"
+            def pool = new KeyPairPool("EC", 256, 1, 0, Duration.ofHours(1), meterRegistry)
+
+        when:
+            def res = pool.take()
+
+        then: "key pair is generated by calling thread"
+            res.isSuccess()
+            meterRegistry.get("key.pair.pool.misses").counter().count() == 1
+
+        cleanup:
+            pool.shutdown()
+    }
+
+    def "fail fast on unsupported algorithm"() {
+        when:
+            new KeyPairPool("NOPE", 256, 1, 1, Duration.ofHours(1), meterRegistry)
+
+        then:
+            thrown(NoSuchAlgorithmException)
+    }
+
+    private static void waitUntil(Closure<Boolean> condition) {
+        def deadline = System.currentTimeMillis() + 5000
+        while (!condition() && System.currentTimeMillis() < deadline) {
+            sleep(10)
+        }
+        assert condition()
+    }
+}
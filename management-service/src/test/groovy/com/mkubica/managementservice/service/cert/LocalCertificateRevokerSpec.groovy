@@ -0,0 +1,95 @@
+package com.mkubica.managementservice.service.cert
+
+import com.mkubica.managementservice.domain.dao.RevokedCertificateEntity
+import com.mkubica.managementservice.repository.RevokedCertificateRepository
+import com.mkubica.managementservice.util.Pem
+import org.bouncycastle.asn1.x500.X500Name
+import org.bouncycastle.asn1.x509.CRLReason
+import org.bouncycastle.asn1.x509.Extension
+import org.bouncycastle.cert.X509CRLHolder
+import org.bouncycastle.cert.jcajce.JcaX509v3CertificateBuilder
+import org.bouncycastle.operator.jcajce.JcaContentSignerBuilder
+import org.bouncycastle.operator.jcajce.JcaContentVerifierProviderBuilder
+import spock.lang.Specification
+
+import java.security.KeyPairGenerator
+import java.time.Duration
+import java.time.Instant
+
+class LocalCertificateRevokerSpec extends Specification {
+
+    private def caKeyPair = KeyPairGenerator.getInstance("EC").generateKeyPair()
+    private CertificateAuthority certificateAuthority = new CertificateAuthority(
+            certificate(new X500Name("CN=some-ca"), BigInteger.ONE), caKeyPair.private)
+    private RevokedCertificateRepository revokedCertificateRepository = Mock()
+    private LocalCertificateRevoker revoker
+            = new LocalCertificateRevoker(certificateAuthority, revokedCertificateRepository, Duration.ofDays(7))
+
+    def "record revoked certificate with hex serial number"() {
+        given:
+            def certificate = certificate(new X500Name("CN=some-common-name"), BigInteger.valueOf(31))
+
+        when:
+            def res = revoker.revoke("some-common-name", certificate)
+
+        then:
+            1 * revokedCertificateRepository.save({ RevokedCertificateEntity entity ->
+                entity.serialNumber == "1f"
+                        && entity.commonName == "some-common-name"
+                        && entity.expiresAt == certificate.notAfter.toInstant()
+            }) >> { args -> args[0] }
+            res.isSuccess()
+    }
+
+    def "generate revocation list of certificates which haven't expired, signed by CA"() {
+        given:
+            revokedCertificateRepository.findAllByExpiresAtAfter(_ as Instant) >> [
+                    revoked("1f"),
+                    revoked("abcdef0123456789")
+            ]
+
+        when:
+            def res = revoker.generateCrl()
+
+        then: "list is issued and signed by CA"
+            def crl = Pem.decode(res.get()) as X509CRLHolder
+            crl.issuer == new X500Name("CN=some-ca")
+            crl.isSignatureValid(new JcaContentVerifierProviderBuilder().build(caKeyPair.public))
+            crl.nextUpdate.after(new Date())
+            crl.getExtension(Extension.cRLNumber) != null
+        and: "it contains revoked certificates"
+            crl.revokedCertificates.size() == 2
+            crl.getRevokedCertificate(BigInteger.valueOf(31)) != null
+            crl.getRevokedCertificate(new BigInteger("abcdef0123456789", 16)) != null
+            CRLReason.getInstance(crl.getRevokedCertificate(BigInteger.valueOf(31)).extensions
+                    .getExtensionParsedValue(Extension.reasonCode)).value.intValue() == CRLReason.cessationOfOperation
+    }
+
+    def "generate empty revocation list"() {
+        given:
+            revokedCertificateRepository.findAllByExpiresAtAfter(_ as Instant) >> []
+
+        when:
+            def res = revoker.generateCrl()
+
+        then:
+            res.get().startsWith("-----BEGIN X509 CRL-----\n")
+            (Pem.decode(res.get()) as X509CRLHolder).revokedCertificates.isEmpty()
+    }
+
+    private static RevokedCertificateEntity revoked(String serialNumber) {
+        return RevokedCertificateEntity.builder()
+                .withSerialNumber(serialNumber)
+                .withCommonName("some-common-name")
+                .withRevokedAt(Instant.now())
+                .withExpiresAt(Instant.now() + Duration.ofDays(1))
+                .build()
+    }
+
+    private def certificate(X500Name subject, BigInteger serialNumber) {
+        def now = new Date()
+        return new JcaX509v3CertificateBuilder(new X500Name("CN=some-ca"), serialNumber,
+                now - 1, now + 1, subject, caKeyPair.public)
+                .build(new JcaContentSignerBuilder("SHA256withECDSA").build(caKeyPair.private))
+    }
+}
@@ -0,0 +1,105 @@
+package com.mkubica.managementservice.service.ip
+
+import spock.lang.Specification
+
+import java.nio.file.FileAlreadyExistsException
+import java.time.Duration
+import java.util.concurrent.Callable
+import java.util.concurrent.Executors
+import java.util.concurrent.TimeUnit
+
+
+class GroupCommitCcdWriterSpec extends Specification {
+
+    private File ccDirectory
+    private GroupCommitCcdWriter ccdWriter
+
+
+    def setup() {
+        ccDirectory = File.createTempDir("ccd-")
+        ccdWriter = new GroupCommitCcdWriter(ccDirectory.toString(), Duration.ofMillis(5))
+    }
+
+    def cleanup() {
+        ccdWriter.shutdown()
+    }
+
+    def "create entry"() {
+        when: "creating entry of certain common name"
+            def res = ccdWriter.create("some-common-name", "ifconfig-push 10.8.0.2 10.8.0.3\n")
+
+        then: "result is successful and entry becomes durable"
+            res.isSuccess()
+            res.get().get(5, TimeUnit.SECONDS) == null
+        and: "only entry itself is left in ccd, with complete content"
+            ccDirectory.listFiles()*.name == ["some-common-name"]
+            new File(ccDirectory, "some-common-name").text == "ifconfig-push 10.8.0.2 10.8.0.3\n"
+    }
+
+    def "try to create entry that already exists"() {
+        given: "ccd containing entry of certain common name"
+            new File(ccDirectory, "some-common-name").text = "ifconfig-push 10.8.0.2 10.8.0.3\n"
+
+        when: "creating entry of the same common name"
+            def res = ccdWriter.create("some-common-name", "ifconfig-push 10.8.0.4 10.8.0.5\n")
+
+        then: "result is failure"
+            res.isFailure()
+            res.getCause() instanceof FileAlreadyExistsException
+        and: "existing entry is left untouched"
+            ccDirectory.listFiles().size() == 1
+            new File(ccDirectory, "some-common-name").text == "ifconfig-push 10.8.0.2 10.8.0.3\n"
+    }
+
+    def "delete entry"() {
+        given: "ccd containing entry of certain common name"
+            ccdWriter.create("some-common-name", "ifconfig-push 10.8.0.2 10.8.0.3\n").get().get(5, TimeUnit.SECONDS)
+
+        when: "deleting this entry"
+            def res = ccdWriter.delete("some-common-name")
+
+        then: "result is successful and removal becomes durable"
+            res.isSuccess()
+            res.get().get(5, TimeUnit.SECONDS) == null
+        and: "ccd is empty"
+            ccDirectory.listFiles().size() == 0
+    }
+
+    def "try to delete entry that doesn't exist"() {
+        when:
+            def res = ccdWriter.delete("some-common-name")
+
+        then:
+            res.isFailure()
+            res.getCause() instanceof FileNotFoundException
+    }
+
+    def "create many entries concurrently"() {
+        given: "pool of threads"
+            def executor = Executors.newFixedThreadPool(8)
+
+        when: "creating entries of many common names at the same time"
+            def results = executor.invokeAll((0..<50).collect { i ->
+                { -> ccdWriter.create("some-common-name-" + i, "ifconfig-push 10.8.0.2 10.8.0.3\n") } as Callable
+            })*.get()
+
+        then: "every entry becomes durable"
+            results.every { it.isSuccess() }
+            results.every { it.get().get(5, TimeUnit.SECONDS) == null }
+        and: "every entry is published"
+            ccDirectory.listFiles().size() == 50
+
+        cleanup:
+            executor.shutdown()
+    }
+
+    def "commit pending changes on shutdown"() {
+        when: "creating entry and shutting writer down right away"
+            def res = ccdWriter.create("some-common-name", "ifconfig-push 10.8.0.2 10.8.0.3\n")
+            ccdWriter.shutdown()
+
+        then: "entry is durable"
+            res.get().isDone()
+            !res.get().isCompletedExceptionally()
+    }
+}
@@ -70,6 +70,30 @@ class IpAssignerSpec extends Specification {
             res.getCause() instanceof AddressStringException
     }
 
+    def "get pool of ip pairs from network address and mask strings"() {
+        given:
+            def internalNetworkAddress = "10.8.0.0"
+            def internalNetworkMask = "255.255.0.0"
+
+        when:
+            def res = IpAssigner.getPairPoolFromAddressAndMask(internalNetworkAddress, internalNetworkMask)
+
+        then:
+            res.isSuccess()
+            res.get().size() == 32768
+            res.get().first() == from("10.8.0.0", "10.8.0.1")
+            res.get().last() == from("10.8.255.254", "10.8.255.255")
+    }
+
+    def "get pool of ip pairs from invalid network address and mask strings"() {
+        when:
+            def res = IpAssigner.getPairPoolFromAddressAndMask("10.8.312.0", "255.243")
+
+        then:
+            res.isFailure()
+            res.getCause() instanceof AddressStringException
+    }
+
     def "convert IPAddressSeqRange to whitespace divided list of ipv4 addresses"() {
         given:
             def seqRange = from("10.8.0.0", "10.8.0.1")
@@ -0,0 +1,133 @@
+package com.mkubica.managementservice.service.ip
+
+import spock.lang.Specification
+
+import java.util.concurrent.ConcurrentLinkedQueue
+import java.util.concurrent.CountDownLatch
+
+
+class IpPairBitmapSpec extends Specification {
+
+    def "allocate pairs automatically"() {
+        given:
+            def bitmap = new IpPairBitmap(130)
+
+        when: "allocating pairs spanning multiple words"
+            def indices = (0..<130).collect { bitmap.allocate() }
+
+        then: "pairs are allocated in ascending order"
+            indices == (0..<130).toList()
+            bitmap.allocatedCount() == 130
+        and: "there are no free pairs left"
+            bitmap.allocate() == -1
+    }
+
+    def "allocate lowest free pair after release"() {
+        given:
+            def bitmap = new IpPairBitmap(200)
+            100.times { bitmap.allocate() }
+
+        when: "releasing couple of pairs"
+            bitmap.release(70)
+            bitmap.release(3)
+
+        then: "lowest released pairs are reused first"
+            bitmap.allocate() == 3
+            bitmap.allocate() == 70
+            bitmap.allocate() == 100
+    }
+
+    def "allocate pair explicitly"() {
+        given:
+            def bitmap = new IpPairBitmap(64)
+
+        expect: "explicit allocation succeeds only once"
+            bitmap.allocate(0)
+            !bitmap.allocate(0)
+        and: "automatic allocation skips explicitly allocated pair"
+            bitmap.allocate() == 1
+            bitmap.isAllocated(0)
+            bitmap.isAllocated(1)
+            !bitmap.isAllocated(2)
+    }
+
+    def "release pair that wasn't allocated"() {
+        given:
+            def bitmap = new IpPairBitmap(10)
+
+        expect:
+            !bitmap.release(5)
+            bitmap.allocatedCount() == 0
+    }
+
+    def "try to access pair from outside of the pool"() {
+        given:
+            def bitmap = new IpPairBitmap(10)
+
+        when:
+            bitmap.allocate(index)
+
+        then:
+            thrown(IndexOutOfBoundsException)
+
+        where: index << [-1, 10, 64]
+    }
+
+    def "empty pool"() {
+        given:
+            def bitmap = new IpPairBitmap(0)
+
+        expect:
+            bitmap.allocate() == -1
+            bitmap.capacity() == 0
+    }
+
+    def "allocate pairs concurrently"() {
+        given:
+            def bitmap = new IpPairBitmap(1000)
+            def indices = new ConcurrentLinkedQueue<Integer>()
+            def start = new CountDownLatch(1)
+
+        when: "multiple threads allocate pairs at the same time"
+            def threads = (0..<8).collect {
+                Thread.start {
+                    start.await()
+                    150.times { indices.add(bitmap.allocate()) }
+                }
+            }
+            start.countDown()
+            threads*.join()
+
+        then: "every pair is allocated only once"
+            indices.findAll { it >= 0 }.toSet().size() == 1000
+            indices.count(-1) == 200
+            bitmap.allocatedCount() == 1000
+    }
+
+    def "allocate and release pairs concurrently"() {
+        given:
+            def bitmap = new IpPairBitmap(64)
+            def start = new CountDownLatch(1)
+
+        when: "multiple threads allocate and release pairs at the same time"
+            def threads = (0..<8).collect {
+                Thread.start {
+                    start.await()
+                    1000.times {
+                        def index = bitmap.allocate()
+                        if (index >= 0) {
+                            assert bitmap.release(index)
+                        }
+                    }
+                }
+            }
+            start.countDown()
+            threads*.join()
+
+        then: "all pairs are free again"
+            bitmap.allocatedCount() == 0
+            (0..<64).every { !bitmap.isAllocated(it) }
+        and: "lowest pair is allocated first"
+            bitmap.allocate() == 0
+    }
+}
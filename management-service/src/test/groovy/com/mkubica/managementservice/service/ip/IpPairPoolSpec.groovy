@@ -0,0 +1,97 @@
+package com.mkubica.managementservice.service.ip
+
+import inet.ipaddr.IPAddress
+import inet.ipaddr.IPAddressSeqRange
+import inet.ipaddr.IPAddressString
+import inet.ipaddr.ipv4.IPv4AddressSeqRange
+import spock.lang.Specification
+
+
+class IpPairPoolSpec extends Specification {
+
+    def "pool corresponds to materialized pairs of the network"() {
+        given:
+            def cidr = "10.8.0.0/24"
+            def materialized = IpAssigner.getAllPairsFromCidr(cidr).get()
+
+        when:
+            def pool = IpPairPool.of(new IPAddressString(cidr).toAddress())
+
+        then:
+            pool.size() == materialized.size()
+            (0..<pool.size()).collect { pool.get(it) } == materialized.toJavaList()
+            pool.first() == from("10.8.0.0", "10.8.0.1")
+            pool.last() == from("10.8.0.254", "10.8.0.255")
+    }
+
+    def "pool of large network is created without materializing pairs"() {
+        when:
+            def pool = IpPairPool.of(new IPAddressString("10.0.0.0/8").toAddress())
+
+        then:
+            pool.size() == 1 << 23
+            pool.last() == from("10.255.255.254", "10.255.255.255")
+            pool.indexOf(from("10.128.0.0", "10.128.0.1")).get() == 1 << 22
+    }
+
+    def "drop first pairs of the pool"() {
+        given:
+            def pool = IpPairPool.of(new IPAddressString("10.8.0.0/24").toAddress())
+
+        when:
+            def dropped = pool.drop(1)
+
+        then:
+            dropped.size() == pool.size() - 1
+            dropped.first() == from("10.8.0.2", "10.8.0.3")
+            !dropped.contains(from("10.8.0.0", "10.8.0.1"))
+            pool.drop(1000).isEmpty()
+    }
+
+    def "check whether pair belongs to the pool"() {
+        given:
+            def pool = IpPairPool.of(new IPAddressString("10.8.0.0/24").toAddress()).drop(1)
+
+        expect:
+            pool.contains(IpAssigner.seqRangeFromString(ip).get()) == contains
+
+        where:
+            ip            | contains
+            "10.8.0.2"    | true
+            "10.8.0.254"  | true
+            "10.8.0.0"    | false
+            "10.8.0.3"    | false
+            "10.8.1.0"    | false
+            "10.7.255.254"| false
+    }
+
+    def "try to access pair from outside of the pool"() {
+        given:
+            def pool = IpPairPool.of(new IPAddressString("10.8.0.0/24").toAddress())
+
+        when:
+            pool.get(index)
+
+        then:
+            thrown(IndexOutOfBoundsException)
+
+        where: index << [-1, 128]
+    }
+
+    def "try to create pool from address that is not IPv4 network"() {
+        when:
+            IpPairPool.of(new IPAddressString(address).toAddress())
+
+        then:
+            thrown(IllegalArgumentException)
+
+        where: address << ["10.8.0.0", "2001:db8::/120"]
+    }
+
+    private static IPAddressSeqRange from(String first, String second) {
+        return new IPv4AddressSeqRange(
+                new IPAddressString(first).toAddress(IPAddress.IPVersion.IPV4),
+                new IPAddressString(second).toAddress(IPAddress.IPVersion.IPV4)
+        )
+    }
+}
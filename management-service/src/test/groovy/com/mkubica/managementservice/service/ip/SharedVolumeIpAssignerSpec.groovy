@@ -5,13 +5,23 @@ import com.mkubica.managementservice.domain.dao.GatewayEntity
 import com.mkubica.managementservice.exception.IpAddressNotUniqueException
 import com.mkubica.managementservice.exception.IpAddressNotWithinPoolException
 import com.mkubica.managementservice.exception.IpAddressPoolFullyAllocatedException
+import com.mkubica.managementservice.repository.GatewayCredentialsRepository
 import com.mkubica.managementservice.repository.GatewayRepository
+import com.mkubica.managementservice.service.GatewayEntityCache
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry
 import inet.ipaddr.AddressStringException
+import io.vavr.Tuple
+import io.vavr.collection.List as VavrList
 import io.vavr.collection.TreeSet
 import io.vavr.control.Option
 import spock.lang.Specification
 
 import java.nio.file.FileAlreadyExistsException
+import java.time.Duration
+import java.util.concurrent.Callable
+import java.util.concurrent.Executors
+import java.util.concurrent.TimeUnit
+import java.util.function.Consumer
 
 import static java.lang.String.format
 
@@ -22,13 +32,19 @@ class SharedVolumeIpAssignerSpec extends Specification {
     private final String internalNetworkAddress = "10.8.0.0"
     private final String internalNetworkMask = "255.255.255.0"
     private static File ccDirectory
+    private GroupCommitCcdWriter ccdWriter
     private IpAssigner ipAssigner
 
 
     def setup() {
         // NOTE: every time new unit test is executed, new temp dir needs to be created
         ccDirectory = File.createTempDir("ccd-")
-        ipAssigner = new SharedVolumeIpAssigner(ccDirectory.toString(), gatewayRepository, internalNetworkAddress, internalNetworkMask)
+        ccdWriter = new GroupCommitCcdWriter(ccDirectory.toString(), Duration.ZERO)
+        ipAssigner = new SharedVolumeIpAssigner(ccdWriter, gatewayRepository, cached(gatewayRepository), internalNetworkAddress, internalNetworkMask)
+    }
+
+    def cleanup() {
+        ccdWriter.shutdown()
     }
 
     def "assign ip explicitly"() {
@@ -42,7 +58,7 @@ class SharedVolumeIpAssignerSpec extends Specification {
             res.isSuccess()
             res.get() == "10.8.0.14"
         and: "corresponding ip seq range is saved to inner cache"
-            ipAssigner.allocatedIpPairs.all() == TreeSet.of(
+            ipAssigner.allocatedIpPairs() == TreeSet.of(
                 IpAssigner.seqRangeFromString("10.8.0.14").get()
             )
         and: "file of certain common name has been created and contains corresponding config"
@@ -61,7 +77,7 @@ class SharedVolumeIpAssignerSpec extends Specification {
             res.isFailure()
             res.getCause() instanceof AddressStringException
         and: "cache is empty"
-            ipAssigner.allocatedIpPairs.all() == TreeSet.empty()
+            ipAssigner.allocatedIpPairs() == TreeSet.empty()
         and: "no config file has been created"
             ccDirectory.listFiles().size() == 0
     }
@@ -77,7 +93,7 @@ class SharedVolumeIpAssignerSpec extends Specification {
             res.isFailure()
             res.getCause() instanceof IpAddressNotWithinPoolException
         and: "cache is empty"
-            ipAssigner.allocatedIpPairs.all() == TreeSet.empty()
+            ipAssigner.allocatedIpPairs() == TreeSet.empty()
         and: "no config file has been created"
             ccDirectory.listFiles().size() == 0
     }
@@ -93,7 +109,7 @@ class SharedVolumeIpAssignerSpec extends Specification {
             res.isFailure()
             res.getCause() instanceof IpAddressNotUniqueException
         and: "cache is empty"
-            ipAssigner.allocatedIpPairs.all() == TreeSet.empty()
+            ipAssigner.allocatedIpPairs() == TreeSet.empty()
         and: "no config file has been created"
             ccDirectory.listFiles().size() == 0
     }
@@ -111,7 +127,7 @@ class SharedVolumeIpAssignerSpec extends Specification {
             res.isFailure()
             res.getCause() instanceof FileAlreadyExistsException
         and: "cache is empty"
-            ipAssigner.allocatedIpPairs.all() == TreeSet.empty()
+            ipAssigner.allocatedIpPairs() == TreeSet.empty()
         and: "no new config file has been created"
             ccDirectory.listFiles().size() == 1
     }
@@ -124,7 +140,7 @@ class SharedVolumeIpAssignerSpec extends Specification {
             res.isSuccess()
             res.get() == "10.8.0.2"
         and: "cache contains successfully assigned ip"
-            ipAssigner.allocatedIpPairs.all() == TreeSet.of(IpAssigner.seqRangeFromString("10.8.0.2").get())
+            ipAssigner.allocatedIpPairs() == TreeSet.of(IpAssigner.seqRangeFromString("10.8.0.2").get())
         and: "associated config file has been created"
             fileValid("some-common-name", "10.8.0.2 10.8.0.3")
 
@@ -146,7 +162,7 @@ class SharedVolumeIpAssignerSpec extends Specification {
             fileValid("some-common-name-2", "10.8.0.4 10.8.0.5")
             fileValid("some-common-name-3", "10.8.0.6 10.8.0.7")
         and: "cache contains successfully assigned addresses"
-            ipAssigner.allocatedIpPairs.all() == TreeSet.of(
+            ipAssigner.allocatedIpPairs() == TreeSet.of(
                     IpAssigner.seqRangeFromString("10.8.0.2").get(),
                     IpAssigner.seqRangeFromString("10.8.0.4").get(),
                     IpAssigner.seqRangeFromString("10.8.0.6").get()
@@ -165,11 +181,128 @@ class SharedVolumeIpAssignerSpec extends Specification {
             res.isFailure()
             res.getCause() instanceof IpAddressPoolFullyAllocatedException
         and: "cache is full"
-            ipAssigner.allocatedIpPairs.all().size() == amount
+            ipAssigner.allocatedIpPairs().size() == amount
         and: "ccd is full"
             ccDirectory.listFiles().size() == amount
     }
 
+    def "try to assign ip that has been already allocated by assigner itself"() {
+        given: "repository that doesn't contain any entities"
+            gatewayRepository.getGatewayEntityByIpAddress(_ as String) >> Option.none()
+        and: "ip that has been already assigned to other common name"
+            ipAssigner.assignIp("some-common-name-1", "10.8.0.14")
+
+        when: "assigning same ip to another common name"
+            def res = ipAssigner.assignIp("some-common-name-2", "10.8.0.14")
+
+        then: "result is failure"
+            res.isFailure()
+            res.getCause() instanceof IpAddressNotUniqueException
+        and: "cache contains only first assignment"
+            ipAssigner.allocatedIpPairs() == TreeSet.of(IpAssigner.seqRangeFromString("10.8.0.14").get())
+        and: "config file has been created only for the first common name"
+            fileValid("some-common-name-1", "10.8.0.14 10.8.0.15")
+            ccDirectory.listFiles().size() == 1
+    }
+
+    def "allocate lowest free ip address after some address has been revoked"() {
+        given: "repository that holds entity of revoked common name"
+            gatewayRepository.getGatewayEntityByCommonName("some-common-name-2")
+                    >> Option.some(GatewayEntity.builder().withIpAddress("10.8.0.4").build())
+        and: "couple of ips assigned automatically, one of them revoked"
+            ipAssigner.assignIp("some-common-name-1")
+            ipAssigner.assignIp("some-common-name-2")
+            ipAssigner.assignIp("some-common-name-3")
+            ipAssigner.revokeIp("some-common-name-2")
+
+        when: "assigning ip automatically"
+            def res = ipAssigner.assignIp("some-common-name-4")
+
+        then: "revoked address is reused"
+            res.isSuccess()
+            res.get() == "10.8.0.4"
+            fileValid("some-common-name-4", "10.8.0.4 10.8.0.5")
+        and: "next automatic assignment continues after highest allocated address"
+            ipAssigner.assignIp("some-common-name-5").get() == "10.8.0.8"
+    }
+
+    def "assign batch of ip addresses"() {
+        given: "repository that contains entity associated with one of explicitly requested ips"
+            def repository = Mock(GatewayRepository)
+            def assigner = new SharedVolumeIpAssigner(ccdWriter, repository, cached(repository), internalNetworkAddress, internalNetworkMask)
+
+        when: "assigning batch of ips, explicitly and automatically"
+            def res = assigner.assignIps(VavrList.of(
+                    Tuple.of("some-common-name-1", null),
+                    Tuple.of("some-common-name-2", "10.8.0.14"),
+                    Tuple.of("some-common-name-3", "10.8.0.24"),
+                    Tuple.of("some-common-name-4", "10.7.0.2"),
+                    Tuple.of("some-common-name-5", null)))
+
+        then: "explicit ips are checked against repository with single query"
+            1 * repository.findExistingIpAddresses(["10.8.0.14", "10.8.0.24", "10.7.0.2"]) >> ["10.8.0.24"]
+            0 * repository.getGatewayEntityByIpAddress(_)
+        and: "result is reported for each assignment"
+            res.size() == 5
+            res[0].get() == "10.8.0.2"
+            res[1].get() == "10.8.0.14"
+            res[2].getCause() instanceof IpAddressNotUniqueException
+            res[3].getCause() instanceof IpAddressNotWithinPoolException
+            res[4].get() == "10.8.0.4"
+        and: "config files have been created for successful assignments only"
+            fileValid("some-common-name-1", "10.8.0.2 10.8.0.3")
+            fileValid("some-common-name-2", "10.8.0.14 10.8.0.15")
+            fileValid("some-common-name-5", "10.8.0.4 10.8.0.5")
+            ccDirectory.listFiles().size() == 3
+    }
+
+    def "assign ip asynchronously"() {
+        given: "repository that doesn't contain any entities"
+            gatewayRepository.getGatewayEntityByIpAddress(_ as String) >> Option.none()
+
+        when: "assigning explicit ip asynchronously"
+            def res = ipAssigner.assignIpAsync("some-common-name", "10.8.0.14")
+
+        then: "ip is assigned once config file is durable"
+            res.isSuccess()
+            res.get().get(5, TimeUnit.SECONDS) == "10.8.0.14"
+            fileValid("some-common-name", "10.8.0.14 10.8.0.15")
+    }
+
+    def "reject ip asynchronously, before returning future"() {
+        given: "repository that contains entity associated with certain ip"
+            gatewayRepository.getGatewayEntityByIpAddress("10.8.0.14") >> Option.some(GatewayEntity.builder().build())
+
+        when: "assigning ip which is not within pool or already assigned"
+            def res = ipAssigner.assignIpAsync("some-common-name", ip)
+
+        then: "result is failure right away"
+            res.isFailure()
+            exception.isInstance(res.getCause())
+        and: "no config file has been created"
+            ccDirectory.listFiles().size() == 0
+
+        where:
+            ip          | exception
+            "10.7.0.14" | IpAddressNotWithinPoolException
+            "10.8.0.14" | IpAddressNotUniqueException
+    }
+
+    def "release ip address which hasn't been persisted"() {
+        given: "ip assigned automatically"
+            ipAssigner.assignIp("some-common-name")
+
+        when: "releasing this ip"
+            def res = ipAssigner.releaseIp("some-common-name", "10.8.0.2")
+
+        then: "result is successful"
+            res.isSuccess()
+            res.get() == "10.8.0.2"
+        and: "cache and ccd are empty"
+            ipAssigner.allocatedIpPairs() == TreeSet.empty()
+            ccDirectory.listFiles().size() == 0
+    }
+
     def "revoke ip address"() {
         given: "empty repository"
             gatewayRepository.getGatewayEntityByIpAddress(_ as String) >> Option.none()
@@ -187,7 +320,7 @@ class SharedVolumeIpAssignerSpec extends Specification {
             res.isSuccess()
             res.get() == "10.8.0.24"
         and: "cache contains only addresses that haven't been revoked"
-            ipAssigner.allocatedIpPairs.all() == TreeSet.of(
+            ipAssigner.allocatedIpPairs() == TreeSet.of(
                     IpAssigner.seqRangeFromString("10.8.0.2").get(),
                     IpAssigner.seqRangeFromString("10.8.0.12").get(),
             )
@@ -213,7 +346,7 @@ class SharedVolumeIpAssignerSpec extends Specification {
             res.isFailure()
             res.getCause() instanceof FileNotFoundException
         and: "cache contains all assigned ip addresses"
-            ipAssigner.allocatedIpPairs.all() == TreeSet.of(
+            ipAssigner.allocatedIpPairs() == TreeSet.of(
                     IpAssigner.seqRangeFromString("10.8.0.2").get(),
                     IpAssigner.seqRangeFromString("10.8.0.12").get(),
                     IpAssigner.seqRangeFromString("10.8.0.24").get(),
@@ -223,25 +356,89 @@ class SharedVolumeIpAssignerSpec extends Specification {
             fileValid("some-common-name-3", "10.8.0.12 10.8.0.13")
     }
 
+    def "assign ip addresses concurrently"() {
+        given: "repository that doesn't contain any entities"
+            gatewayRepository.getGatewayEntityByIpAddress(_ as String) >> Option.none()
+        and: "pool of threads"
+            def executor = Executors.newFixedThreadPool(8)
+
+        when: "assigning ip addresses to many common names at the same time"
+            def results = executor.invokeAll((0..<100).collect { i ->
+                { -> ipAssigner.assignIp(format("some-common-name-%d", i)) } as Callable
+            })*.get()
+
+        then: "every assignment succeeds with unique ip address"
+            results.every { it.isSuccess() }
+            results*.get().toSet().size() == 100
+        and: "lowest pairs of the pool are allocated"
+            ipAssigner.allocatedIpPairs().size() == 100
+            ipAssigner.allocatedIpPairs().last() == IpAssigner.seqRangeFromString("10.8.0.200").get()
+        and: "config file has been created for every common name"
+            ccDirectory.listFiles().size() == 100
+
+        cleanup:
+            executor.shutdown()
+    }
+
+    def "try to assign ip to the same common name concurrently"() {
+        given: "pool of threads"
+            def executor = Executors.newFixedThreadPool(8)
+
+        when: "assigning ip addresses to single common name at the same time"
+            def results = executor.invokeAll((0..<20).collect {
+                { -> ipAssigner.assignIp("some-common-name") } as Callable
+            })*.get()
+
+        then: "only one assignment succeeds"
+            results.count { it.isSuccess() } == 1
+            results.findAll { it.isFailure() }.every { it.getCause() instanceof FileAlreadyExistsException }
+        and: "pairs of failed assignments are released"
+            ipAssigner.allocatedIpPairs().size() == 1
+            ccDirectory.listFiles().size() == 1
+
+        cleanup:
+            executor.shutdown()
+    }
+
+    def "initialize ip assigner out of ip addresses streamed from repository"() {
+        given: "mock repository"
+            def repository = Mock(GatewayRepository)
+
+        when: "creating ip assigner"
+            def assigner = new SharedVolumeIpAssigner(ccdWriter, repository, cached(repository), "10.8.0.0", "255.255.255.0")
+
+        then: "only ip addresses are streamed, no entity is loaded"
+            1 * repository.forEachIpAddress(_) >> { Consumer<String> action ->
+                (1..<100).each { action.accept(format("10.8.0.%d", it * 2)) }
+            }
+            0 * repository.findAll()
+        and: "all streamed addresses are allocated"
+            assigner.allocatedIpPairs().size() == 99
+            assigner.assignIp("some-common-name").get() == "10.8.0.200"
+    }
+
     def "try to initialize ip assigner when repository holds corrupted ip addresses"() {
         given: "fresh stub repository"
             def repository = Stub(GatewayRepository)
-        and: "some entities in this repository, one of them has corrupted ip"
-            repository.findAll() >> List.of(
-                    GatewayEntity.builder().withIpAddress("10.8.0.14").build(),
-                    GatewayEntity.builder().withIpAddress("10.8.0.24").build(),
-                    GatewayEntity.builder().withIpAddress("invalid").build()
-            )
+        and: "ip addresses of some entities in this repository, one of them is corrupted"
+            repository.forEachIpAddress(_ as Consumer<String>) >> { Consumer<String> action ->
+                ["10.8.0.14", "10.8.0.24", "invalid"].each { action.accept(it) }
+            }
 
         expect: "creation of ip assigner to succeed"
-            def assigner = new SharedVolumeIpAssigner(ccDirectory.toString(), repository, "10.8.0.0", "255.255.255.0")
+            def assigner = new SharedVolumeIpAssigner(ccdWriter, repository, cached(repository), "10.8.0.0", "255.255.255.0")
         and: "cache to not contain corrupted ip"
-            assigner.allocatedIpPairs.all() == TreeSet.of(
+            assigner.allocatedIpPairs() == TreeSet.of(
                     IpAssigner.seqRangeFromString("10.8.0.14").get(),
                     IpAssigner.seqRangeFromString("10.8.0.24").get()
             )
     }
 
+    GatewayEntityCache cached(GatewayRepository repository) {
+        return new GatewayEntityCache(repository, Stub(GatewayCredentialsRepository), 100, Duration.ofMinutes(1), false,
+                new SimpleMeterRegistry())
+    }
+
     static boolean fileValid(String commonName, String contents) {
         def file = new File(ccDirectory, commonName)
 
@@ -0,0 +1,104 @@
+package com.mkubica.managementservice.util
+
+import com.mkubica.managementservice.exception.CertificateAuthorityBusyException
+import com.sun.net.httpserver.HttpServer
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry
+import spock.lang.Specification
+
+import java.time.Duration
+import java.util.concurrent.CompletionException
+import java.util.concurrent.CountDownLatch
+import java.util.concurrent.Executors
+import java.util.concurrent.TimeUnit
+
+class AsyncHttpUtilSpec extends Specification {
+
+    private SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry()
+    private CountDownLatch released = new CountDownLatch(0)
+    private int status = 200
+    private HttpServer server
+    private AsyncHttpUtil asyncHttpUtil
+
+    def setup() {
+        server = HttpServer.create(new InetSocketAddress("localhost", 0), 0)
+        server.executor = Executors.newCachedThreadPool()
+        server.createContext("/newcert") { exchange ->
+            released.await(5, TimeUnit.SECONDS)
+            def response = exchange.requestBody.bytes
+            exchange.sendResponseHeaders(status, response.length)
+            exchange.responseBody.withCloseable { it.write(response) }
+        }
+        server.start()
+        asyncHttpUtil = new AsyncHttpUtil(Duration.ofSeconds(1), Duration.ofSeconds(5),
+                new CertificateAuthorityBulkhead(2, meterRegistry))
+    }
+
+    def cleanup() {
+        released.countDown()
+        server.stop(0)
+    }
+
+    def "post request asynchronously"() {
+        when:
+            def res = asyncHttpUtil.postAsync(endpoint(), '{"request":1}')
+
+        then: "response is returned"
+            res.get(5, TimeUnit.SECONDS) == '{"request":1}'
+        and: "latency is recorded"
+            meterRegistry.get("certificate.authority.request").timer().count() == 1
+    }
+
+    def "fail request when certificate authority responds with unsuccessful status"() {
+        given:
+            status = 500
+
+        when:
+            asyncHttpUtil.postAsync(endpoint(), "{}").join()
+
+        then:
+            def exc = thrown(CompletionException)
+            exc.getCause() instanceof IOException
+    }
+
+    def "reject request when too many requests are in flight, without holding calling thread"() {
+        given: "requests which are held by certificate authority"
+            released = new CountDownLatch(1)
+            def first = asyncHttpUtil.postAsync(endpoint(), "{}")
+            def second = asyncHttpUtil.postAsync(endpoint(), "{}")
+
+        when: "another request is posted"
+            def third = asyncHttpUtil.postAsync(endpoint(), "{}")
+
+        then: "it fails immediately, while others are still in flight"
+            third.isCompletedExceptionally()
+            !first.isDone()
+            !second.isDone()
+            meterRegistry.get("certificate.authority.bulkhead.rejected").counter().count() == 1
+
+        when: "held requests complete"
+            released.countDown()
+
+        then: "they succeed"
+            first.get(5, TimeUnit.SECONDS) == "{}"
+            second.get(5, TimeUnit.SECONDS) == "{}"
+        and:
+            asyncHttpUtil.postAsync(endpoint(), "{}").get(5, TimeUnit.SECONDS) == "{}"
+    }
+
+    def "reject request with CertificateAuthorityBusyException"() {
+        given:
+            def util = new AsyncHttpUtil(Duration.ofSeconds(1), Duration.ofSeconds(5),
+                    new CertificateAuthorityBulkhead(0, new SimpleMeterRegistry()))
+
+        when:
+            util.postAsync(endpoint(), "{}").join()
+
+        then:
+            def exc = thrown(CompletionException)
+            exc.getCause() instanceof CertificateAuthorityBusyException
+    }
+
+    private String endpoint() {
+        return "http://localhost:${server.address.port}/newcert"
+    }
+}
@@ -0,0 +1,32 @@
+package com.mkubica.managementservice.util
+
+import com.mkubica.managementservice.exception.CertificateAuthorityBusyException
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry
+import spock.lang.Specification
+
+class CertificateAuthorityBulkheadSpec extends Specification {
+
+    private SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry()
+    private CertificateAuthorityBulkhead bulkhead = new CertificateAuthorityBulkhead(1, meterRegistry)
+
+    def "reject request over the bound until request in flight is released"() {
+        given:
+            def sample = bulkhead.acquire("some-endpoint").get()
+
+        when: "another request is made"
+            def rejected = bulkhead.acquire("some-endpoint")
+
+        then: "it's rejected"
+            rejected.isFailure()
+            rejected.getCause() instanceof CertificateAuthorityBusyException
+            meterRegistry.get("certificate.authority.bulkhead.rejected").counter().count() == 1
+            meterRegistry.get("certificate.authority.bulkhead.in.flight").gauge().value() == 1
+
+        when: "request in flight is released"
+            bulkhead.release(sample)
+
+        then: "its latency is recorded and next request is admitted"
+            meterRegistry.get("certificate.authority.request").timer().count() == 1
+            bulkhead.acquire("some-endpoint").isSuccess()
+    }
+}
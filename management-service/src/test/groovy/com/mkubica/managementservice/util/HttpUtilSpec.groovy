@@ -0,0 +1,121 @@
+package com.mkubica.managementservice.util
+
+import com.mkubica.managementservice.exception.CertificateAuthorityBusyException
+import com.sun.net.httpserver.HttpServer
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry
+import spock.lang.Specification
+
+import java.time.Duration
+import java.util.concurrent.CountDownLatch
+import java.util.concurrent.Executors
+import java.util.concurrent.TimeUnit
+
+class HttpUtilSpec extends Specification {
+
+    private SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry()
+    private CountDownLatch received = new CountDownLatch(1)
+    private CountDownLatch released = new CountDownLatch(0)
+    private HttpServer server
+    private CertificateAuthorityBulkhead bulkhead
+    private HttpUtil httpUtil
+
+    def setup() {
+        server = HttpServer.create(new InetSocketAddress("localhost", 0), 0)
+        server.executor = Executors.newCachedThreadPool()
+        server.createContext("/newcert") { exchange ->
+            received.countDown()
+            released.await(5, TimeUnit.SECONDS)
+            def response = exchange.requestBody.bytes
+            exchange.sendResponseHeaders(200, response.length)
+            exchange.responseBody.withCloseable { it.write(response) }
+        }
+        server.start()
+        bulkhead = new CertificateAuthorityBulkhead(1, meterRegistry)
+        httpUtil = new HttpUtil(2, Duration.ofSeconds(1), Duration.ofSeconds(5), Duration.ofSeconds(30), bulkhead,
+                meterRegistry)
+    }
+
+    def cleanup() {
+        httpUtil.close()
+        server.stop(0)
+    }
+
+    def "post request and reuse pooled connection"() {
+        when: "posting twice"
+            def first = httpUtil.post(endpoint(), '{"request":1}')
+            def second = httpUtil.post(endpoint(), '{"request":2}')
+
+        then: "responses are returned"
+            first.get() == '{"request":1}'
+            second.get() == '{"request":2}'
+        and: "connection is kept alive in pool"
+            meterRegistry.get("httpcomponents.httpclient.pool.total.connections")
+                    .tag("httpclient", HttpUtil.NAME).tag("state", "available").gauge().value() == 1
+        and: "latency is recorded"
+            meterRegistry.get("certificate.authority.request").timer().count() == 2
+    }
+
+    def "reject request when too many requests are in flight"() {
+        given: "request which is held by certificate authority"
+            released = new CountDownLatch(1)
+            def pending = Executors.newSingleThreadExecutor().submit({ httpUtil.post(endpoint(), "{}") })
+            received.await(5, TimeUnit.SECONDS)
+
+        when: "another request is posted"
+            def res = httpUtil.post(endpoint(), "{}")
+
+        then: "it fails immediately"
+            res.isFailure()
+            res.getCause() instanceof CertificateAuthorityBusyException
+            meterRegistry.get("certificate.authority.bulkhead.rejected").counter().count() == 1
+
+        when: "held request completes"
+            released.countDown()
+
+        then: "it succeeds and requests are accepted again"
+            pending.get(5, TimeUnit.SECONDS).isSuccess()
+            httpUtil.post(endpoint(), "{}").isSuccess()
+    }
+
+    def "share bound of requests in flight with non-blocking client"() {
+        given: "request which is held by certificate authority"
+            released = new CountDownLatch(1)
+            def pending = Executors.newSingleThreadExecutor().submit({ httpUtil.post(endpoint(), "{}") })
+            received.await(5, TimeUnit.SECONDS)
+        and: "non-blocking client with the same bulkhead"
+            def asyncHttpUtil = new AsyncHttpUtil(Duration.ofSeconds(1), Duration.ofSeconds(5), bulkhead)
+
+        when: "request is posted with non-blocking client"
+            def res = asyncHttpUtil.postAsync(endpoint(), "{}")
+
+        then: "it fails immediately"
+            res.isCompletedExceptionally()
+            meterRegistry.get("certificate.authority.bulkhead.rejected").counter().count() == 1
+
+        cleanup:
+            released.countDown()
+            pending.get(5, TimeUnit.SECONDS)
+    }
+
+    def "fail request when certificate authority doesn't respond in time"() {
+        given: "client with short read timeout and certificate authority which doesn't respond"
+            def client = new HttpUtil(1, Duration.ofSeconds(1), Duration.ofMillis(100), Duration.ofSeconds(30),
+                    new CertificateAuthorityBulkhead(1, new SimpleMeterRegistry()), new SimpleMeterRegistry())
+            released = new CountDownLatch(1)
+
+        when:
+            def res = client.post(endpoint(), "{}")
+
+        then:
+            res.isFailure()
+            res.getCause() instanceof SocketTimeoutException
+
+        cleanup:
+            released.countDown()
+            client.close()
+    }
+
+    private String endpoint() {
+        return "http://localhost:${server.address.port}/newcert"
+    }
+}
@@ -31,6 +31,41 @@ fi;
 
 iptables -A FORWARD -d "$SERVER_END_NETWORK_CIDR" -m state --state NEW -j REJECT
 
+# revocation list is published by management service, initial one is fetched from CA,
+# so OpenVPN server doesn't reject every client until management service publishes the list;
+# response is validated before anything is written, empty or failed response would install broken list
+fetch_crl() {
+	local response crl
+	response=$(curl --silent --fail http://ca:8888/api/v1/cfssl/crl) || return 1
+	crl=$(echo "$response" | sed -nE 's/.*"result":"([A-Za-z0-9+\/=]+)".*/\1/p')
+	[[ -n "$crl" ]] || return 1
+	{
+		echo "-----BEGIN X509 CRL-----"
+		echo "$crl" | fold -w 64
+		echo "-----END X509 CRL-----"
+	} > /etc/common/crl.pem.tmp && \
+	mv /etc/common/crl.pem.tmp /etc/common/crl.pem
+}
+
+# NOTE: list without any line between its markers (installed when fetching wasn't validated) is fetched again
+if [[ ! -s /etc/common/crl.pem ]] || ! grep -qv -- "-----" /etc/common/crl.pem
+then
+	echo "Missing or empty crl.pem, fetching initial one from CA..."
+	attempts=0
+	until fetch_crl; do
+		attempts=$((attempts + 1))
+		if [[ $attempts -ge 30 ]]
+		then
+			echo "Couldn't fetch valid crl.pem from CA, giving up"
+			rm -f /etc/common/crl.pem.tmp
+			exit 1
+		fi
+		sleep 1
+	done
+else
+  echo "Reusing crl.pem found on volume..."
+fi
+
 [ ! -d /etc/common/ccd ] && mkdir /etc/common/ccd
 [ ! -f /dev/net/tun ] && mkdir /dev/net && mknod /dev/net/tun c 10 200
 